@@ -3,13 +3,21 @@ package nl.weeaboo.filesystem;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import nl.weeaboo.io.IRandomAccessFile;
 import nl.weeaboo.io.RandomAccessUtil;
@@ -17,14 +25,19 @@ import nl.weeaboo.io.RandomAccessUtil;
 /**
  * Base implementation of a file system stored in a compressed archive (like .zip).
  */
-public abstract class AbstractFileArchive extends AbstractFileSystem implements IFileArchive {
+public abstract class AbstractFileArchive extends AbstractFileSystem implements IFileArchive, IAsyncFileSystem {
 
-    private static final RecordPathComparator pathComparator = new RecordPathComparator();
+    static final RecordPathComparator pathComparator = new RecordPathComparator();
 
     protected File file;
     protected IRandomAccessFile rfile;
     protected ArchiveFileRecord[] records;
 
+    private boolean memoryMapped;
+    private boolean resolveOffsetsOnOpen;
+    private ArchiveIndex index;
+    private volatile @Nullable Executor asyncExecutor;
+
     protected AbstractFileArchive() {
     }
 
@@ -33,25 +46,168 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
         file = f;
 
         try {
-            open(RandomAccessUtil.wrap(new RandomAccessFile(f, "r")));
+            if (memoryMapped) {
+                open(RandomAccessUtil.map(f));
+            } else {
+                open(RandomAccessUtil.open(f));
+            }
         } catch (IOException ioe) {
             throw ioe;
         }
     }
 
+    /**
+     * Returns {@code true} if {@link #open(File)} memory-maps the archive file.
+     *
+     * @see #setMemoryMapped(boolean)
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Determines whether {@link #open(File)} memory-maps the archive file. Memory-mapped archives allow multiple
+     * threads to read files from the archive at the same time without contention. Only affects archives opened after
+     * calling this method.
+     *
+     * @see RandomAccessUtil#map(File)
+     */
+    public void setMemoryMapped(boolean mapped) {
+        this.memoryMapped = mapped;
+    }
+
     @Override
     public void open(IRandomAccessFile f) throws IOException {
         rfile = f;
 
         try {
             records = initRecords(f);
-            Arrays.sort(records, pathComparator);
+            if (!isSorted(records)) {
+                Arrays.sort(records, pathComparator);
+            }
+            index = new ArchiveIndex(records);
+
+            if (resolveOffsetsOnOpen) {
+                resolveFileOffsets();
+            }
         } catch (IOException ioe) {
             close();
             throw ioe;
         }
     }
 
+    /** Returns {@code true} if the archive was successfully opened, and hasn't been closed since */
+    private boolean isArchiveOpen() {
+        return rfile != null && index != null;
+    }
+
+    private static boolean isSorted(ArchiveFileRecord[] records) {
+        for (int n = 1; n < records.length; n++) {
+            if (pathComparator.compare(records[n - 1], records[n]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the data offsets of all files are resolved when the archive is opened.
+     *
+     * @see #setResolveOffsetsOnOpen(boolean)
+     */
+    public boolean isResolveOffsetsOnOpen() {
+        return resolveOffsetsOnOpen;
+    }
+
+    /**
+     * Determines whether the data offsets of all files are resolved when the archive is opened. Otherwise, the data
+     * offset of each file is resolved (and cached) the first time it's needed. Resolving all offsets at once reads the
+     * file headers in a single sequential pass, which is faster if most files in the archive will be read anyway.
+     * Only affects archives opened after calling this method.
+     */
+    public void setResolveOffsetsOnOpen(boolean resolve) {
+        this.resolveOffsetsOnOpen = resolve;
+    }
+
+    private void resolveFileOffsets() {
+        ArchiveFileRecord[] byOffset = records.clone();
+        Arrays.sort(byOffset, new Comparator<ArchiveFileRecord>() {
+            @Override
+            public int compare(ArchiveFileRecord a, ArchiveFileRecord b) {
+                long ha = a.getHeaderOffset();
+                long hb = b.getHeaderOffset();
+                return (ha < hb ? -1 : (ha == hb ? 0 : 1));
+            }
+        });
+
+        for (ArchiveFileRecord record : byOffset) {
+            try {
+                getFileOffset(record);
+            } catch (IOException ioe) {
+                // Leave unresolved, the error is reported if the file is opened
+            }
+        }
+    }
+
+    /**
+     * Returns the executor used for asynchronous reads.
+     *
+     * @see #setAsyncExecutor(Executor)
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return (executor != null ? executor : AsyncFileReader.getDefaultExecutor());
+    }
+
+    /**
+     * Sets the executor used for asynchronous reads.
+     *
+     * @param executor The executor to use, or {@code null} to use the
+     *        {@link AsyncFileReader#getDefaultExecutor() default executor}.
+     * @see IAsyncFileSystem
+     */
+    public void setAsyncExecutor(@Nullable Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    @Override
+    public Future<byte[]> readBytesAsync(FilePath path) {
+        if (!isArchiveOpen()) {
+            return AsyncFileReader.failed(new IOException("Archive isn't open"));
+        }
+        return AsyncFileReader.readBytesAsync(getAsyncExecutor(), this, path);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The files are read in the order in which they're stored in the archive.
+     */
+    @Override
+    public Map<FilePath, Future<byte[]>> prefetch(Collection<FilePath> paths) {
+        if (!isArchiveOpen()) {
+            return AsyncFileReader.failed(paths, new IOException("Archive isn't open"));
+        }
+
+        final Map<FilePath, Long> headerOffsets = new HashMap<FilePath, Long>();
+        for (FilePath path : paths) {
+            ArchiveFileRecord record = index.get(resolvePath(path));
+            // Files that don't exist are sorted last, reading them fails anyway
+            headerOffsets.put(path, record != null ? record.getHeaderOffset() : Long.MAX_VALUE);
+        }
+
+        List<FilePath> sorted = new ArrayList<FilePath>(headerOffsets.keySet());
+        Collections.sort(sorted, new Comparator<FilePath>() {
+            @Override
+            public int compare(FilePath a, FilePath b) {
+                long ha = headerOffsets.get(a);
+                long hb = headerOffsets.get(b);
+                return (ha < hb ? -1 : (ha == hb ? 0 : 1));
+            }
+        });
+        return AsyncFileReader.prefetch(getAsyncExecutor(), this, paths, sorted);
+    }
+
     @Override
     protected void closeImpl() {
         if (rfile != null) {
@@ -73,20 +229,16 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
 
     @Override
     public boolean isFolder(FilePath path) {
-        try {
-            return FilePath.empty().equals(path) || getFileImpl(path).isFolder();
-        } catch (FileNotFoundException e) {
-            return false;
+        if (FilePath.empty().equals(path)) {
+            return true;
         }
+        ArchiveFileRecord record = index.get(path);
+        return record != null && record.isFolder();
     }
 
     @Override
     protected boolean getFileExistsImpl(FilePath path) {
-        try {
-            return getFileImpl(path) != null;
-        } catch (FileNotFoundException e) {
-            return false;
-        }
+        return index.get(path) != null;
     }
 
     @Override
@@ -109,11 +261,11 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
     }
 
     protected ArchiveFileRecord getFileImpl(FilePath path) throws FileNotFoundException {
-        int index = Arrays.binarySearch(records, path, pathComparator);
-        if (index < 0) {
+        ArchiveFileRecord record = index.get(path);
+        if (record == null) {
             throw new FileNotFoundException(path.toString());
         }
-        return records[index];
+        return record;
     }
 
     /**
@@ -122,41 +274,78 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
      * @throws IOException If the file offset couldn't be determined.
      */
     public long getFileOffset(FilePath path) throws IOException {
-        return getFileOffset(getFileImpl(path).getHeaderOffset());
+        return getFileOffset(getFileImpl(path));
+    }
+
+    /**
+     * Returns the byte offset of the file data within the archive file. The offset is cached in the record after
+     * it's been resolved.
+     *
+     * @throws IOException If the file offset couldn't be determined.
+     */
+    protected final long getFileOffset(ArchiveFileRecord record) throws IOException {
+        long offset = record.getCachedDataOffset();
+        if (offset < 0) {
+            offset = getFileOffset(record.getHeaderOffset());
+            record.setCachedDataOffset(offset);
+        }
+        return offset;
     }
 
     protected abstract long getFileOffset(long headerOffset) throws IOException;
 
+    /**
+     * Opens an input stream for reading the raw data of a file, as stored in the archive. Unlike
+     * {@link #openInputStream(FilePath)}, the data isn't decompressed. The compression method, CRC and sizes of the
+     * data can be obtained from the file's record ({@link #getFile(FilePath)}).
+     *
+     * @throws FileNotFoundException If no entry with the specified path could be found within the archive.
+     * @throws IOException If the file data couldn't be opened.
+     */
+    public InputStream openRawInputStream(FilePath path) throws IOException {
+        return openRawInputStream(getFile(path));
+    }
+
+    /**
+     * Opens an input stream for reading the raw (compressed) data of a file record, as stored in the archive.
+     *
+     * @throws IOException If the file offset couldn't be determined.
+     */
+    InputStream openRawInputStream(ArchiveFileRecord record) throws IOException {
+        return rfile.getInputStream(getFileOffset(record), record.getCompressedLength());
+    }
+
     @Override
     public Iterator<ArchiveFileRecord> iterator() {
         return Arrays.asList(records).iterator();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned paths are computed lazily, in ascending order.
+     */
     @Override
     public Iterable<FilePath> getFiles(FileCollectOptions opts) {
-        FilePath prefix = opts.getBaseFolder().resolve(opts.getNamePrefix());
-        int index = Arrays.binarySearch(records, prefix, pathComparator);
-        if (index < 0) {
-            index = -(index + 1);
-        }
-
-        List<FilePath> result = new ArrayList<FilePath>();
-        while (index >= 0 && index < records.length) {
-            ArchiveFileRecord record = records[index];
-            FilePath path = record.getPath();
-            if (!path.startsWith(prefix)) {
-                break; //We're past the subrange that matches the prefix
-            }
-
-            boolean isFolder = record.isFolder();
-            if ((isFolder && opts.collectFolders) || (!isFolder && opts.collectFiles)) {
-                if (opts.isValid(path)) {
-                    result.add(path);
+        final FileCollectOptions optsCopy = opts.copy();
+        final ArchiveFileRecord[] recordsSnapshot = records;
+        final ArchiveIndex indexSnapshot = index;
+
+        return new ISortedPathIterable() {
+            @Override
+            public Iterator<FilePath> iterator() {
+                if (optsCopy.recursive) {
+                    return new RecursiveFileIterator(recordsSnapshot, optsCopy);
+                } else {
+                    return new ChildFileIterator(recordsSnapshot, indexSnapshot, optsCopy);
                 }
             }
-            index++;
-        }
-        return result;
+        };
+    }
+
+    private static boolean isCollected(ArchiveFileRecord record, FileCollectOptions opts) {
+        boolean isFolder = record.isFolder();
+        return (isFolder && opts.collectFolders) || (!isFolder && opts.collectFiles);
     }
 
     /**
@@ -173,7 +362,75 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
         return rfile;
     }
 
-    private static class RecordPathComparator implements Comparator<Object>, Serializable {
+    /** Iterates over the subrange of the (sorted) records matching the search prefix */
+    private static final class RecursiveFileIterator extends AbstractPathIterator {
+
+        private final ArchiveFileRecord[] records;
+        private final FileCollectOptions opts;
+        private final FilePath prefix;
+        private int index;
+
+        public RecursiveFileIterator(ArchiveFileRecord[] records, FileCollectOptions opts) {
+            this.records = records;
+            this.opts = opts;
+
+            prefix = opts.getBaseFolder().resolve(opts.getNamePrefix());
+            index = Arrays.binarySearch(records, prefix, pathComparator);
+            if (index < 0) {
+                index = -(index + 1);
+            }
+        }
+
+        @Override
+        protected @Nullable FilePath computeNext() {
+            while (index < records.length) {
+                ArchiveFileRecord record = records[index++];
+                FilePath path = record.getPath();
+                if (!path.startsWith(prefix)) {
+                    index = records.length;
+                    break; //We're past the subrange that matches the prefix
+                }
+
+                if (isCollected(record, opts) && opts.isValid(path)) {
+                    return path;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    /** Iterates over the direct children of a folder */
+    private static final class ChildFileIterator extends AbstractPathIterator {
+
+        private final ArchiveFileRecord[] records;
+        private final int[] children;
+        private final FileCollectOptions opts;
+        private int index;
+
+        public ChildFileIterator(ArchiveFileRecord[] records, ArchiveIndex index, FileCollectOptions opts) {
+            this.records = records;
+            this.children = index.getChildren(opts.getBaseFolder());
+            this.opts = opts;
+        }
+
+        @Override
+        protected @Nullable FilePath computeNext() {
+            while (index < children.length) {
+                ArchiveFileRecord record = records[children[index++]];
+                if (isCollected(record, opts)) {
+                    FilePath path = record.getPath();
+                    if (path.getName().startsWith(opts.getNamePrefix())) {
+                        return path;
+                    }
+                }
+            }
+            return null;
+        }
+
+    }
+
+    static class RecordPathComparator implements Comparator<Object>, Serializable {
 
         private static final long serialVersionUID = 1L;
 
@@ -181,6 +438,13 @@ public abstract class AbstractFileArchive extends AbstractFileSystem implements
         public int compare(Object a, Object b) {
             if (a == b) {
                 return 0;
+            } else if (a instanceof ArchiveFileRecord) {
+                if (b instanceof ArchiveFileRecord) {
+                    return ((ArchiveFileRecord)a).comparePath((ArchiveFileRecord)b);
+                }
+                return ((ArchiveFileRecord)a).comparePath((FilePath)b);
+            } else if (b instanceof ArchiveFileRecord) {
+                return -((ArchiveFileRecord)b).comparePath((FilePath)a);
             }
             return getPath(a).compareTo(getPath(b));
         }
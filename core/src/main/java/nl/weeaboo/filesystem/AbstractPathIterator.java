@@ -0,0 +1,49 @@
+package nl.weeaboo.filesystem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Base implementation for read-only iterators that lazily compute their next path.
+ */
+abstract class AbstractPathIterator implements Iterator<FilePath> {
+
+    private @Nullable FilePath next;
+    private boolean nextComputed;
+
+    /**
+     * Computes the next path.
+     *
+     * @return The next path, or {@code null} if the end of the iteration was reached.
+     */
+    protected abstract @Nullable FilePath computeNext();
+
+    @Override
+    public final boolean hasNext() {
+        if (!nextComputed) {
+            next = computeNext();
+            nextComputed = true;
+        }
+        return next != null;
+    }
+
+    @Override
+    public final FilePath next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        FilePath result = next;
+        next = null;
+        nextComputed = false;
+        return result;
+    }
+
+    @Override
+    public final void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -1,48 +1,169 @@
 package nl.weeaboo.filesystem;
 
-import java.io.Serializable;
+import java.io.ObjectStreamException;
 import java.util.Calendar;
 
+import nl.weeaboo.common.StringUtil;
+import nl.weeaboo.io.IReadResolveSerializable;
+import nl.weeaboo.io.IWriteReplaceSerializable;
+
 /**
  * Represents an entry in an archive file system.
+ * <p>
+ * The record's attributes never change, but the record caches the resolved data offset of the entry. The path is
+ * stored in a name pool shared by all records of the archive, which isn't modified after the archive is opened. When
+ * serialized, only the record's own path is stored (not the entire name pool).
  *
  * @see AbstractFileArchive
  */
-@javax.annotation.concurrent.Immutable
-@com.google.errorprone.annotations.Immutable
-public final class ArchiveFileRecord implements Serializable {
+@javax.annotation.concurrent.ThreadSafe
+public final class ArchiveFileRecord implements IWriteReplaceSerializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 4L;
 
-    private final FilePath path;
+    /** The path is stored in a name pool shared between all records of the archive */
+    private final ArchiveNamePool namePool;
+    private final int nameOffset;
+    private final int nameLength;
+    private final int pathHash;
     private final boolean isFolder;
 
     private final long headerOffset;
     private final long compressedLength;
     private final long uncompressedLength;
     private final byte compression;
+    private final int crc;
 
     private final int dosDateTime;
 
+    /**
+     * Cached byte offset of the file data within the archive, plus one. Zero if not yet resolved. Multiple threads
+     * may resolve the offset at the same time, but they'll all end up storing the same value.
+     */
+    private transient volatile long dataOffsetPlusOne;
+
     ArchiveFileRecord(String path, long offset, long compressedLength, long uncompressedLength, byte compression,
-            int dosDateTime) {
+            int crc, int dosDateTime) {
+
+        this(new ArchiveNamePool(0), path, offset, compressedLength, uncompressedLength, compression, crc,
+                dosDateTime);
+    }
+
+    /**
+     * @param namePool The name pool in which to store the record's path.
+     * @param path The raw path of the entry in the archive. Folder paths end with a {@code '/'}.
+     * @param crc The CRC-32 of the uncompressed file contents.
+     */
+    ArchiveFileRecord(ArchiveNamePool namePool, String path, long offset, long compressedLength,
+            long uncompressedLength, byte compression, int crc, int dosDateTime) {
 
-        this.path = FilePath.of(path);
+        String normalizedPath = FilePath.of(path).toString();
+        byte[] utf8 = StringUtil.toUTF8(normalizedPath);
+        this.namePool = namePool;
+        this.nameOffset = namePool.add(utf8);
+        this.nameLength = utf8.length;
+        this.pathHash = normalizedPath.hashCode();
         this.isFolder = path.endsWith("/");
 
         this.headerOffset = offset;
         this.compressedLength = compressedLength;
         this.uncompressedLength = uncompressedLength;
         this.compression = compression;
+        this.crc = crc;
 
         this.dosDateTime = dosDateTime;
     }
 
+    /**
+     * Creates a record for a path that's already stored in the name pool.
+     *
+     * @param nameOffset The byte offset of the (normalized) path in the name pool.
+     * @param nameLength The length of the path in bytes.
+     * @param pathHash The hash code of the path.
+     * @see ZipIndexCache
+     */
+    ArchiveFileRecord(ArchiveNamePool namePool, int nameOffset, int nameLength, int pathHash, boolean isFolder,
+            long offset, long compressedLength, long uncompressedLength, byte compression, int crc,
+            int dosDateTime) {
+
+        this.namePool = namePool;
+        this.nameOffset = nameOffset;
+        this.nameLength = nameLength;
+        this.pathHash = pathHash;
+        this.isFolder = isFolder;
+
+        this.headerOffset = offset;
+        this.compressedLength = compressedLength;
+        this.uncompressedLength = uncompressedLength;
+        this.compression = compression;
+        this.crc = crc;
+
+        this.dosDateTime = dosDateTime;
+    }
+
+    @Override
+    public Object writeReplace() {
+        return new RecordRef(this);
+    }
+
     /**
      * Returns the path for this file record within its file archive.
      */
     public FilePath getPath() {
-        return path;
+        // The stored path is already normalized
+        return FilePath.ofNormalized(namePool.getString(nameOffset, nameLength));
+    }
+
+    /** The name pool storing this record's path. */
+    ArchiveNamePool getNamePool() {
+        return namePool;
+    }
+
+    /** The byte offset of the path in the {@link #getNamePool() name pool}. */
+    int getNameOffset() {
+        return nameOffset;
+    }
+
+    /** The length of the path in the {@link #getNamePool() name pool} in bytes. */
+    int getNameLength() {
+        return nameLength;
+    }
+
+    /**
+     * Returns the hash code of this record's path. Equal to {@code getPath().hashCode()}, but doesn't need to decode
+     * the path.
+     */
+    int getPathHash() {
+        return pathHash;
+    }
+
+    /**
+     * Returns {@code true} if this record's path is equal to the specified path. Equivalent to
+     * {@code getPath().equals(path)}, but doesn't need to decode the path.
+     */
+    boolean hasPath(FilePath path) {
+        String str = path.toString();
+        return pathHash == str.hashCode() && namePool.compare(nameOffset, nameLength, str) == 0;
+    }
+
+    /**
+     * Compares the path of this record to the specified path. Equivalent to {@code getPath().compareTo(path)}, but
+     * doesn't need to decode the path.
+     */
+    int comparePath(FilePath path) {
+        return namePool.compare(nameOffset, nameLength, path.toString());
+    }
+
+    /**
+     * Compares the path of this record to the path of another record. Equivalent to
+     * {@code getPath().compareTo(other.getPath())}, but avoids decoding the paths if both records share the same name
+     * pool.
+     */
+    int comparePath(ArchiveFileRecord other) {
+        if (namePool == other.namePool) {
+            return namePool.compare(nameOffset, nameLength, other.nameOffset, other.nameLength);
+        }
+        return getPath().compareTo(other.getPath());
     }
 
     /**
@@ -83,6 +204,20 @@ public final class ArchiveFileRecord implements Serializable {
         return headerOffset;
     }
 
+    /**
+     * Returns the cached byte offset of the file data within the archive file, or {@code -1} if the offset hasn't
+     * been resolved yet.
+     *
+     * @see AbstractFileArchive#getFileOffset(FilePath)
+     */
+    long getCachedDataOffset() {
+        return dataOffsetPlusOne - 1;
+    }
+
+    void setCachedDataOffset(long dataOffset) {
+        dataOffsetPlusOne = dataOffset + 1;
+    }
+
     /** The compressed file size in bytes. */
     public long getCompressedLength() {
         return compressedLength;
@@ -93,14 +228,58 @@ public final class ArchiveFileRecord implements Serializable {
         return uncompressedLength;
     }
 
+    /** The last modified time in MS-DOS format, as stored in the archive. */
+    int getDosDateTime() {
+        return dosDateTime;
+    }
+
     /** Record-specific compression method. */
     public byte getCompression() {
         return compression;
     }
 
+    /** The CRC-32 checksum of the uncompressed file contents. */
+    public long getCrc() {
+        return crc & 0xFFFFFFFFL;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" + getPath() + ")";
     }
 
+    /** Serialized form of a record, which stores the record's path instead of the shared name pool */
+    private static class RecordRef implements IReadResolveSerializable {
+
+        private static final long serialVersionUID = ArchiveFileRecord.serialVersionUID;
+
+        private final String path;
+        private final boolean isFolder;
+        private final long headerOffset;
+        private final long compressedLength;
+        private final long uncompressedLength;
+        private final byte compression;
+        private final int crc;
+        private final int dosDateTime;
+
+        public RecordRef(ArchiveFileRecord record) {
+            this.path = record.getPath().toString();
+            this.isFolder = record.isFolder;
+            this.headerOffset = record.headerOffset;
+            this.compressedLength = record.compressedLength;
+            this.uncompressedLength = record.uncompressedLength;
+            this.compression = record.compression;
+            this.crc = record.crc;
+            this.dosDateTime = record.dosDateTime;
+        }
+
+        @Override
+        public Object readResolve() throws ObjectStreamException {
+            byte[] utf8 = StringUtil.toUTF8(path);
+            return new ArchiveFileRecord(new ArchiveNamePool(utf8), 0, utf8.length, path.hashCode(), isFolder,
+                    headerOffset, compressedLength, uncompressedLength, compression, crc, dosDateTime);
+        }
+
+    }
+
 }
@@ -0,0 +1,130 @@
+package nl.weeaboo.filesystem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Lookup structures for the records of a file archive: a hash index from path to record, and an index from each
+ * folder to its direct children.
+ */
+final class ArchiveIndex {
+
+    private static final int[] NO_CHILDREN = {};
+
+    private final ArchiveFileRecord[] records;
+
+    /** Open-addressing hash table (linear probing). Stores {@code recordIndex + 1}, {@code 0} means 'empty'. */
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * Maps folder paths to the indices of their direct children, in ascending order. Also contains folders that
+     * don't have a record of their own. Building this map requires decoding every path, so it's only built when
+     * it's first needed.
+     */
+    private volatile Map<FilePath, int[]> children;
+
+    /**
+     * @param records The archive's records. The array is not copied and must not be modified afterwards.
+     */
+    public ArchiveIndex(ArchiveFileRecord[] records) {
+        this.records = records;
+
+        int capacity = Integer.highestOneBit(Math.max(4, records.length * 2 - 1)) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int n = 0; n < records.length; n++) {
+            int slot = slot(records[n].getPathHash());
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = n + 1;
+        }
+    }
+
+    private static Map<FilePath, int[]> buildChildren(ArchiveFileRecord[] records) {
+        // Count the number of children per folder
+        FilePath[] parents = new FilePath[records.length];
+        Map<FilePath, int[]> counts = new HashMap<FilePath, int[]>();
+        for (int n = 0; n < records.length; n++) {
+            FilePath parent = records[n].getPath().getParent();
+            if (parent == null) {
+                parent = FilePath.empty();
+            }
+            parents[n] = parent;
+
+            int[] count = counts.get(parent);
+            if (count == null) {
+                count = new int[1];
+                counts.put(parent, count);
+            }
+            count[0]++;
+        }
+
+        Map<FilePath, int[]> result = new HashMap<FilePath, int[]>(counts.size() * 2);
+        for (Map.Entry<FilePath, int[]> entry : counts.entrySet()) {
+            result.put(entry.getKey(), new int[entry.getValue()[0]]);
+            entry.getValue()[0] = 0; // Reuse as fill index
+        }
+        for (int n = 0; n < records.length; n++) {
+            int[] fill = counts.get(parents[n]);
+            result.get(parents[n])[fill[0]++] = n;
+        }
+        return result;
+    }
+
+    private Map<FilePath, int[]> getChildrenMap() {
+        Map<FilePath, int[]> result = children;
+        if (result == null) {
+            synchronized (this) {
+                result = children;
+                if (result == null) {
+                    result = buildChildren(records);
+                    children = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the index of the record with the specified path, or {@code -1} if no such record exists.
+     */
+    public int indexOf(FilePath path) {
+        final int hash = path.hashCode();
+        int slot = slot(hash);
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            ArchiveFileRecord record = records[entry - 1];
+            if (record.getPathHash() == hash && record.hasPath(path)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the record with the specified path, or {@code null} if no such record exists.
+     */
+    public @Nullable ArchiveFileRecord get(FilePath path) {
+        int index = indexOf(path);
+        return (index >= 0 ? records[index] : null);
+    }
+
+    /**
+     * Returns the record indices of the direct children of the specified folder, in ascending order. The returned
+     * array must not be modified.
+     */
+    public int[] getChildren(FilePath folder) {
+        int[] result = getChildrenMap().get(folder);
+        return (result != null ? result : NO_CHILDREN);
+    }
+
+}
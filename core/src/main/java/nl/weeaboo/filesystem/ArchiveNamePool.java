@@ -0,0 +1,189 @@
+package nl.weeaboo.filesystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import nl.weeaboo.common.StringUtil;
+
+/**
+ * Shared storage for the (normalized, UTF-8 encoded) paths of archive records. Storing all paths in a single byte
+ * array uses a lot less memory than a separate {@code String} and {@link FilePath} object per record.
+ * <p>
+ * Paths may only be added while the archive is being opened, before the records are shared with other threads.
+ */
+final class ArchiveNamePool implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_CAPACITY = 256;
+
+    private byte[] bytes;
+    private int size;
+
+    public ArchiveNamePool() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity The expected total length of all paths in bytes.
+     */
+    public ArchiveNamePool(int initialCapacity) {
+        bytes = new byte[Math.max(0, initialCapacity)];
+    }
+
+    /**
+     * Creates a pool containing previously stored paths.
+     *
+     * @param bytes The contents of the pool. The array is not copied and must not be modified afterwards.
+     * @see #write(OutputStream)
+     */
+    public ArchiveNamePool(byte[] bytes) {
+        this.bytes = bytes;
+        this.size = bytes.length;
+    }
+
+    /**
+     * Returns the total length of all stored paths in bytes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Writes the contents of the pool.
+     *
+     * @see #ArchiveNamePool(byte[])
+     */
+    void write(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * Adds a normalized path to the pool.
+     *
+     * @return The byte offset of the path within the pool. The length of the stored path is
+     *         {@code StringUtil.toUTF8(path).length}.
+     */
+    int add(byte[] utf8) {
+        if (size + utf8.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + utf8.length, bytes.length * 2));
+        }
+
+        int offset = size;
+        System.arraycopy(utf8, 0, bytes, offset, utf8.length);
+        size += utf8.length;
+        return offset;
+    }
+
+    /**
+     * Releases unused capacity. Call after all paths have been added.
+     */
+    void trim() {
+        if (size < bytes.length) {
+            bytes = Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Decodes a stored path.
+     */
+    String getString(int offset, int length) {
+        return StringUtil.fromUTF8(bytes, offset, length);
+    }
+
+    /**
+     * Compares a stored path to a (normalized) path string. The result is consistent with
+     * {@link String#compareTo(String)} on the decoded path, without actually decoding it.
+     */
+    int compare(int offset, int length, String str) {
+        final byte[] b = bytes;
+        final int end = offset + length;
+        final int strLength = str.length();
+        int pos = offset;
+        int index = 0;
+        while (pos < end) {
+            int cp = decodeCodePoint(b, pos);
+            pos += encodedLength(b[pos]);
+
+            // Supplementary code points are compared as a surrogate pair, like String does
+            boolean supplementary = (cp >= 0x10000);
+            int c = (supplementary ? Character.MIN_HIGH_SURROGATE + ((cp - 0x10000) >> 10) : cp);
+            for (int unit = (supplementary ? 2 : 1); unit > 0; unit--) {
+                if (index >= strLength) {
+                    return 1;
+                }
+                int other = str.charAt(index++);
+                if (c != other) {
+                    return c - other;
+                }
+                c = Character.MIN_LOW_SURROGATE + ((cp - 0x10000) & 0x3FF);
+            }
+        }
+        return (index < strLength ? -1 : 0);
+    }
+
+    /**
+     * Compares two stored paths. The result is consistent with {@link String#compareTo(String)} on the decoded
+     * paths, without actually decoding them.
+     */
+    int compare(int offsetA, int lengthA, int offsetB, int lengthB) {
+        final byte[] b = bytes;
+        final int len = Math.min(lengthA, lengthB);
+        for (int n = 0; n < len; n++) {
+            if (b[offsetA + n] == b[offsetB + n]) {
+                continue;
+            }
+
+            // Back up to the start of the differing code point (the preceding bytes are equal for both paths)
+            int start = n;
+            while (start > 0 && (b[offsetA + start] & 0xC0) == 0x80) {
+                start--;
+            }
+            return compareCodePoints(decodeCodePoint(b, offsetA + start), decodeCodePoint(b, offsetB + start));
+        }
+        return lengthA - lengthB;
+    }
+
+    /**
+     * Compares two code points by their UTF-16 representation, like {@link String#compareTo(String)} does.
+     */
+    private static int compareCodePoints(int a, int b) {
+        int highA = (a >= 0x10000 ? Character.MIN_HIGH_SURROGATE + ((a - 0x10000) >> 10) : a);
+        int highB = (b >= 0x10000 ? Character.MIN_HIGH_SURROGATE + ((b - 0x10000) >> 10) : b);
+        if (highA != highB) {
+            return highA - highB;
+        }
+
+        // Same high surrogate, so both are supplementary code points
+        return a - b;
+    }
+
+    private static int encodedLength(byte b0) {
+        int b = b0 & 0xFF;
+        if (b < 0x80) {
+            return 1;
+        } else if (b < 0xE0) {
+            return 2;
+        } else if (b < 0xF0) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    private static int decodeCodePoint(byte[] b, int pos) {
+        int b0 = b[pos] & 0xFF;
+        if (b0 < 0x80) {
+            return b0;
+        } else if (b0 < 0xE0) {
+            return ((b0 & 0x1F) << 6) | (b[pos + 1] & 0x3F);
+        } else if (b0 < 0xF0) {
+            return ((b0 & 0x0F) << 12) | ((b[pos + 1] & 0x3F) << 6) | (b[pos + 2] & 0x3F);
+        } else {
+            return ((b0 & 0x07) << 18) | ((b[pos + 1] & 0x3F) << 12) | ((b[pos + 2] & 0x3F) << 6)
+                    | (b[pos + 3] & 0x3F);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package nl.weeaboo.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
+import nl.weeaboo.io.StreamUtil;
+
+/**
+ * Functions for reading files asynchronously.
+ *
+ * @see IAsyncFileSystem
+ */
+public final class AsyncFileReader {
+
+    /** Some VMs can't allocate arrays of exactly {@code Integer.MAX_VALUE} elements */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final Object DEFAULT_EXECUTOR_LOCK = new Object();
+    private static @Nullable ExecutorService defaultExecutor;
+
+    private AsyncFileReader() {
+    }
+
+    /**
+     * Returns the executor shared by all file systems that don't specify their own executor for asynchronous reads.
+     * The executor uses a small, fixed number of daemon threads.
+     */
+    public static Executor getDefaultExecutor() {
+        synchronized (DEFAULT_EXECUTOR_LOCK) {
+            if (defaultExecutor == null) {
+                int processors = Runtime.getRuntime().availableProcessors();
+                defaultExecutor = newExecutor(Math.max(2, Math.min(8, processors)));
+            }
+            return defaultExecutor;
+        }
+    }
+
+    /**
+     * Creates a new executor for reading files, with a fixed number of daemon threads. Tasks are executed in the order
+     * in which they're submitted.
+     *
+     * @param threadCount The maximum number of files read at the same time.
+     */
+    public static ExecutorService newExecutor(int threadCount) {
+        Checks.checkRange(threadCount, "threadCount", 1);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+        // Idle threads are released, the executor doesn't need to be shut down
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Reads the entire contents of a file asynchronously.
+     *
+     * @see IAsyncFileSystem#readBytesAsync(FilePath)
+     */
+    static Future<byte[]> readBytesAsync(Executor executor, IFileSystem fs, FilePath path) {
+        FutureTask<byte[]> task = new ReadFuture(new ReadTask(fs, path));
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns a future which has already failed with the specified exception.
+     */
+    static Future<byte[]> failed(final IOException ioe) {
+        FutureTask<byte[]> task = new ReadFuture(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                throw ioe;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * Returns futures which have already failed with the specified exception, in the iteration order of
+     * {@code paths}.
+     */
+    static Map<FilePath, Future<byte[]>> failed(Collection<FilePath> paths, IOException ioe) {
+        Map<FilePath, Future<byte[]>> result = new LinkedHashMap<FilePath, Future<byte[]>>();
+        for (FilePath path : paths) {
+            result.put(path, failed(ioe));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the contents of multiple files asynchronously. The reads are submitted to the executor in the order of
+     * {@code sortedPaths}.
+     *
+     * @param paths The paths in the order in which they should be returned.
+     * @param sortedPaths The paths in the order in which they should be read.
+     */
+    static Map<FilePath, Future<byte[]>> prefetch(Executor executor, IFileSystem fs, Collection<FilePath> paths,
+            List<FilePath> sortedPaths) {
+
+        Map<FilePath, Future<byte[]>> submitted = new LinkedHashMap<FilePath, Future<byte[]>>();
+        for (FilePath path : sortedPaths) {
+            if (!submitted.containsKey(path)) {
+                submitted.put(path, readBytesAsync(executor, fs, path));
+            }
+        }
+        return inOrder(paths, submitted);
+    }
+
+    /** Returns the futures in the iteration order of {@code paths} */
+    static Map<FilePath, Future<byte[]>> inOrder(Collection<FilePath> paths, Map<FilePath, Future<byte[]>> futures) {
+        Map<FilePath, Future<byte[]>> result = new LinkedHashMap<FilePath, Future<byte[]>>();
+        for (FilePath path : paths) {
+            result.put(path, futures.get(path));
+        }
+        return result;
+    }
+
+    /**
+     * Future for an asynchronous read. Cancelling the future never interrupts a read that's already in progress, the
+     * thread performing the read may be reading from a file shared with other threads.
+     */
+    private static final class ReadFuture extends FutureTask<byte[]> {
+
+        public ReadFuture(Callable<byte[]> callable) {
+            super(callable);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return super.cancel(false);
+        }
+
+    }
+
+    private static final class ReadTask implements Callable<byte[]> {
+
+        private final IFileSystem fs;
+        private final FilePath path;
+
+        public ReadTask(IFileSystem fs, FilePath path) {
+            this.fs = Checks.checkNotNull(fs);
+            this.path = Checks.checkNotNull(path);
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            // Allocate a buffer of the correct size up front
+            long size = fs.getFileSize(path);
+            if (size > MAX_ARRAY_LENGTH) {
+                throw new IOException("File too large (" + size + " bytes) to read into a byte array: " + path);
+            }
+
+            InputStream in = fs.openInputStream(path);
+            try {
+                return StreamUtil.readBytes(in, (int)size);
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AsyncFileReader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
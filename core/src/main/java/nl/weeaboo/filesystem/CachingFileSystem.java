@@ -0,0 +1,317 @@
+package nl.weeaboo.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import nl.weeaboo.common.Checks;
+import nl.weeaboo.io.StreamUtil;
+
+/**
+ * File system wrapper which keeps the contents of recently read files in memory. Files in the cache are keyed by
+ * their path and last modified time, so a file that's modified in the underlying file system is read again.
+ * <p>
+ * By default, the last modified time of a cached file is checked every time the file is opened. If the underlying
+ * file system rarely changes, {@link #setRevalidateInterval(long) revalidating} less often avoids querying the
+ * underlying file system for cache hits. Changed files can then be removed from the cache explicitly using
+ * {@link #invalidate(FilePath)}.
+ * <p>
+ * The cache is bounded by a total size in bytes. When a new file doesn't fit, the least recently used files are
+ * evicted from the cache. Files larger than the {@link #setMaxEntrySize(long) maximum entry size} are never cached.
+ * <p>
+ * This class is thread-safe if the underlying file system is thread-safe.
+ */
+public class CachingFileSystem implements IFileSystem {
+
+    private final IFileSystem fileSystem;
+    private final long maxSize;
+
+    private volatile long maxEntrySize;
+    private volatile boolean directBuffers;
+    private volatile long revalidateIntervalNanos;
+
+    /** Access-ordered map, so iteration starts at the least recently used entry. Guarded by {@code this}. */
+    private final LinkedHashMap<FilePath, CacheEntry> entries = new LinkedHashMap<FilePath, CacheEntry>(16, .75f,
+            true);
+    private long cachedBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param fileSystem The file system to cache.
+     * @param maxSize The maximum total size (in bytes) of the cached file contents.
+     */
+    public CachingFileSystem(IFileSystem fileSystem, long maxSize) {
+        Checks.checkArgument(maxSize >= 0, "maxSize must be >= 0, was: " + maxSize);
+
+        this.fileSystem = Checks.checkNotNull(fileSystem);
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize;
+    }
+
+    /**
+     * Returns the maximum total size (in bytes) of the cached file contents.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the maximum size of a single cached file.
+     *
+     * @see #setMaxEntrySize(long)
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Sets the maximum size of a single cached file. Larger files are always read from the underlying file system.
+     * Defaults to the {@link #getMaxSize() maximum total size} of the cache. Files larger than 2GB are never cached.
+     */
+    public void setMaxEntrySize(long size) {
+        Checks.checkArgument(size >= 0, "size must be >= 0, was: " + size);
+
+        this.maxEntrySize = size;
+    }
+
+    /**
+     * Returns {@code true} if the cached file contents are stored outside the Java heap.
+     *
+     * @see #setDirectBuffers(boolean)
+     */
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * Determines whether cached file contents are stored in direct byte buffers, outside the Java heap. This reduces
+     * garbage collector overhead for large caches. Only affects files added to the cache after calling this method.
+     */
+    public void setDirectBuffers(boolean direct) {
+        this.directBuffers = direct;
+    }
+
+    /**
+     * Returns the minimum time between checks of a cached file's last modified time, in milliseconds.
+     *
+     * @see #setRevalidateInterval(long)
+     */
+    public long getRevalidateInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(revalidateIntervalNanos);
+    }
+
+    /**
+     * Determines how often the last modified time of a cached file is checked against the underlying file system.
+     * Within the interval, cached contents are used without accessing the underlying file system at all. Defaults to
+     * {@code 0}, which checks the last modified time every time a file is opened. Use {@link Long#MAX_VALUE} to never
+     * check, in which case modified files must be removed from the cache using {@link #invalidate(FilePath)}.
+     *
+     * @param millis The revalidation interval in milliseconds.
+     */
+    public void setRevalidateInterval(long millis) {
+        Checks.checkArgument(millis >= 0, "millis must be >= 0, was: " + millis);
+
+        this.revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public void close() {
+        clear();
+        fileSystem.close();
+    }
+
+    @Override
+    public InputStream openInputStream(FilePath path) throws IOException {
+        synchronized (this) {
+            CacheEntry entry = entries.get(path);
+            if (entry != null && System.nanoTime() - entry.validatedTime < revalidateIntervalNanos) {
+                // Validated recently, no need to check the underlying file system
+                hitCount++;
+                return StreamUtil.asInputStream(entry.contents);
+            }
+        }
+
+        long modifiedTime = fileSystem.getFileModifiedTime(path);
+        synchronized (this) {
+            CacheEntry entry = entries.get(path);
+            if (entry != null) {
+                if (entry.modifiedTime == modifiedTime) {
+                    entry.validatedTime = System.nanoTime();
+                    hitCount++;
+                    return StreamUtil.asInputStream(entry.contents);
+                }
+
+                // File was changed, cached contents are stale
+                remove(path);
+            }
+            missCount++;
+        }
+
+        long size = fileSystem.getFileSize(path);
+        if (size > maxEntrySize || size > maxSize || size > Integer.MAX_VALUE) {
+            // Too large to cache, files larger than 2GB also don't fit in a single buffer
+            return fileSystem.openInputStream(path);
+        }
+
+        byte[] bytes;
+        InputStream in = fileSystem.openInputStream(path);
+        try {
+            bytes = StreamUtil.readBytes(in, (int)size);
+        } finally {
+            in.close();
+        }
+
+        ByteBuffer contents = toBuffer(bytes);
+        if (bytes.length <= maxEntrySize && bytes.length <= maxSize) {
+            put(path, new CacheEntry(modifiedTime, contents));
+        }
+        return StreamUtil.asInputStream(contents);
+    }
+
+    private ByteBuffer toBuffer(byte[] bytes) {
+        if (!directBuffers) {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes);
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    private synchronized void put(FilePath path, CacheEntry entry) {
+        // Another thread may have cached the same file in the meantime
+        remove(path);
+
+        long entrySize = entry.contents.remaining();
+        Iterator<CacheEntry> itr = entries.values().iterator();
+        while (cachedBytes + entrySize > maxSize && itr.hasNext()) {
+            cachedBytes -= itr.next().contents.remaining();
+            itr.remove();
+            evictionCount++;
+        }
+
+        entries.put(path, entry);
+        cachedBytes += entrySize;
+    }
+
+    private synchronized void remove(FilePath path) {
+        CacheEntry removed = entries.remove(path);
+        if (removed != null) {
+            cachedBytes -= removed.contents.remaining();
+        }
+    }
+
+    /**
+     * Removes the contents of the specified file from the cache.
+     */
+    public void invalidate(FilePath path) {
+        remove(path);
+    }
+
+    /**
+     * Removes all files from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Returns the number of files currently stored in the cache.
+     */
+    public synchronized int getCachedFileCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size (in bytes) of the file contents currently stored in the cache.
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Returns the number of times a file was opened and its contents could be served from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of times a file was opened and its contents had to be read from the underlying file system.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of files that were removed from the cache to make room for other files.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fileSystem.isOpen();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return fileSystem.isReadOnly();
+    }
+
+    @Override
+    public boolean isFolder(FilePath path) {
+        return fileSystem.isFolder(path);
+    }
+
+    @Override
+    public boolean getFileExists(FilePath path) {
+        return fileSystem.getFileExists(path);
+    }
+
+    @Override
+    public long getFileSize(FilePath path) throws IOException {
+        return fileSystem.getFileSize(path);
+    }
+
+    @Override
+    public long getFileModifiedTime(FilePath path) throws IOException {
+        return fileSystem.getFileModifiedTime(path);
+    }
+
+    @Override
+    public Iterable<FilePath> getFiles(FileCollectOptions opts) {
+        return fileSystem.getFiles(opts);
+    }
+
+    @Override
+    public String toString() {
+        return "CachingFileSystem[" + fileSystem + "]";
+    }
+
+    private static final class CacheEntry {
+
+        final long modifiedTime;
+        final ByteBuffer contents;
+
+        /** Time (from {@link System#nanoTime()}) the modified time was last checked. Guarded by the cache. */
+        long validatedTime;
+
+        CacheEntry(long modifiedTime, ByteBuffer contents) {
+            this.modifiedTime = modifiedTime;
+            this.contents = contents;
+            this.validatedTime = System.nanoTime();
+        }
+
+    }
+
+}
@@ -52,6 +52,20 @@ public final class FileCollectOptions {
         return opts;
     }
 
+    /**
+     * Returns a copy of these options. Used by lazy search results, which shouldn't be affected by later changes to
+     * the original options object.
+     */
+    FileCollectOptions copy() {
+        FileCollectOptions result = new FileCollectOptions();
+        result.baseFolder = baseFolder;
+        result.namePrefix = namePrefix;
+        result.recursive = recursive;
+        result.collectFiles = collectFiles;
+        result.collectFolders = collectFolders;
+        return result;
+    }
+
     /**
      * Checks if the supplied path passes the filter.
      */
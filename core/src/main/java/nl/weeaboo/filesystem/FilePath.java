@@ -35,6 +35,13 @@ public final class FilePath implements Serializable, Comparable<FilePath> {
         return new FilePath(normalize(pathString));
     }
 
+    /**
+     * Wraps a path string which is already in normalized form, skipping normalization.
+     */
+    static FilePath ofNormalized(String normalizedPath) {
+        return new FilePath(normalizedPath);
+    }
+
     private static String normalize(String pathString) {
         // Replace runs of multiple '/' characters
         // Replace '\\' with '/'
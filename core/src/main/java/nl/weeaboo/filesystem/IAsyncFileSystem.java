@@ -0,0 +1,34 @@
+package nl.weeaboo.filesystem;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Companion interface for file systems that support reading files asynchronously. Reads are performed on an
+ * {@link Executor}, see {@link AsyncFileReader} for the default implementation.
+ * <p>
+ * Cancelling a pending read prevents it from starting. A read that's already in progress is never interrupted, so
+ * {@code cancel(true)} behaves the same as {@code cancel(false)}.
+ */
+public interface IAsyncFileSystem {
+
+    /**
+     * Reads the entire contents of a file asynchronously.
+     *
+     * @return A future which completes with the file contents, or fails with an {@code IOException} if the file doesn't
+     *         exist or can't be read, or the file system is closed.
+     */
+    Future<byte[]> readBytesAsync(FilePath path);
+
+    /**
+     * Starts reading a batch of files asynchronously. The reads are scheduled in the order in which the files are
+     * physically stored (when known), so the underlying storage is read as sequentially as possible.
+     *
+     * @return The pending reads, in the iteration order of the supplied paths.
+     * @see #readBytesAsync(FilePath)
+     */
+    Map<FilePath, Future<byte[]>> prefetch(Collection<FilePath> paths);
+
+}
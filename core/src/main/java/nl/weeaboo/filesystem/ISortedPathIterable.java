@@ -0,0 +1,11 @@
+package nl.weeaboo.filesystem;
+
+/**
+ * Iterable whose iterators return paths in ascending order (as defined by {@link FilePath#compareTo(FilePath)}),
+ * without duplicates. Sorted iterables from multiple file systems can be merged lazily.
+ *
+ * @see MultiFileSystem#getFiles(FileCollectOptions)
+ */
+interface ISortedPathIterable extends Iterable<FilePath> {
+
+}
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 
@@ -141,7 +142,7 @@ public class InMemoryFileSystem extends AbstractWritableFileSystem {
 
     @Override
     public Iterable<FilePath> getFiles(FileCollectOptions opts) {
-        Set<FilePath> result = new HashSet<FilePath>();
+        Set<FilePath> result = new TreeSet<FilePath>();
         synchronized (lock) {
             if (opts.collectFolders) {
                 for (FilePath folder : folders) {
@@ -0,0 +1,135 @@
+package nl.weeaboo.filesystem;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+import nl.weeaboo.common.Checks;
+
+/**
+ * Thread-safe pool of {@link Inflater} instances and their associated read buffers, used to decompress archive
+ * entries. Reusing inflaters avoids repeatedly allocating (and waiting for finalization to release) the native zlib
+ * memory associated with each inflater.
+ * <p>
+ * All inflaters in the pool use the raw deflate format ({@code nowrap=true}) used by ZIP files.
+ *
+ * @see ZipFileArchive#setInflaterPool(InflaterPool)
+ */
+public final class InflaterPool {
+
+    private static final InflaterPool DEFAULT_INSTANCE = new InflaterPool(16, 8192);
+
+    private final int maxSize;
+    private final int bufferSize;
+
+    private final Deque<Entry> entries = new ArrayDeque<Entry>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maxSize The maximum number of idle inflaters kept in the pool. Inflaters returned to a full pool are
+     *        released immediately.
+     * @param bufferSize The size (in bytes) of the read buffer associated with each inflater.
+     */
+    public InflaterPool(int maxSize, int bufferSize) {
+        this.maxSize = Checks.checkRange(maxSize, "maxSize", 0);
+        this.bufferSize = Checks.checkRange(bufferSize, "bufferSize", 1);
+    }
+
+    /**
+     * Returns the pool shared by all archives that don't specify their own pool.
+     */
+    public static InflaterPool getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    /**
+     * Takes an inflater from the pool, or creates a new one if the pool is empty. The entry should be returned to
+     * the pool using {@link #release(Entry)} when it's no longer needed.
+     */
+    Entry acquire() {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.pollFirst();
+        }
+
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry;
+        } else {
+            missCount.incrementAndGet();
+            return new Entry(new Inflater(true), new byte[bufferSize]);
+        }
+    }
+
+    /**
+     * Returns an inflater to the pool. If the pool is already full, the inflater is released immediately.
+     */
+    void release(Entry entry) {
+        entry.inflater.reset();
+
+        synchronized (entries) {
+            if (entries.size() < maxSize) {
+                entries.addFirst(entry);
+                return;
+            }
+        }
+        entry.inflater.end();
+    }
+
+    /**
+     * Releases all idle inflaters currently held by the pool.
+     */
+    public void clear() {
+        synchronized (entries) {
+            for (Entry entry : entries) {
+                entry.inflater.end();
+            }
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of idle inflaters currently held by the pool.
+     */
+    public int getIdleCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of times an inflater was requested and the pool was able to provide an idle inflater.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of times an inflater was requested and a new inflater had to be created because the pool
+     * was empty.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "InflaterPool[idle=" + getIdleCount() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    /** Inflater and read buffer pair */
+    static final class Entry {
+
+        final Inflater inflater;
+        final byte[] buffer;
+
+        Entry(Inflater inflater, byte[] buffer) {
+            this.inflater = inflater;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
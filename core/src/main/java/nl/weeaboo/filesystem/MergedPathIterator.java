@@ -0,0 +1,73 @@
+package nl.weeaboo.filesystem;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Merges multiple sorted path iterators into a single sorted iterator. Paths returned by more than one iterator are
+ * only returned once.
+ *
+ * @see ISortedPathIterable
+ */
+final class MergedPathIterator extends AbstractPathIterator {
+
+    /** Contains the iterators that have at least one more element, ordered by their current element */
+    private final PriorityQueue<Source> sources;
+    private @Nullable FilePath last;
+
+    public MergedPathIterator(Collection<? extends Iterator<FilePath>> iterators) {
+        sources = new PriorityQueue<Source>(Math.max(1, iterators.size()));
+        for (Iterator<FilePath> itr : iterators) {
+            if (itr.hasNext()) {
+                sources.add(new Source(itr));
+            }
+        }
+    }
+
+    @Override
+    protected @Nullable FilePath computeNext() {
+        Source source;
+        while ((source = sources.poll()) != null) {
+            FilePath path = source.current;
+            if (source.advance()) {
+                sources.add(source);
+            }
+
+            if (last == null || !last.equals(path)) {
+                last = path;
+                return path;
+            }
+            // Duplicate path, skip
+        }
+        return null;
+    }
+
+    private static final class Source implements Comparable<Source> {
+
+        private final Iterator<FilePath> iterator;
+        private FilePath current;
+
+        public Source(Iterator<FilePath> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            return current.compareTo(other.current);
+        }
+
+    }
+
+}
@@ -3,19 +3,45 @@ package nl.weeaboo.filesystem;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Set;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 /**
- * Aggregation of multiple file systems.
+ * Aggregation of multiple file systems. When a file exists in multiple file systems, the file system that comes first
+ * takes precedence.
+ * <p>
+ * If the contents of the underlying file systems no longer change, the multi file system can be
+ * {@link #setFrozen(boolean) frozen} to cache which file system each path resolves to.
  */
-public class MultiFileSystem implements IFileSystem {
+public class MultiFileSystem implements IFileSystem, IAsyncFileSystem {
 
     private final IFileSystem[] fileSystems;
     private boolean closed;
 
+    private volatile boolean frozen;
+    /**
+     * Maps paths to the index of the file system containing them, or {@code -1} if none of the file systems contain
+     * the path. Only used while frozen.
+     */
+    private final ConcurrentMap<FilePath, Integer> resolvedPaths = new ConcurrentHashMap<FilePath, Integer>();
+
+    private volatile @Nullable Executor asyncExecutor;
+
     /**
      * @param fileSystems The file systems that this multi filesystem delegates to.
      * @see #MultiFileSystem(Collection)
@@ -49,14 +75,158 @@ public class MultiFileSystem implements IFileSystem {
         return true;
     }
 
+    /**
+     * Returns {@code true} if the multi file system is frozen.
+     *
+     * @see #setFrozen(boolean)
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * While frozen, the multi file system assumes the contents of the underlying file systems don't change. The file
+     * system containing a path is then only looked up once, after which the result is cached. This avoids checking
+     * every file system for every file access.
+     * <p>
+     * When one of the underlying file systems is modified while frozen, call {@link #invalidate(FilePath)} or
+     * {@link #invalidateAll()} to discard the cached lookup results. Unfreezing also discards all cached results.
+     */
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+
+        resolvedPaths.clear();
+    }
+
+    /**
+     * Discards the cached lookup result for the specified path.
+     *
+     * @see #setFrozen(boolean)
+     */
+    public void invalidate(FilePath path) {
+        resolvedPaths.remove(path);
+    }
+
+    /**
+     * Discards all cached lookup results.
+     *
+     * @see #setFrozen(boolean)
+     */
+    public void invalidateAll() {
+        resolvedPaths.clear();
+    }
+
+    /**
+     * Returns the first file system containing the specified file.
+     *
+     * @throws FileNotFoundException If none of the file systems contain the file.
+     */
+    private IFileSystem resolve(FilePath path) throws FileNotFoundException {
+        int index = resolveIndex(path);
+        if (index < 0) {
+            throw new FileNotFoundException(path.toString());
+        }
+        return fileSystems[index];
+    }
+
+    private int resolveIndex(FilePath path) {
+        if (!frozen) {
+            return findIndex(path);
+        }
+
+        Integer index = resolvedPaths.get(path);
+        if (index == null) {
+            index = findIndex(path);
+            resolvedPaths.put(path, index);
+        }
+        return index;
+    }
+
+    private int findIndex(FilePath path) {
+        for (int n = 0; n < fileSystems.length; n++) {
+            if (fileSystems[n].getFileExists(path)) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the executor used for asynchronous reads from file systems that don't support asynchronous reads
+     * themselves.
+     *
+     * @see #setAsyncExecutor(Executor)
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return (executor != null ? executor : AsyncFileReader.getDefaultExecutor());
+    }
+
+    /**
+     * Sets the executor used for asynchronous reads from file systems that don't implement {@link IAsyncFileSystem}.
+     * Other file systems use their own executor.
+     *
+     * @param executor The executor to use, or {@code null} to use the
+     *        {@link AsyncFileReader#getDefaultExecutor() default executor}.
+     */
+    public void setAsyncExecutor(@Nullable Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read is delegated to the file system containing the file, if it supports asynchronous reads.
+     */
     @Override
-    public InputStream openInputStream(FilePath path) throws IOException {
-        for (IFileSystem fs : fileSystems) {
-            if (fs.getFileExists(path)) {
-                return fs.openInputStream(path);
+    public Future<byte[]> readBytesAsync(FilePath path) {
+        int index = resolveIndex(path);
+        if (index >= 0 && fileSystems[index] instanceof IAsyncFileSystem) {
+            return ((IAsyncFileSystem)fileSystems[index]).readBytesAsync(path);
+        }
+        return AsyncFileReader.readBytesAsync(getAsyncExecutor(), this, path);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The paths are grouped by the file system containing them. Each group is prefetched by its file system, if it
+     * supports asynchronous reads.
+     */
+    @Override
+    public Map<FilePath, Future<byte[]>> prefetch(Collection<FilePath> paths) {
+        List<List<FilePath>> groups = new ArrayList<List<FilePath>>();
+        for (int n = 0; n < fileSystems.length; n++) {
+            groups.add(new ArrayList<FilePath>());
+        }
+        List<FilePath> other = new ArrayList<FilePath>();
+        for (FilePath path : new LinkedHashSet<FilePath>(paths)) {
+            int index = resolveIndex(path);
+            if (index >= 0 && fileSystems[index] instanceof IAsyncFileSystem) {
+                groups.get(index).add(path);
+            } else {
+                other.add(path);
+            }
+        }
+
+        Map<FilePath, Future<byte[]>> futures = new HashMap<FilePath, Future<byte[]>>();
+        for (int n = 0; n < fileSystems.length; n++) {
+            List<FilePath> group = groups.get(n);
+            if (!group.isEmpty()) {
+                futures.putAll(((IAsyncFileSystem)fileSystems[n]).prefetch(group));
             }
         }
-        throw new FileNotFoundException(path.toString());
+        if (!other.isEmpty()) {
+            List<FilePath> sorted = new ArrayList<FilePath>(other);
+            Collections.sort(sorted);
+            futures.putAll(AsyncFileReader.prefetch(getAsyncExecutor(), this, other, sorted));
+        }
+        return AsyncFileReader.inOrder(paths, futures);
+    }
+
+    @Override
+    public InputStream openInputStream(FilePath path) throws IOException {
+        return resolve(path).openInputStream(path);
     }
 
     @Override
@@ -71,32 +241,17 @@ public class MultiFileSystem implements IFileSystem {
 
     @Override
     public boolean getFileExists(FilePath path) {
-        for (IFileSystem fs : fileSystems) {
-            if (fs.getFileExists(path)) {
-                return true;
-            }
-        }
-        return false;
+        return resolveIndex(path) >= 0;
     }
 
     @Override
     public long getFileSize(FilePath path) throws IOException {
-        for (IFileSystem fs : fileSystems) {
-            if (fs.getFileExists(path)) {
-                return fs.getFileSize(path);
-            }
-        }
-        throw new FileNotFoundException(path.toString());
+        return resolve(path).getFileSize(path);
     }
 
     @Override
     public long getFileModifiedTime(FilePath path) throws IOException {
-        for (IFileSystem fs : fileSystems) {
-            if (fs.getFileExists(path)) {
-                return fs.getFileModifiedTime(path);
-            }
-        }
-        throw new FileNotFoundException(path.toString());
+        return resolve(path).getFileModifiedTime(path);
     }
 
     /**
@@ -112,17 +267,45 @@ public class MultiFileSystem implements IFileSystem {
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns the paths in ascending order, without duplicates. File systems which return their paths in sorted
+     * order are merged lazily, the results of other file systems are sorted first.
+     */
     @Override
     public Iterable<FilePath> getFiles(FileCollectOptions opts) {
-        Set<FilePath> files = new TreeSet<FilePath>();
+        final List<Iterable<FilePath>> sources = new ArrayList<Iterable<FilePath>>();
         for (IFileSystem fs : fileSystems) {
             if (fs.isOpen()) {
-                for (FilePath path : fs.getFiles(opts)) {
-                    files.add(path);
+                sources.add(toSorted(fs.getFiles(opts)));
+            }
+        }
+
+        return new ISortedPathIterable() {
+            @Override
+            public Iterator<FilePath> iterator() {
+                List<Iterator<FilePath>> iterators = new ArrayList<Iterator<FilePath>>(sources.size());
+                for (Iterable<FilePath> source : sources) {
+                    iterators.add(source.iterator());
                 }
+                return new MergedPathIterator(iterators);
             }
+        };
+    }
+
+    private static Iterable<FilePath> toSorted(Iterable<FilePath> paths) {
+        if (paths instanceof ISortedPathIterable) {
+            return paths;
+        } else if (paths instanceof SortedSet && ((SortedSet<FilePath>)paths).comparator() == null) {
+            return paths; // Uses natural ordering
+        }
+
+        SortedSet<FilePath> result = new TreeSet<FilePath>();
+        for (FilePath path : paths) {
+            result.add(path);
         }
-        return files;
+        return result;
     }
 
 }
@@ -8,21 +8,98 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nullable;
 
 import nl.weeaboo.common.Checks;
+import nl.weeaboo.io.FileUtil;
 
 /**
  * File system implementation using regular files.
  */
-public final class RegularFileSystem extends AbstractWritableFileSystem {
+public final class RegularFileSystem extends AbstractWritableFileSystem implements IAsyncFileSystem {
+
+    private static final Node[] NO_NODES = new Node[0];
 
     private final File rootFolder;
+    private volatile @Nullable Executor walkExecutor;
+    private volatile @Nullable Executor asyncExecutor;
 
     public RegularFileSystem(File rootFolder) {
         this.rootFolder = Checks.checkNotNull(rootFolder);
     }
 
+    /**
+     * Returns the executor used to list folders in parallel.
+     *
+     * @see #setWalkExecutor(Executor)
+     */
+    public @Nullable Executor getWalkExecutor() {
+        return walkExecutor;
+    }
+
+    /**
+     * Sets an executor used to list folders in parallel while iterating over the results of
+     * {@link #getFiles(FileCollectOptions)}. The contents of a folder are then listed in the background as soon as the
+     * folder is found, instead of when the iteration reaches it. This speeds up walking large folder trees, especially
+     * on slow (network) storage. The order of the returned paths doesn't change.
+     *
+     * @param executor The executor to use, or {@code null} to list all folders on the iterating thread.
+     */
+    public void setWalkExecutor(@Nullable Executor executor) {
+        this.walkExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used for asynchronous reads.
+     *
+     * @see #setAsyncExecutor(Executor)
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return (executor != null ? executor : AsyncFileReader.getDefaultExecutor());
+    }
+
+    /**
+     * Sets the executor used for asynchronous reads.
+     *
+     * @param executor The executor to use, or {@code null} to use the
+     *        {@link AsyncFileReader#getDefaultExecutor() default executor}.
+     * @see IAsyncFileSystem
+     */
+    public void setAsyncExecutor(@Nullable Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    @Override
+    public Future<byte[]> readBytesAsync(FilePath path) {
+        return AsyncFileReader.readBytesAsync(getAsyncExecutor(), this, path);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The physical location of the files isn't known, so the files are read in path order. This at least groups the
+     * files of each folder together.
+     */
+    @Override
+    public Map<FilePath, Future<byte[]>> prefetch(Collection<FilePath> paths) {
+        List<FilePath> sorted = new ArrayList<FilePath>(paths);
+        Collections.sort(sorted);
+        return AsyncFileReader.prefetch(getAsyncExecutor(), this, paths, sorted);
+    }
+
     private final File resolve(FilePath path) {
         return new File(rootFolder, path.toString());
     }
@@ -47,13 +124,39 @@ public final class RegularFileSystem extends AbstractWritableFileSystem {
     @Override
     protected OutputStream newOutputStreamImpl(FilePath path, boolean append) throws IOException {
         File file = resolve(path);
+        createParentFolders(file);
+        return new FileOutputStream(file, append);
+    }
 
+    private static void createParentFolders(File file) {
         File parentFolder = file.getParentFile();
         if (parentFolder != null) {
             parentFolder.mkdirs();
         }
+    }
 
-        return new FileOutputStream(file, append);
+    @Override
+    protected void renameImpl(FilePath src, FilePath dst) throws IOException {
+        File srcFile = resolveExisting(src);
+        File dstFile = resolve(dst);
+        createParentFolders(dstFile);
+
+        /*
+         * Try a regular rename first. Depending on the platform, this fails if the destination file already exists,
+         * or if the destination is on a different file system. Fall back to copy+delete in that case.
+         */
+        if (!srcFile.renameTo(dstFile)) {
+            super.renameImpl(src, dst);
+        }
+    }
+
+    @Override
+    protected void copyImpl(FilePath src, FilePath dst) throws IOException {
+        File srcFile = resolveExisting(src);
+        File dstFile = resolve(dst);
+        createParentFolders(dstFile);
+
+        FileUtil.copyFile(srcFile, dstFile);
     }
 
     @Override
@@ -78,55 +181,186 @@ public final class RegularFileSystem extends AbstractWritableFileSystem {
 
     @Override
     protected long getFileSizeImpl(FilePath path) throws IOException {
-        return resolveExisting(path).length();
+        File file = resolve(path);
+        long length = file.length();
+        // File.length() returns 0 for files that don't exist, only need an existence check in that case
+        if (length == 0L && !file.exists()) {
+            throw new FileNotFoundException(path.toString());
+        }
+        return length;
     }
 
     @Override
     protected long getFileModifiedTimeImpl(FilePath path) throws IOException {
-        return resolveExisting(path).lastModified();
+        File file = resolve(path);
+        long modifiedTime = file.lastModified();
+        // File.lastModified() returns 0 for files that don't exist, only need an existence check in that case
+        if (modifiedTime == 0L && !file.exists()) {
+            throw new FileNotFoundException(path.toString());
+        }
+        return modifiedTime;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned paths are computed lazily, in ascending order. Folders are only listed when the iteration reaches
+     * them.
+     *
+     * @see #setWalkExecutor(Executor)
+     */
     @Override
     public Iterable<FilePath> getFiles(FileCollectOptions opts) {
-        List<FilePath> result = new ArrayList<FilePath>();
+        final FileCollectOptions optsCopy = opts.copy();
+        final Executor executor = walkExecutor;
 
-        FilePath baseSearchPath = opts.getBaseFolder();
-        File baseSearchFolder = resolve(baseSearchPath);
-        if (baseSearchFolder.isDirectory()) {
-            if (opts.collectFolders && opts.isValid(baseSearchPath)) {
-                result.add(baseSearchPath);
+        return new ISortedPathIterable() {
+            @Override
+            public Iterator<FilePath> iterator() {
+                return new FileIterator(optsCopy, executor);
             }
-            getFolderContents(result, baseSearchFolder, baseSearchPath, opts);
-        } else {
-            if (opts.collectFiles && opts.isValid(baseSearchPath)) {
-                result.add(baseSearchPath);
+        };
+    }
+
+    /**
+     * Walks the file tree in ascending path order. Every path is greater than the path of its parent folder, so
+     * always visiting the smallest known path (and adding its children to the set of known paths) returns all paths
+     * in sorted order.
+     */
+    private final class FileIterator extends AbstractPathIterator {
+
+        private final FileCollectOptions opts;
+        private final @Nullable Executor executor;
+        private final PriorityQueue<Node> pending = new PriorityQueue<Node>();
+
+        public FileIterator(FileCollectOptions opts, @Nullable Executor executor) {
+            this.opts = opts;
+            this.executor = executor;
+
+            File baseSearchFolder = resolve(opts.getBaseFolder());
+            addChildren(listFolder(baseSearchFolder, opts.getBaseFolder(), executor != null));
+        }
+
+        private void addChildren(Node[] children) {
+            for (Node child : children) {
+                pending.add(child);
+
+                // When walking in parallel, start listing the child folders we're going to visit
+                if (executor != null && opts.recursive && child.isDirectory() && opts.isValid(child.path)) {
+                    child.contents = new FutureTask<Node[]>(new ListFolderTask(child));
+                    executor.execute(child.contents);
+                }
             }
         }
 
-        return result;
-    }
+        private Node[] getChildren(Node folder) {
+            FutureTask<Node[]> contents = folder.contents;
+            if (contents != null) {
+                try {
+                    return contents.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Fall through to a regular folder listing
+                }
+            }
+            return listFolder(folder.file, folder.path, false);
+        }
 
-    private void getFolderContents(List<FilePath> result, File folder, FilePath folderPath, FileCollectOptions opts) {
-        File[] childFiles = folder.listFiles();
-        if (childFiles != null) {
-            for (File childFile : childFiles) {
-                FilePath childPath = folderPath.resolve(childFile.getName());
-                if (childFile.isDirectory()) {
-                    if (opts.isValid(childPath)) {
-                        if (opts.collectFolders) {
-                            result.add(childPath);
-                        }
-                        if (opts.recursive) {
-                            getFolderContents(result, childFile, childPath, opts);
-                        }
+        @Override
+        protected @Nullable FilePath computeNext() {
+            Node node;
+            while ((node = pending.poll()) != null) {
+                // Check the path first, so we can avoid the file type check for paths that don't match
+                if (!opts.isValid(node.path)) {
+                    continue;
+                }
+
+                if (node.isDirectory()) {
+                    if (opts.recursive) {
+                        addChildren(getChildren(node));
+                    }
+                    if (opts.collectFolders) {
+                        return node.path;
                     }
                 } else {
-                    if (opts.collectFiles && opts.isValid(childPath)) {
-                        result.add(childPath);
+                    if (opts.collectFiles) {
+                        return node.path;
                     }
                 }
             }
+            return null;
+        }
+
+    }
+
+    /**
+     * Lists the contents of a folder.
+     *
+     * @param resolveTypes If {@code true}, immediately checks which child paths are folders.
+     */
+    private static Node[] listFolder(File folder, FilePath folderPath, boolean resolveTypes) {
+        File[] childFiles = folder.listFiles();
+        if (childFiles == null) {
+            return NO_NODES;
+        }
+
+        Node[] result = new Node[childFiles.length];
+        for (int n = 0; n < childFiles.length; n++) {
+            File childFile = childFiles[n];
+            result[n] = new Node(folderPath.resolve(childFile.getName()), childFile);
+            if (resolveTypes) {
+                result[n].isDirectory();
+            }
+        }
+        return result;
+    }
+
+    private static final class ListFolderTask implements Callable<Node[]> {
+
+        private final Node folder;
+
+        public ListFolderTask(Node folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        public Node[] call() {
+            return listFolder(folder.file, folder.path, true);
+        }
+
+    }
+
+    private static final class Node implements Comparable<Node> {
+
+        final FilePath path;
+        final File file;
+
+        /** The file type, determined on first use. Written by a single thread before publishing the node. */
+        private @Nullable Boolean isDirectory;
+
+        /** Folder contents, listed in the background when walking in parallel */
+        @Nullable FutureTask<Node[]> contents;
+
+        public Node(FilePath path, File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        boolean isDirectory() {
+            Boolean result = isDirectory;
+            if (result == null) {
+                result = file.isDirectory();
+                isDirectory = result;
+            }
+            return result;
         }
+
+        @Override
+        public int compareTo(Node other) {
+            return path.compareTo(other.path);
+        }
+
     }
 
 }
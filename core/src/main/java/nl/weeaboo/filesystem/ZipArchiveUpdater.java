@@ -0,0 +1,279 @@
+package nl.weeaboo.filesystem;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
+import nl.weeaboo.io.RandomAccessUtil;
+import nl.weeaboo.io.ZipUtil.Compression;
+import nl.weeaboo.io.ZipWriter;
+
+/**
+ * Updates an existing ZIP file by adding, replacing or removing entries.
+ * <p>
+ * By default, the update is performed in place: new and replaced entries are appended to the end of the ZIP file,
+ * followed by a new central directory. The amount of data written is proportional to the size of the changes, but
+ * the data of replaced or removed entries (and the old central directory) remains in the file. The original ZIP file
+ * remains intact until the new central directory is written. If the update fails, the appended data is removed
+ * again.
+ * <p>
+ * When {@link #setCompact(boolean) compacting}, the ZIP file is rewritten without the data of replaced or removed
+ * entries. Unchanged entries are copied as-is (including all of their metadata), without recompressing them. The
+ * new ZIP file is first written to a temporary file, which replaces the original file once it's complete.
+ */
+public final class ZipArchiveUpdater {
+
+    private final File zipFile;
+    private boolean compact;
+
+    /** Changed entries. A {@code null} value means the entry is removed. */
+    private final Map<FilePath, EntrySource> changes = new LinkedHashMap<FilePath, EntrySource>();
+
+    /**
+     * @param zipFile The ZIP file to update.
+     */
+    public ZipArchiveUpdater(File zipFile) {
+        this.zipFile = Checks.checkNotNull(zipFile);
+    }
+
+    /**
+     * Returns {@code true} if the ZIP file is compacted when calling {@link #commit()}.
+     *
+     * @see #setCompact(boolean)
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Determines whether {@link #commit()} rewrites the ZIP file, removing the data of replaced or removed entries.
+     * Otherwise, the ZIP file is updated in place.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Adds or replaces an entry, using the contents of a file. The file is read when calling {@link #commit()}.
+     */
+    public void put(FilePath path, File file, Compression compression) {
+        changes.put(path, new EntrySource(Checks.checkNotNull(file), null, compression));
+    }
+
+    /**
+     * Adds or replaces an entry. The contents of the byte array must not be modified until calling
+     * {@link #commit()}.
+     */
+    public void put(FilePath path, byte[] contents, Compression compression) {
+        changes.put(path, new EntrySource(null, Checks.checkNotNull(contents), compression));
+    }
+
+    /**
+     * Removes an entry. Does nothing if the ZIP file doesn't contain an entry with the specified path.
+     */
+    public void remove(FilePath path) {
+        changes.put(path, null);
+    }
+
+    /**
+     * Writes the pending changes to the ZIP file.
+     *
+     * @throws IOException If an I/O error occurs while reading the entries to add, or updating the ZIP file.
+     */
+    public void commit() throws IOException {
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.open(zipFile);
+        try {
+            List<ArchiveFileRecord> kept = new ArrayList<ArchiveFileRecord>();
+            for (ArchiveFileRecord record : arc) {
+                if (!changes.containsKey(record.getPath())) {
+                    kept.add(record);
+                }
+            }
+
+            // Keep the existing entries in the order in which they're stored
+            ArchiveFileRecord[] sorted = kept.toArray(new ArchiveFileRecord[kept.size()]);
+            Arrays.sort(sorted, new Comparator<ArchiveFileRecord>() {
+                @Override
+                public int compare(ArchiveFileRecord a, ArchiveFileRecord b) {
+                    long ha = a.getHeaderOffset();
+                    long hb = b.getHeaderOffset();
+                    return (ha < hb ? -1 : (ha == hb ? 0 : 1));
+                }
+            });
+
+            // The original central directory headers contain metadata not stored in the records
+            Map<Long, byte[]> centralHeaders = arc.readCentralHeaders();
+            if (compact) {
+                commitCompacted(arc, sorted, centralHeaders);
+            } else {
+                arc.close();
+                commitInPlace(sorted, centralHeaders);
+            }
+        } finally {
+            arc.close();
+        }
+
+        changes.clear();
+    }
+
+    private void commitInPlace(ArchiveFileRecord[] kept, Map<Long, byte[]> centralHeaders) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(zipFile, "rw");
+        final long originalLength = raf.length();
+        boolean success = false;
+        try {
+            // Append after the end of the original ZIP file, so it stays intact until the update is complete
+            raf.seek(originalLength);
+            ZipWriter zipWriter = new ZipWriter(RandomAccessUtil.wrap(raf));
+            for (ArchiveFileRecord record : kept) {
+                zipWriter.addExistingEntry(getCentralHeader(centralHeaders, record));
+            }
+            writeChanges(zipWriter);
+            zipWriter.finish();
+            success = true;
+        } finally {
+            try {
+                if (!success) {
+                    // Don't finish the ZIP writer (the last entry may be incomplete), remove the appended data instead
+                    raf.setLength(originalLength);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private void commitCompacted(ZipFileArchive arc, ArchiveFileRecord[] kept, Map<Long, byte[]> centralHeaders)
+            throws IOException {
+
+        File parentFolder = zipFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(zipFile.getName(), ".tmp", parentFolder);
+        boolean success = false;
+        try {
+            ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                for (ArchiveFileRecord record : kept) {
+                    // Copy the compressed data directly, without decompressing and recompressing it
+                    arc.copyEntry(record, getCentralHeader(centralHeaders, record), zipWriter);
+                }
+                writeChanges(zipWriter);
+            } finally {
+                zipWriter.close();
+            }
+
+            // The original file must be closed before it can be replaced
+            arc.close();
+            replaceFile(tempFile, zipFile);
+            success = true;
+        } finally {
+            if (!success && !tempFile.delete()) {
+                // Unable to delete the temporary file, try again on exit
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Replaces {@code dst} with {@code src}. Renaming over an existing file isn't supported on all platforms, so if
+     * that fails the original file is moved to a backup file first. The backup file is restored if the replacement
+     * fails, so the original file is never lost.
+     */
+    private static void replaceFile(File src, File dst) throws IOException {
+        if (src.renameTo(dst)) {
+            return;
+        }
+
+        File backupFile = new File(dst.getPath() + ".bak");
+        if (backupFile.exists() && !backupFile.delete()) {
+            throw new IOException("Unable to delete old backup file: " + backupFile);
+        }
+        if (!dst.renameTo(backupFile)) {
+            throw new IOException("Unable to replace " + dst + " with " + src);
+        }
+        if (!src.renameTo(dst)) {
+            if (!backupFile.renameTo(dst)) {
+                throw new IOException("Unable to replace " + dst + " with " + src + ", the original file is stored in "
+                        + backupFile);
+            }
+            throw new IOException("Unable to replace " + dst + " with " + src);
+        }
+        if (!backupFile.delete()) {
+            // Unable to delete the backup file, try again on exit
+            backupFile.deleteOnExit();
+        }
+    }
+
+    private static byte[] getCentralHeader(Map<Long, byte[]> centralHeaders, ArchiveFileRecord record)
+            throws IOException {
+
+        byte[] centralHeader = centralHeaders.get(record.getHeaderOffset());
+        if (centralHeader == null) {
+            throw new IOException("Central directory header not found: " + record.getPath());
+        }
+        return centralHeader;
+    }
+
+    private void writeChanges(ZipWriter zipWriter) throws IOException {
+        for (Map.Entry<FilePath, EntrySource> change : changes.entrySet()) {
+            EntrySource source = change.getValue();
+            if (source == null) {
+                continue;
+            }
+
+            String name = change.getKey().toString();
+            if (source.file != null && source.file.isDirectory()) {
+                zipWriter.writeFolder(name);
+                continue;
+            }
+
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(source.compression == Compression.DEFLATE ? ZipEntry.DEFLATED : ZipEntry.STORED);
+
+            InputStream in;
+            if (source.file != null) {
+                entry.setTime(source.file.lastModified());
+                entry.setSize(source.file.length());
+                in = new FileInputStream(source.file);
+            } else {
+                entry.setSize(source.contents.length);
+                in = new ByteArrayInputStream(source.contents);
+            }
+
+            try {
+                zipWriter.writeEntry(entry, in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static final class EntrySource {
+
+        final @Nullable File file;
+        final @Nullable byte[] contents;
+        final Compression compression;
+
+        EntrySource(@Nullable File file, @Nullable byte[] contents, Compression compression) {
+            this.file = file;
+            this.contents = contents;
+            this.compression = Checks.checkNotNull(compression);
+        }
+
+    }
+
+}
@@ -2,27 +2,127 @@ package nl.weeaboo.filesystem;
 
 import java.io.BufferedInputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.zip.Inflater;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
 import nl.weeaboo.common.StringUtil;
 import nl.weeaboo.io.IRandomAccessFile;
 import nl.weeaboo.io.StreamUtil;
+import nl.weeaboo.io.ZipUtil;
+import nl.weeaboo.io.ZipUtil.Compression;
+import nl.weeaboo.io.ZipWriter;
 
 /**
  * File archive implementation based in a .zip file.
  * <p>
+ * Supports ZIP64 archives (larger than 4GB, or containing more than 65535 entries).
+ * <p>
  * Note: Assumes the ZIP file uses UTF-8 encoded filenames.
  */
 public class ZipFileArchive extends AbstractFileArchive {
 
     private static final int READ_BUF = 4096;
 
+    /** Size of the end of central directory record, excluding the variable-length comment */
+    private static final int EOCD_LENGTH = 22;
+    /** Size of a local file header, excluding the variable-length file name and extra field */
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    /** Local header flag indicating that the entry's CRC and sizes are stored in a data descriptor */
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    /** Optional signature in front of a data descriptor */
+    private static final int DATA_DESCRIPTOR_MAGIC = 0x08074b50;
+    /** Size of a central directory header, excluding the variable-length file name, extra field and comment */
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+
+    private static final int ZIP64_LOCATOR_MAGIC = 0x07064b50;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_EOCD_MAGIC = 0x06064b50;
+    private static final int ZIP64_EOCD_LENGTH = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    /** Value stored in a 32-bit field when the actual value is stored in a ZIP64 field */
+    private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+
+    private @Nullable File indexCacheFile;
+    private InflaterPool inflaterPool = InflaterPool.getDefault();
+
+    /**
+     * Returns the sidecar file used to cache the archive's central directory.
+     *
+     * @see #setIndexCacheFile(File)
+     */
+    public @Nullable File getIndexCacheFile() {
+        return indexCacheFile;
+    }
+
+    /**
+     * Sets a sidecar file used to cache the archive's central directory. If the cache file is valid for the archive
+     * being opened, the archive's central directory doesn't need to be parsed. Otherwise, the cache file is
+     * (re)written after parsing the central directory.
+     * <p>
+     * The cache file is keyed by the archive's size, modification time and a checksum of its end of central
+     * directory record. Must be set before opening the archive.
+     *
+     * @param cacheFile The cache file, or {@code null} to disable caching.
+     */
+    public void setIndexCacheFile(@Nullable File cacheFile) {
+        this.indexCacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the pool of inflaters used to decompress the archive's entries.
+     *
+     * @see #setInflaterPool(InflaterPool)
+     */
+    public InflaterPool getInflaterPool() {
+        return inflaterPool;
+    }
+
+    /**
+     * Sets the pool of inflaters used to decompress the archive's entries. The inflater used by an input stream
+     * returned from {@link #openInputStream(FilePath)} is returned to the pool when the input stream is closed. By
+     * default, all archives share the pool returned by {@link InflaterPool#getDefault()}.
+     */
+    public void setInflaterPool(InflaterPool pool) {
+        this.inflaterPool = Checks.checkNotNull(pool);
+    }
+
+    /**
+     * Reads the raw central directory headers of the entries in this archive, indexed by the offset of each entry's
+     * local header. Unlike the archive's records, the raw headers contain all metadata of the entries, such as their
+     * flags, file attributes and extra fields.
+     *
+     * @throws IOException If the archive isn't open, or an I/O error occurs while reading the central directory.
+     */
+    Map<Long, byte[]> readCentralHeaders() throws IOException {
+        if (rfile == null) {
+            throw new IOException("Archive isn't open");
+        }
+
+        long centralDirPos = findCentralDir(rfile);
+        if (centralDirPos < 0) {
+            throw new IOException("ZIP central directory not found");
+        }
+
+        Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+        readCentralDir(rfile, centralDirPos, readFully(rfile, centralDirPos, EOCD_LENGTH), result);
+        return result;
+    }
+
     @Override
     protected ArchiveFileRecord[] initRecords(IRandomAccessFile rfile) throws IOException {
         long centralDirPos = findCentralDir(rfile);
@@ -32,7 +132,7 @@ public class ZipFileArchive extends AbstractFileArchive {
 
         InputStream in;
 
-        ByteBuffer centralDirBuf = ByteBuffer.allocate(20);
+        ByteBuffer centralDirBuf = ByteBuffer.allocate(EOCD_LENGTH);
         centralDirBuf.order(ByteOrder.LITTLE_ENDIAN);
 
         in = new BufferedInputStream(rfile.getInputStream(centralDirPos, rfile.length() - centralDirPos), READ_BUF);
@@ -42,21 +142,78 @@ public class ZipFileArchive extends AbstractFileArchive {
             in.close();
         }
 
+        ZipIndexCache indexCache = null;
+        if (indexCacheFile != null) {
+            CRC32 crc = new CRC32();
+            crc.update(centralDirBuf.array(), 0, EOCD_LENGTH);
+            long modifiedTime = (file != null ? file.lastModified() : 0L);
+            indexCache = new ZipIndexCache(indexCacheFile, rfile.length(), modifiedTime, (int)crc.getValue());
+
+            ArchiveFileRecord[] cached = indexCache.read();
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ArchiveFileRecord[] records = readCentralDir(rfile, centralDirPos, centralDirBuf, null);
+        if (indexCache != null) {
+            Arrays.sort(records, pathComparator);
+
+            try {
+                indexCache.write(records);
+            } catch (IOException ioe) {
+                // Unable to write the cache file, the archive itself is still usable
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @param centralHeadersOut If not {@code null}, the raw central directory header of each entry is stored in this
+     *        map, using the offset of the entry's local header as the key.
+     */
+    private static ArchiveFileRecord[] readCentralDir(IRandomAccessFile rfile, long centralDirPos,
+            ByteBuffer centralDirBuf, @Nullable Map<Long, byte[]> centralHeadersOut) throws IOException {
+
+        centralDirBuf.rewind();
+
         centralDirBuf.getInt();   // End of central directory magic
         centralDirBuf.getShort(); // Disk number
         centralDirBuf.getShort(); // Central directory disk number
         centralDirBuf.getShort(); // Number of central directory records on this disk
 
-        int fileCount = (centralDirBuf.getShort() & 0xFFFF);
-        centralDirBuf.getInt(); // Central directory size
+        long fileCount = (centralDirBuf.getShort() & 0xFFFF);
+        long centralDirSize = (centralDirBuf.getInt() & 0xFFFFFFFFL);
         long offset = (centralDirBuf.getInt() & 0xFFFFFFFFL);
 
-        ArchiveFileRecord[] records = new ArchiveFileRecord[fileCount];
+        // The ZIP64 end of central directory record overrides the values from the regular record
+        ByteBuffer zip64Buf = readZip64CentralDir(rfile, centralDirPos);
+        if (zip64Buf != null) {
+            zip64Buf.getInt();   // ZIP64 end of central directory magic
+            zip64Buf.getLong();  // Size of the ZIP64 end of central directory record
+            zip64Buf.getShort(); // Version made by
+            zip64Buf.getShort(); // Version needed to extract
+            zip64Buf.getInt();   // Disk number
+            zip64Buf.getInt();   // Central directory disk number
+            zip64Buf.getLong();  // Number of central directory records on this disk
+
+            fileCount = zip64Buf.getLong();
+            centralDirSize = zip64Buf.getLong();
+            offset = zip64Buf.getLong();
+        }
+        if (fileCount < 0 || fileCount > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported number of files in ZIP archive: " + fileCount);
+        }
+
+        ArchiveFileRecord[] records = new ArchiveFileRecord[(int)fileCount];
+        ArchiveNamePool namePool = new ArchiveNamePool((int)Math.min(Integer.MAX_VALUE / 2, centralDirSize));
+        byte[] filenameBytes = new byte[256];
+        byte[] extraBytes = new byte[64];
 
-        in = new BufferedInputStream(rfile.getInputStream(offset, rfile.length() - offset), READ_BUF);
+        InputStream in = new BufferedInputStream(rfile.getInputStream(offset, rfile.length() - offset), READ_BUF);
         try {
             // TODO: This could be replaced by a LittleEndianInputStream for easier reading of unsigned values
-            ByteBuffer buf = ByteBuffer.allocate(46);
+            ByteBuffer buf = ByteBuffer.allocate(CENTRAL_HEADER_LENGTH);
             buf.order(ByteOrder.LITTLE_ENDIAN);
 
             for (int n = 0; n < fileCount; n++) {
@@ -73,33 +230,140 @@ public class ZipFileArchive extends AbstractFileArchive {
                 }
 
                 final int dosDateTime = buf.getInt();
-                buf.getInt();   // CRC
-                final long compressedLength   = (buf.getInt() & 0xFFFFFFFFL);
-                final long uncompressedLength = (buf.getInt() & 0xFFFFFFFFL);
+                final int crc = buf.getInt();
+                long compressedLength         = (buf.getInt() & 0xFFFFFFFFL);
+                long uncompressedLength       = (buf.getInt() & 0xFFFFFFFFL);
                 final int  filenameLength     = (buf.getShort() & 0xFFFF);
                 final int  extraFieldLength   = (buf.getShort() & 0xFFFF);
                 final int  commentLength      = (buf.getShort() & 0xFFFF);
                 buf.getShort(); // Disk number
                 buf.getShort(); // Internal file attributes
                 buf.getInt();   // External file attributes
-                final long headerOffset       = (buf.getInt() & 0xFFFFFFFFL);
+                long headerOffset             = (buf.getInt() & 0xFFFFFFFFL);
 
-                byte[] filenameBytes = new byte[filenameLength];
+                if (filenameBytes.length < filenameLength) {
+                    filenameBytes = new byte[filenameLength];
+                }
                 StreamUtil.readFully(in, filenameBytes, 0, filenameLength);
-                String filenameString = StringUtil.fromUTF8(filenameBytes);
+                String filenameString = StringUtil.fromUTF8(filenameBytes, 0, filenameLength);
 
-                StreamUtil.forceSkip(in, extraFieldLength + commentLength);
+                if (extraBytes.length < extraFieldLength) {
+                    extraBytes = new byte[extraFieldLength];
+                }
+                StreamUtil.readFully(in, extraBytes, 0, extraFieldLength);
+
+                // Values that don't fit in 32 bits are stored in the ZIP64 extended information extra field
+                if (compressedLength == ZIP64_MAGIC_VALUE || uncompressedLength == ZIP64_MAGIC_VALUE
+                        || headerOffset == ZIP64_MAGIC_VALUE) {
+                    ByteBuffer zip64Extra = findExtraField(extraBytes, extraFieldLength, ZIP64_EXTRA_ID);
+                    if (zip64Extra == null) {
+                        throw new IOException("Missing ZIP64 extra field for " + filenameString);
+                    }
+                    if (uncompressedLength == ZIP64_MAGIC_VALUE) {
+                        uncompressedLength = zip64Extra.getLong();
+                    }
+                    if (compressedLength == ZIP64_MAGIC_VALUE) {
+                        compressedLength = zip64Extra.getLong();
+                    }
+                    if (headerOffset == ZIP64_MAGIC_VALUE) {
+                        headerOffset = zip64Extra.getLong();
+                    }
+                }
+
+                if (centralHeadersOut != null) {
+                    int headerLength = CENTRAL_HEADER_LENGTH + filenameLength + extraFieldLength;
+                    byte[] centralHeader = new byte[headerLength + commentLength];
+                    System.arraycopy(buf.array(), 0, centralHeader, 0, CENTRAL_HEADER_LENGTH);
+                    System.arraycopy(filenameBytes, 0, centralHeader, CENTRAL_HEADER_LENGTH, filenameLength);
+                    System.arraycopy(extraBytes, 0, centralHeader, CENTRAL_HEADER_LENGTH + filenameLength,
+                            extraFieldLength);
+                    StreamUtil.readFully(in, centralHeader, headerLength, commentLength);
+                    centralHeadersOut.put(headerOffset, centralHeader);
+                } else {
+                    StreamUtil.forceSkip(in, commentLength);
+                }
 
-                records[n] = new ArchiveFileRecord(filenameString, headerOffset,
-                        compressedLength, uncompressedLength, (byte)compressionMethod, dosDateTime);
+                records[n] = new ArchiveFileRecord(namePool, filenameString, headerOffset,
+                        compressedLength, uncompressedLength, (byte)compressionMethod, crc, dosDateTime);
             }
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Invalid ZIP64 extra field: " + bue);
         } finally {
             in.close();
         }
 
+        namePool.trim();
         return records;
     }
 
+    /**
+     * Reads the ZIP64 end of central directory record, if the archive has one.
+     *
+     * @param centralDirPos The position of the regular end of central directory record.
+     * @return A buffer containing the ZIP64 end of central directory record, or {@code null} if the archive
+     *         doesn't contain one.
+     */
+    private static @Nullable ByteBuffer readZip64CentralDir(IRandomAccessFile rfile, long centralDirPos)
+            throws IOException {
+
+        // The ZIP64 locator is stored directly in front of the regular end of central directory record
+        long locatorPos = centralDirPos - ZIP64_LOCATOR_LENGTH;
+        if (locatorPos < 0) {
+            return null;
+        }
+        ByteBuffer locator = readFully(rfile, locatorPos, ZIP64_LOCATOR_LENGTH);
+        if (locator.getInt() != ZIP64_LOCATOR_MAGIC) {
+            return null;
+        }
+        locator.getInt(); // Disk number
+        long zip64Pos = locator.getLong();
+
+        ByteBuffer result = readFully(rfile, zip64Pos, ZIP64_EOCD_LENGTH);
+        if (result.getInt(0) != ZIP64_EOCD_MAGIC) {
+            throw new IOException("ZIP64 end of central directory record not found");
+        }
+        return result;
+    }
+
+    private static ByteBuffer readFully(IRandomAccessFile rfile, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int r = rfile.read(pos + buf.position(), buf);
+            if (r < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.rewind();
+        return buf;
+    }
+
+    /**
+     * Searches an extra field block for a specific extra field.
+     *
+     * @return A buffer containing the data of the extra field, or {@code null} if not found.
+     */
+    private static @Nullable ByteBuffer findExtraField(byte[] extra, int length, int headerId) {
+        ByteBuffer buf = ByteBuffer.wrap(extra, 0, length);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.remaining() >= 4) {
+            int id = buf.getShort() & 0xFFFF;
+            int dataLength = buf.getShort() & 0xFFFF;
+            if (dataLength > buf.remaining()) {
+                break;
+            }
+
+            if (id == headerId) {
+                ByteBuffer result = buf.slice();
+                result.limit(dataLength);
+                result.order(ByteOrder.LITTLE_ENDIAN);
+                return result;
+            }
+            buf.position(buf.position() + dataLength);
+        }
+        return null;
+    }
+
     private static void fill(InputStream in, ByteBuffer buf) throws IOException {
         buf.rewind();
         StreamUtil.readFully(in, buf.array(), buf.arrayOffset(), buf.limit());
@@ -115,12 +379,12 @@ public class ZipFileArchive extends AbstractFileArchive {
         do {
             // Need 3 extra bytes in case magic number falls on read boundary
             pos = Math.max(0, pos - (buf.limit() - 3));
-            file.seek(pos);
 
             // Note: do not use fill(), it throws an exception if EOF is reached.
             buf.limit(buf.capacity());
             while (buf.remaining() > 0) {
-                int r = file.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                int r = file.read(pos + buf.position(), buf.array(), buf.arrayOffset() + buf.position(),
+                        buf.remaining());
                 if (r < 0) {
                     buf.limit(buf.position());
                     break;
@@ -147,54 +411,144 @@ public class ZipFileArchive extends AbstractFileArchive {
     protected InputStream openInputStreamImpl(FilePath path) throws IOException {
         ArchiveFileRecord file = getFileImpl(path);
 
-        long fileOffset = getFileOffset(file.getHeaderOffset());
-        InputStream in = rfile.getInputStream(fileOffset, file.getCompressedLength());
+        InputStream in = openRawInputStream(file);
         if (file.getCompression() == ZipEntry.DEFLATED) {
-            in = new CompressedEntryInputStream(in);
+            in = new CompressedEntryInputStream(in, inflaterPool);
         }
         return in;
     }
 
-    @Override
-    protected long getFileOffset(long headerOffset) throws IOException {
-        long fileOffset;
+    /**
+     * Copies an entry from this archive to a ZIP writer. The entry's compressed data is copied as-is, without
+     * decompressing and recompressing it.
+     *
+     * @throws FileNotFoundException If no entry with the specified path could be found within the archive.
+     * @throws ZipException If the entry uses an unsupported compression method.
+     * @throws IOException If an I/O error occurs while reading or writing the entry.
+     */
+    public void copyRawEntry(FilePath path, ZipWriter zipWriter) throws IOException {
+        copyRawEntry(getFile(path), zipWriter);
+    }
 
-        byte[] headerBytes = new byte[30];
-        InputStream headerIn = rfile.getInputStream(headerOffset, headerBytes.length);
-        try {
-            ByteBuffer header = ByteBuffer.wrap(headerBytes);
-            header.order(ByteOrder.LITTLE_ENDIAN);
-            while (header.hasRemaining()) {
-                int read = headerIn.read(header.array(), header.position(), header.remaining());
-                if (read < 0) {
-                    break;
-                }
-                header.position(header.position() + read);
-            }
+    void copyRawEntry(ArchiveFileRecord record, ZipWriter zipWriter) throws IOException {
+        String relpath = record.getPath().toString();
+        if (record.isFolder()) {
+            zipWriter.writeFolder(relpath);
+            return;
+        }
 
-            header.position(26);
-            int filenameLength = header.getShort() & 0xFFFF;
-            int extraLength = header.getShort() & 0xFFFF;
+        Compression compression;
+        if (record.getCompression() == ZipEntry.DEFLATED) {
+            compression = Compression.DEFLATE;
+        } else if (record.getCompression() == ZipEntry.STORED) {
+            compression = Compression.NONE;
+        } else {
+            throw new ZipException("Unsupported compression method (" + record.getCompression() + "): " + relpath);
+        }
+
+        InputStream in = openRawInputStream(record);
+        try {
+            ZipUtil.writeRawEntry(zipWriter, relpath, compression, record.getCrc(), record.getUncompressedLength(),
+                    record.getModifiedTime(), in, record.getCompressedLength());
+        } finally {
+            in.close();
+        }
+    }
 
-            fileOffset = headerOffset + 30 + filenameLength + extraLength;
+    /**
+     * Copies an entry from this archive to a ZIP writer, preserving all of its metadata. The entry's local header,
+     * compressed data and data descriptor are copied as-is.
+     *
+     * @param centralHeader The entry's raw central directory header.
+     * @see #readCentralHeaders()
+     * @see ZipWriter#copyEntry(byte[], InputStream, long)
+     */
+    void copyEntry(ArchiveFileRecord record, byte[] centralHeader, ZipWriter zipWriter) throws IOException {
+        long headerOffset = record.getHeaderOffset();
+        long dataEnd = getFileOffset(record) + record.getCompressedLength();
+        long length = dataEnd - headerOffset + getDataDescriptorLength(record, dataEnd);
+
+        InputStream in = rfile.getInputStream(headerOffset, length);
+        try {
+            zipWriter.copyEntry(centralHeader, in, length);
         } finally {
-            headerIn.close();
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the length of the data descriptor following the data of an entry, or {@code 0} if the entry doesn't
+     * have a data descriptor.
+     */
+    private long getDataDescriptorLength(ArchiveFileRecord record, long dataEnd) throws IOException {
+        long headerOffset = record.getHeaderOffset();
+        ByteBuffer header = readFully(rfile, headerOffset, LOCAL_HEADER_LENGTH);
+        if ((header.getShort(6) & FLAG_DATA_DESCRIPTOR) == 0) {
+            return 0;
         }
 
-        return fileOffset;
+        // The data descriptor contains 64-bit sizes if the local header has a ZIP64 extra field, or the sizes don't
+        // fit in 32 bits
+        int filenameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        ByteBuffer extra = readFully(rfile, headerOffset + LOCAL_HEADER_LENGTH + filenameLength, extraLength);
+        boolean zip64 = findExtraField(extra.array(), extraLength, ZIP64_EXTRA_ID) != null
+                || record.getCompressedLength() >= ZIP64_MAGIC_VALUE
+                || record.getUncompressedLength() >= ZIP64_MAGIC_VALUE;
+
+        long length = (zip64 ? 20 : 12);
+        if (readFully(rfile, dataEnd, 4).getInt() == DATA_DESCRIPTOR_MAGIC) {
+            length += 4;
+        }
+        return length;
+    }
+
+    @Override
+    protected long getFileOffset(long headerOffset) throws IOException {
+        ByteBuffer header = readFully(rfile, headerOffset, LOCAL_HEADER_LENGTH);
+        header.position(26);
+        int filenameLength = header.getShort() & 0xFFFF;
+        int extraLength = header.getShort() & 0xFFFF;
+
+        return headerOffset + LOCAL_HEADER_LENGTH + filenameLength + extraLength;
     }
 
     private static class CompressedEntryInputStream extends InflaterInputStream {
 
+        private final InflaterPool pool;
+        private @Nullable InflaterPool.Entry poolEntry;
         private boolean eof;
 
-        public CompressedEntryInputStream(InputStream in) {
-            super(in, new Inflater(true));
+        public CompressedEntryInputStream(InputStream in, InflaterPool pool) {
+            this(in, pool, pool.acquire());
+        }
+
+        private CompressedEntryInputStream(InputStream in, InflaterPool pool, InflaterPool.Entry poolEntry) {
+            // Use a minimal buffer in the super constructor, it's replaced by the pooled buffer
+            super(in, poolEntry.inflater, 1);
+
+            this.pool = pool;
+            this.poolEntry = poolEntry;
+            this.buf = poolEntry.buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // The super class marks the stream as closed, so it's safe to return the inflater to the pool
+                InflaterPool.Entry entry = poolEntry;
+                if (entry != null) {
+                    poolEntry = null;
+                    pool.release(entry);
+                }
+            }
         }
 
         // Provide 1-byte padding at end of compressed data (required when using inflator with nowrap=true)
         @Override
-        protected synchronized void fill() throws IOException {
+        protected void fill() throws IOException {
             if (eof) {
                 throw new EOFException();
             }
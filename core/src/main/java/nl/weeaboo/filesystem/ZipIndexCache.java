@@ -0,0 +1,185 @@
+package nl.weeaboo.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sidecar file storing the parsed central directory of a ZIP archive. Allows an unchanged archive to be reopened
+ * without parsing its central directory.
+ * <p>
+ * The cache file is keyed by the archive's size, modification time and a checksum of its end-of-central-directory
+ * record. If any of those don't match, the cache file is ignored.
+ * <p>
+ * The records are stored in sorted order, together with their name pool and path hashes. Loading the cache file
+ * doesn't decode, normalize or sort any paths.
+ * <p>
+ * The cache file is read using a regular buffered stream instead of a memory mapping, since a mapping can't be
+ * released explicitly and would prevent replacing a stale cache file on some platforms.
+ */
+final class ZipIndexCache {
+
+    private static final int MAGIC = 0x5A495843; // "ZIXC"
+    private static final int VERSION = 3;
+
+    private final File cacheFile;
+    private final long archiveSize;
+    private final long archiveModifiedTime;
+    private final int eocdChecksum;
+
+    public ZipIndexCache(File cacheFile, long archiveSize, long archiveModifiedTime, int eocdChecksum) {
+        this.cacheFile = cacheFile;
+        this.archiveSize = archiveSize;
+        this.archiveModifiedTime = archiveModifiedTime;
+        this.eocdChecksum = eocdChecksum;
+    }
+
+    /**
+     * Reads the records from the cache file.
+     *
+     * @return The cached records in sorted order, or {@code null} if the cache file doesn't exist, is unreadable or
+     *         belongs to a different version of the archive.
+     */
+    public @Nullable ArchiveFileRecord[] read() {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                return readRecords(in, cacheFile.length());
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            // Invalid cache file, ignore it
+            return null;
+        }
+    }
+
+    private @Nullable ArchiveFileRecord[] readRecords(DataInputStream in, long fileLength) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != archiveSize
+                || in.readLong() != archiveModifiedTime || in.readInt() != eocdChecksum) {
+            return null;
+        }
+
+        int recordCount = in.readInt();
+        if (recordCount < 0 || recordCount > fileLength) {
+            throw new IOException("Invalid record count: " + recordCount);
+        }
+
+        int poolSize = in.readInt();
+        if (poolSize < 0 || poolSize > fileLength) {
+            throw new IOException("Invalid name pool size: " + poolSize);
+        }
+        byte[] poolBytes = new byte[poolSize];
+        in.readFully(poolBytes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(poolBytes);
+        if (in.readInt() != (int)crc32.getValue()) {
+            throw new IOException("Name pool checksum mismatch");
+        }
+        ArchiveNamePool namePool = new ArchiveNamePool(poolBytes);
+
+        ArchiveFileRecord[] records = new ArchiveFileRecord[recordCount];
+        for (int n = 0; n < recordCount; n++) {
+            int nameOffset = in.readInt();
+            int nameLength = in.readInt();
+            if (nameOffset < 0 || nameLength < 0 || (long)nameOffset + nameLength > poolSize) {
+                throw new IOException("Invalid name pool range: " + nameOffset + "+" + nameLength);
+            }
+            int pathHash = in.readInt();
+            boolean isFolder = in.readBoolean();
+            long headerOffset = in.readLong();
+            long compressedLength = in.readLong();
+            long uncompressedLength = in.readLong();
+            byte compression = in.readByte();
+            int crc = in.readInt();
+            int dosDateTime = in.readInt();
+
+            records[n] = new ArchiveFileRecord(namePool, nameOffset, nameLength, pathHash, isFolder, headerOffset,
+                    compressedLength, uncompressedLength, compression, crc, dosDateTime);
+        }
+        return records;
+    }
+
+    /**
+     * Writes the records to the cache file, replacing any existing cache file.
+     *
+     * @param records The archive's records in sorted order. All records must share the same name pool.
+     * @throws IOException If an I/O error occurs while writing the cache file.
+     */
+    public void write(ArchiveFileRecord[] records) throws IOException {
+        ArchiveNamePool namePool = (records.length > 0 ? records[0].getNamePool() : new ArchiveNamePool(0));
+        for (ArchiveFileRecord record : records) {
+            if (record.getNamePool() != namePool) {
+                throw new IOException("Records don't share the same name pool");
+            }
+        }
+
+        // Use a unique temp file, other processes may be writing the same cache file at the same time
+        File parentFolder = cacheFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", parentFolder);
+        boolean success = false;
+        try {
+            writeRecords(tempFile, namePool, records);
+
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                throw new IOException("Unable to replace cache file: " + cacheFile);
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + cacheFile);
+            }
+            success = true;
+        } finally {
+            if (!success && !tempFile.delete()) {
+                // Unable to delete the temporary file, try again on exit
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    private void writeRecords(File file, ArchiveNamePool namePool, ArchiveFileRecord[] records) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(archiveSize);
+            out.writeLong(archiveModifiedTime);
+            out.writeInt(eocdChecksum);
+
+            out.writeInt(records.length);
+
+            out.writeInt(namePool.size());
+            CheckedOutputStream poolOut = new CheckedOutputStream(out, new CRC32());
+            namePool.write(poolOut);
+            out.writeInt((int)poolOut.getChecksum().getValue());
+
+            for (ArchiveFileRecord record : records) {
+                out.writeInt(record.getNameOffset());
+                out.writeInt(record.getNameLength());
+                out.writeInt(record.getPathHash());
+                out.writeBoolean(record.isFolder());
+                out.writeLong(record.getHeaderOffset());
+                out.writeLong(record.getCompressedLength());
+                out.writeLong(record.getUncompressedLength());
+                out.writeByte(record.getCompression());
+                out.writeInt((int)record.getCrc());
+                out.writeInt(record.getDosDateTime());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package nl.weeaboo.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading from a private view of a byte buffer. Streams sharing the same underlying buffer don't
+ * require any locking.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf The buffer to read from. The stream reads the bytes between the buffer's position and limit and
+     *        changes the buffer's position while reading, so the buffer shouldn't be shared.
+     */
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+        buf.mark();
+    }
+
+    @Override
+    public void close() {
+        //Nothing to do, this is just a view on the buffer
+    }
+
+    @Override
+    public synchronized long skip(long s) {
+        int skipped = (int)Math.max(0, Math.min(s, buf.remaining()));
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public synchronized int read() {
+        return (buf.hasRemaining() ? buf.get() & 0xFF : -1);
+    }
+
+    @Override
+    public synchronized int read(byte[] out, int off, int len) {
+        if (!buf.hasRemaining()) {
+            return (len == 0 ? 0 : -1);
+        }
+
+        int r = Math.min(buf.remaining(), len);
+        buf.get(out, off, r);
+        return r;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        buf.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buf.reset();
+    }
+
+}
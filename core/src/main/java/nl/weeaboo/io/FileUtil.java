@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
 import nl.weeaboo.common.StringUtil;
 
@@ -38,6 +40,53 @@ public final class FileUtil {
         return StringUtil.fromUTF8(contents);
     }
 
+    /**
+     * Copies the contents of a file. If the destination file already exists, it's overwritten. Depending on the
+     * operating system, the contents may be transferred directly without copying them into Java memory.
+     *
+     * @throws IOException If the source file can't be read, or the destination file can't be written.
+     */
+    public static void copyFile(File src, File dst) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream out = new FileOutputStream(dst);
+            try {
+                // Only safe because the streams aren't shared: interrupting a channel transfer closes the streams
+                FileChannel inChannel = in.getChannel();
+                if (StreamUtil.isSeekable(inChannel)) {
+                    StreamUtil.transferFully(inChannel, out.getChannel());
+                }
+                // The file may have grown in the meantime, copy any remaining bytes
+                StreamUtil.writeBytes(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Calculates the CRC-32 checksum of the contents of a file.
+     *
+     * @throws IOException If the file can't be read.
+     */
+    public static long calculateCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[StreamUtil.getBufferSize(file.length())];
+
+        InputStream in = new FileInputStream(file);
+        try {
+            int r;
+            while ((r = in.read(buf)) >= 0) {
+                crc.update(buf, 0, r);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
     /**
      * Writes the specified string to a file using UTF-8 encoding.
      *
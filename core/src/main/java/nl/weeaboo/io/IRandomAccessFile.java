@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Generic interface for seekable files/streams.
@@ -34,6 +35,27 @@ public interface IRandomAccessFile extends Closeable {
      */
     int read(byte[] buf, int off, int len) throws IOException;
 
+    /**
+     * Reads up to {@code len} bytes starting at byte-offset {@code position} in the file into the output buffer
+     * {@code buf}, starting at buffer offset {@code off}. Doesn't use or change the current byte-offset within the
+     * file, so multiple threads may call this method concurrently.
+     *
+     * @return The number of bytes read, or {@code -1} if {@code position} is at or past the end of the file.
+     * @throws IOException If the file is not readable, or no longer usable.
+     */
+    int read(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Reads bytes starting at byte-offset {@code position} in the file into the remaining space of the output
+     * buffer. Doesn't use or change the current byte-offset within the file, so multiple threads may call this
+     * method concurrently.
+     *
+     * @return The number of bytes read, or {@code -1} if {@code position} is at or past the end of the file.
+     * @throws IOException If the file is not readable, or no longer usable.
+     * @see #read(long, byte[], int, int)
+     */
+    int read(long position, ByteBuffer buf) throws IOException;
+
     /**
      * Writes a single unsigned byte to the file.
      *
@@ -0,0 +1,767 @@
+package nl.weeaboo.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
+import nl.weeaboo.io.ZipUtil.Compression;
+
+/**
+ * Writes ZIP files, compressing the entries in parallel using an {@link Executor}. Entries are written to the output
+ * in the order they were added.
+ * <p>
+ * Large entries are split into blocks which are compressed independently (using the last 32KiB of the previous block
+ * as a preset dictionary) and then joined, similar to <a href="https://zlib.net/pigz/">pigz</a>. This requires a
+ * Java 7+ runtime. On older runtimes, each entry is compressed as a whole, on a single thread.
+ * <p>
+ * The number of blocks being compressed at the same time is limited. When the limit is reached, adding an entry
+ * blocks until the oldest blocks have been written to the output.
+ * <p>
+ * This class is not thread-safe; entries must be added from a single thread.
+ */
+public final class ParallelZipWriter implements Closeable {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20; // 1MiB
+    private static final int MIN_BLOCK_SIZE = 64 << 10; // 64KiB
+    private static final int DICTIONARY_SIZE = 32 << 10; // 32KiB
+    private static final int IO_BUFFER_SIZE = 16 << 10; // 16KiB
+
+    /** {@code Deflater.SYNC_FLUSH}, which was added in Java 7 */
+    private static final int SYNC_FLUSH = 2;
+    /** {@code Deflater.deflate(byte[], int, int, int)} if supported by the runtime */
+    private static final @Nullable Method DEFLATE_WITH_FLUSH = findDeflateWithFlush();
+
+    private final OutputStream out;
+    private final ZipWriter zipWriter;
+    private final Executor executor;
+    private final int maxPendingBlocks;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /** Entries which haven't been (completely) written yet, in the order they were added */
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>();
+    private int pendingBlocks;
+    /** Set when writing an entry fails. The output is in an undefined state, so no more entries can be written. */
+    private boolean failed;
+
+    /**
+     * Uses twice the number of available processors as the maximum number of pending blocks.
+     *
+     * @see #ParallelZipWriter(OutputStream, Executor, int)
+     */
+    public ParallelZipWriter(OutputStream out, Executor executor) {
+        this(out, executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param out The output stream to write the ZIP file to. Writes are unbuffered, so the supplied output stream
+     *        should be buffered.
+     * @param executor The executor used to compress the entries.
+     * @param maxPendingBlocks The maximum number of blocks that may be compressed, or waiting to be written, at the
+     *        same time. Limits the amount of memory used.
+     */
+    public ParallelZipWriter(OutputStream out, Executor executor, int maxPendingBlocks) {
+        this.out = Checks.checkNotNull(out);
+        this.zipWriter = new ZipWriter(out);
+        this.executor = Checks.checkNotNull(executor);
+        this.maxPendingBlocks = Checks.checkRange(maxPendingBlocks, "maxPendingBlocks", 1);
+    }
+
+    /**
+     * Returns {@code true} if large entries can be split into blocks which are compressed in parallel. This depends on
+     * the version of the Java runtime.
+     */
+    public static boolean isBlockSplittingSupported() {
+        return DEFLATE_WITH_FLUSH != null;
+    }
+
+    /**
+     * Sets the compression level for entries added after calling this method.
+     *
+     * @param level The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @see Deflater#setLevel(int)
+     */
+    public void setCompressionLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION) {
+            Checks.checkRange(level, "level", Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * Sets the size of the blocks into which large entries are split before compressing them in parallel. Smaller
+     * blocks allow for more parallelism, but slightly reduce the compression ratio.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Checks.checkRange(blockSize, "blockSize", MIN_BLOCK_SIZE);
+    }
+
+    /**
+     * Finishes writing all pending entries, writes the central directory and closes the underlying output stream.
+     *
+     * @throws IOException If an I/O error occurs while compressing or writing the remaining entries.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                flush();
+                zipWriter.finish();
+            }
+        } finally {
+            // Release resources of entries that were never written due to an exception
+            for (PendingEntry entry : pendingEntries) {
+                entry.dispose();
+            }
+            pendingEntries.clear();
+
+            // Don't close the ZipWriter, it would try to finish the ZIP file
+            out.close();
+        }
+    }
+
+    /**
+     * Waits until all entries added so far have been compressed and written to the output.
+     *
+     * @throws IOException If an I/O error occurs while compressing or writing the entries.
+     */
+    public void flush() throws IOException {
+        while (!pendingEntries.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Adds a folder entry.
+     *
+     * @throws IOException If an I/O error occurs while writing a previously added entry.
+     */
+    public void addFolder(String relpath) throws IOException {
+        // Folders don't need compressing, but they must be written in the correct order
+        PendingEntry entry = new PendingEntry(relpath, null, -1);
+        entry.allBlocksAdded = true;
+        pendingEntries.add(entry);
+        writeCompleted();
+    }
+
+    /**
+     * Adds a file. If the file is a folder, adds a folder entry instead.
+     *
+     * @throws IOException If the file can't be read, or an I/O error occurs while writing a previously added entry.
+     */
+    public void add(String relpath, final File file, Compression compression) throws IOException {
+        if (file.isDirectory()) {
+            addFolder(relpath);
+            return;
+        }
+
+        final long size = file.length();
+        PendingEntry entry = beginEntry(relpath, compression, size, file.lastModified());
+        if (!entry.splitBlocks) {
+            addBlock(entry, null, new FileInput(file, 0), size, true);
+        } else {
+            RandomAccessFile rfile = new RandomAccessFile(file, "r");
+            try {
+                for (long pos = 0; pos < size; pos += blockSize) {
+                    byte[] dict = null;
+                    if (pos > 0) {
+                        dict = new byte[DICTIONARY_SIZE];
+                        rfile.seek(pos - DICTIONARY_SIZE);
+                        rfile.readFully(dict);
+                    }
+
+                    long length = Math.min(blockSize, size - pos);
+                    addBlock(entry, dict, new FileInput(file, pos), length, pos + length >= size);
+                }
+            } finally {
+                rfile.close();
+            }
+        }
+        entry.allBlocksAdded = true;
+        writeCompleted();
+    }
+
+    /**
+     * Adds a file entry. The contents of the byte array must not be modified until the entry has been written.
+     *
+     * @throws IOException If an I/O error occurs while writing a previously added entry.
+     * @see #flush()
+     */
+    public void add(String relpath, final byte[] b, final int off, int len, Compression compression)
+            throws IOException {
+
+        PendingEntry entry = beginEntry(relpath, compression, len, -1);
+        if (!entry.splitBlocks) {
+            addBlock(entry, null, new ByteArrayInput(b, off), len, true);
+        } else {
+            for (int pos = 0; pos < len; pos += blockSize) {
+                byte[] dict = null;
+                if (pos > 0) {
+                    dict = Arrays.copyOfRange(b, off + pos - DICTIONARY_SIZE, off + pos);
+                }
+
+                int length = Math.min(blockSize, len - pos);
+                addBlock(entry, dict, new ByteArrayInput(b, off + pos), length, pos + length >= len);
+            }
+        }
+        entry.allBlocksAdded = true;
+        writeCompleted();
+    }
+
+    /**
+     * Adds a file entry. Reads exactly {@code size} bytes from the input stream (on the calling thread). The input
+     * stream isn't closed.
+     *
+     * @throws IOException If an I/O error occurs while reading the input stream, or while writing a previously added
+     *         entry.
+     */
+    public void add(String relpath, InputStream in, long size, Compression compression) throws IOException {
+        Checks.checkArgument(size >= 0, "size must be >= 0, was: " + size);
+
+        PendingEntry entry = beginEntry(relpath, compression, size, -1);
+        if (!entry.splitBlocks) {
+            // Copy the input to temporary storage, so it can be read by another thread
+            final SpillableOutputStream buffer = new SpillableOutputStream();
+            entry.resources.add(buffer);
+            copy(in, buffer, size);
+
+            addBlock(entry, null, new BlockInput() {
+                @Override
+                public InputStream open() throws IOException {
+                    return buffer.openInputStream();
+                }
+            }, size, true);
+        } else {
+            byte[] prev = null;
+            long pos = 0;
+            do {
+                int length = (int)Math.min(blockSize, size - pos);
+                byte[] block = new byte[length];
+                StreamUtil.readFully(in, block, 0, length);
+
+                byte[] dict = null;
+                if (prev != null) {
+                    dict = Arrays.copyOfRange(prev, prev.length - DICTIONARY_SIZE, prev.length);
+                }
+                pos += length;
+                addBlock(entry, dict, new ByteArrayInput(block, 0), length, pos >= size);
+                prev = block;
+            } while (pos < size);
+        }
+        entry.allBlocksAdded = true;
+        writeCompleted();
+    }
+
+    private static void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buf = new byte[(int)Math.max(1, Math.min(IO_BUFFER_SIZE, size))];
+        long remaining = size;
+        while (remaining > 0) {
+            int r = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+            if (r < 0) {
+                throw new EOFException("Unexpected end of file, read=" + (size - remaining) + " expected=" + size);
+            }
+            out.write(buf, 0, r);
+            remaining -= r;
+        }
+    }
+
+    private PendingEntry beginEntry(String relpath, Compression compression, long size, long time) {
+        PendingEntry entry = new PendingEntry(relpath, compression, time);
+        /*
+         * Stored entries are never split. Their CRC must be known before writing the entry header, so all blocks
+         * would need to be kept in memory until the entire entry is processed.
+         */
+        entry.splitBlocks = (compression == Compression.DEFLATE && size > blockSize && isBlockSplittingSupported());
+        entry.expectedSize = size;
+        pendingEntries.add(entry);
+        return entry;
+    }
+
+    private void addBlock(PendingEntry entry, @Nullable byte[] dict, BlockInput input, long length, boolean last)
+            throws IOException {
+
+        // Limit the number of blocks in memory
+        while (pendingBlocks >= maxPendingBlocks) {
+            writeNext();
+        }
+
+        BlockFuture task = new BlockFuture(new BlockTask(entry.compression, compressionLevel, dict, input, length,
+                last));
+        entry.blocks.add(task);
+        pendingBlocks++;
+        executor.execute(task);
+    }
+
+    /** Writes as much as possible without waiting for pending blocks */
+    private void writeCompleted() throws IOException {
+        PendingEntry entry;
+        while ((entry = pendingEntries.peekFirst()) != null) {
+            if (!entry.blocks.isEmpty() && !entry.blocks.peekFirst().isDone()) {
+                break;
+            }
+            if (!writeNext()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the next block of the oldest pending entry, waiting for the block to be compressed if necessary.
+     *
+     * @return {@code false} if no progress could be made, because the oldest pending entry is still being added.
+     */
+    private boolean writeNext() throws IOException {
+        if (failed) {
+            throw new IOException("Unable to continue after a previous error");
+        }
+
+        boolean success = false;
+        try {
+            boolean result = writeNextImpl();
+            success = true;
+            return result;
+        } finally {
+            if (!success) {
+                failed = true;
+            }
+        }
+    }
+
+    private boolean writeNextImpl() throws IOException {
+        PendingEntry entry = pendingEntries.peekFirst();
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.compression == null) {
+            zipWriter.writeFolder(entry.relpath);
+            pendingEntries.removeFirst();
+            return true;
+        }
+
+        BlockFuture next = entry.blocks.pollFirst();
+        if (next != null) {
+            Block block = getResult(next);
+            pendingBlocks--;
+            try {
+                if (entry.rawOut == null) {
+                    ZipEntry zipEntry = entry.newZipEntry();
+                    if (!entry.splitBlocks) {
+                        // Single-block entry, CRC and sizes are known before the entry header is written
+                        zipEntry.setCrc(block.crc);
+                        zipEntry.setSize(block.inputLength);
+                        zipEntry.setCompressedSize(block.data.size());
+                    } else {
+                        // Split entry, the CRC and sizes are stored in a data descriptor after the entry data
+                        zipEntry.setSize(entry.expectedSize);
+                    }
+                    entry.rawOut = zipWriter.beginRawEntry(zipEntry);
+                }
+                writeBlock(entry, block);
+            } finally {
+                block.data.close();
+            }
+        } else if (!entry.allBlocksAdded) {
+            return false;
+        }
+
+        if (entry.allBlocksAdded && entry.blocks.isEmpty()) {
+            pendingEntries.removeFirst();
+            entry.dispose();
+            zipWriter.endRawEntry(entry.crc, entry.size);
+        }
+        return true;
+    }
+
+    private static void writeBlock(PendingEntry entry, Block block) throws IOException {
+        block.data.writeTo(entry.rawOut);
+        entry.crc = crc32Combine(entry.crc, block.crc, block.inputLength);
+        entry.size += block.inputLength;
+    }
+
+    private static Block getResult(BlockFuture task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression to finish");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException("Error compressing ZIP entry", cause);
+        }
+    }
+
+    private static @Nullable Method findDeflateWithFlush() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Combines two CRC-32 values. Given {@code crc1} of a sequence A and {@code crc2} of a sequence B with length
+     * {@code len2}, returns the CRC-32 of the concatenation of A and B. Port of zlib's {@code crc32_combine}.
+     */
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32]; // Even-power-of-two zeros operator
+        long[] odd = new long[32]; // Odd-power-of-two zeros operator
+
+        // Put operator for one zero bit in odd
+        odd[0] = 0xEDB88320L; // CRC-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        gf2MatrixSquare(even, odd); // Operator for two zero bits
+        gf2MatrixSquare(odd, even); // Operator for four zero bits
+
+        // Apply len2 zeros to crc1 (first square puts the operator for one zero byte, eight zero bits, in even)
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        for (int n = 0; vec != 0; n++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[n];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
+    private static final class PendingEntry {
+
+        final String relpath;
+        final @Nullable Compression compression;
+        final long time;
+
+        final Deque<BlockFuture> blocks = new ArrayDeque<BlockFuture>();
+        final List<Closeable> resources = new ArrayList<Closeable>();
+
+        boolean splitBlocks;
+        long expectedSize;
+        boolean allBlocksAdded;
+
+        /** Output stream for the entry's raw contents, or {@code null} if the entry header wasn't written yet */
+        @Nullable OutputStream rawOut;
+        long crc;
+        long size;
+
+        /**
+         * @param compression The compression method, or {@code null} for folder entries.
+         * @param time Modification time of the entry, or {@code -1} to use the current time.
+         */
+        PendingEntry(String relpath, @Nullable Compression compression, long time) {
+            this.relpath = Checks.checkNotNull(relpath);
+            this.compression = compression;
+            this.time = time;
+        }
+
+        ZipEntry newZipEntry() {
+            ZipEntry entry = new ZipEntry(relpath);
+            entry.setMethod(compression == Compression.DEFLATE ? ZipEntry.DEFLATED : ZipEntry.STORED);
+            if (time >= 0) {
+                entry.setTime(time);
+            }
+            return entry;
+        }
+
+        /**
+         * Releases the entry's resources. Cancels the compression of blocks that weren't written yet, and releases
+         * the compressed data of blocks that were.
+         */
+        void dispose() {
+            for (BlockFuture block : blocks) {
+                block.dispose();
+            }
+            blocks.clear();
+
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException ioe) {
+                    // Only temporary storage, ignore
+                }
+            }
+            resources.clear();
+        }
+
+    }
+
+    private interface BlockInput {
+
+        /** Opens a stream for reading the block's input data */
+        InputStream open() throws IOException;
+
+    }
+
+    private static final class FileInput implements BlockInput {
+
+        private final File file;
+        private final long offset;
+
+        public FileInput(File file, long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            in.getChannel().position(offset);
+            return in;
+        }
+
+    }
+
+    private static final class ByteArrayInput implements BlockInput {
+
+        private final byte[] bytes;
+        private final int offset;
+
+        public ByteArrayInput(byte[] bytes, int offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(bytes, offset, bytes.length - offset);
+        }
+
+    }
+
+    /** Result of compressing a single block */
+    private static final class Block {
+
+        final long crc;
+        final long inputLength;
+        final SpillableOutputStream data;
+
+        Block(long crc, long inputLength, SpillableOutputStream data) {
+            this.crc = crc;
+            this.inputLength = inputLength;
+            this.data = data;
+        }
+
+    }
+
+    /** Compresses a single block. Releases the block's compressed data if it's no longer needed. */
+    private static final class BlockFuture extends FutureTask<Block> {
+
+        /** The compressed block, or {@code null} if the block hasn't been compressed (successfully) yet */
+        private volatile @Nullable Block result;
+
+        public BlockFuture(BlockTask task) {
+            super(task);
+        }
+
+        @Override
+        protected void set(Block block) {
+            // Store the result before completing, so it's always visible to dispose() after completion
+            result = block;
+            super.set(block);
+
+            if (isCancelled()) {
+                // Cancelled while compressing, the result will never be written
+                closeData(block);
+            }
+        }
+
+        /**
+         * Prevents the block from being compressed if that hasn't started yet. If the block was already compressed,
+         * releases its compressed data.
+         */
+        void dispose() {
+            if (!cancel(false)) {
+                Block block = result;
+                if (block != null) {
+                    closeData(block);
+                }
+            }
+        }
+
+        private static void closeData(Block block) {
+            try {
+                block.data.close();
+            } catch (IOException ioe) {
+                // Only temporary storage, ignore
+            }
+        }
+
+    }
+
+    private static final class BlockTask implements Callable<Block> {
+
+        private final Compression compression;
+        private final int level;
+        private final @Nullable byte[] dictionary;
+        private final BlockInput input;
+        private final long length;
+        private final boolean last;
+
+        public BlockTask(Compression compression, int level, @Nullable byte[] dictionary, BlockInput input,
+                long length, boolean last) {
+
+            this.compression = compression;
+            this.level = level;
+            this.dictionary = dictionary;
+            this.input = input;
+            this.length = length;
+            this.last = last;
+        }
+
+        @Override
+        public Block call() throws IOException {
+            SpillableOutputStream data = new SpillableOutputStream();
+            boolean success = false;
+            try {
+                CRC32 crc = new CRC32();
+                InputStream in = input.open();
+                try {
+                    if (compression == Compression.DEFLATE) {
+                        deflate(in, crc, data);
+                    } else {
+                        store(in, crc, data);
+                    }
+                } finally {
+                    in.close();
+                }
+                success = true;
+                return new Block(crc.getValue(), length, data);
+            } finally {
+                if (!success) {
+                    data.close();
+                }
+            }
+        }
+
+        private void store(InputStream in, CRC32 crc, OutputStream out) throws IOException {
+            byte[] buf = new byte[(int)Math.max(1, Math.min(IO_BUFFER_SIZE, length))];
+            long remaining = length;
+            while (remaining > 0) {
+                int r = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+                if (r < 0) {
+                    throw new EOFException("Unexpected end of file");
+                }
+                crc.update(buf, 0, r);
+                out.write(buf, 0, r);
+                remaining -= r;
+            }
+        }
+
+        private void deflate(InputStream in, CRC32 crc, OutputStream out) throws IOException {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+
+                byte[] inBuf = new byte[IO_BUFFER_SIZE];
+                byte[] outBuf = new byte[IO_BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int r = in.read(inBuf, 0, (int)Math.min(inBuf.length, remaining));
+                    if (r < 0) {
+                        throw new EOFException("Unexpected end of file");
+                    }
+                    crc.update(inBuf, 0, r);
+                    remaining -= r;
+
+                    deflater.setInput(inBuf, 0, r);
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(outBuf);
+                        out.write(outBuf, 0, n);
+                    }
+                }
+
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(outBuf);
+                        out.write(outBuf, 0, n);
+                    }
+                } else {
+                    // Flush to a byte boundary without ending the stream, so the next block can be appended
+                    int n;
+                    do {
+                        n = deflateWithSyncFlush(deflater, outBuf);
+                        out.write(outBuf, 0, n);
+                    } while (n == outBuf.length);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static int deflateWithSyncFlush(Deflater deflater, byte[] outBuf) throws IOException {
+            try {
+                return (Integer)DEFLATE_WITH_FLUSH.invoke(deflater, outBuf, 0, outBuf.length, SYNC_FLUSH);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Unable to flush deflater", e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Unable to flush deflater", e.getCause());
+            }
+        }
+
+    }
+
+}
@@ -5,12 +5,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+/**
+ * Random access file backed by a byte buffer. Input streams returned by {@link #getInputStream(long, long)} read
+ * from their own view of the buffer, so they can be used concurrently without locking.
+ */
 final class RandomAccessBufferWrapper implements IRandomAccessFile {
 
     private final ByteBuffer buf;
 
     RandomAccessBufferWrapper(byte[] bytes, int off, int len) {
-        buf = ByteBuffer.wrap(bytes, off, len);
+        this(ByteBuffer.wrap(bytes, off, len));
+    }
+
+    RandomAccessBufferWrapper(ByteBuffer buf) {
+        this.buf = buf;
     }
 
     @Override
@@ -41,6 +49,33 @@ final class RandomAccessBufferWrapper implements IRandomAccessFile {
         return r;
     }
 
+    @Override
+    public int read(long position, byte[] b, int off, int len) {
+        ByteBuffer view = buf.duplicate();
+        if (position < 0 || position >= view.limit()) {
+            return -1;
+        }
+        view.position((int)position);
+
+        int r = Math.min(view.remaining(), len);
+        view.get(b, off, r);
+        return r;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) {
+        ByteBuffer view = buf.duplicate();
+        if (position < 0 || position >= view.limit()) {
+            return -1;
+        }
+        view.position((int)position);
+
+        int r = Math.min(view.remaining(), dst.remaining());
+        view.limit(view.position() + r);
+        dst.put(view);
+        return r;
+    }
+
     @Override
     public synchronized void write(int b) throws IOException {
         if (!buf.hasRemaining()) {
@@ -78,13 +113,19 @@ final class RandomAccessBufferWrapper implements IRandomAccessFile {
     }
 
     @Override
-    public synchronized InputStream getInputStream() {
+    public synchronized InputStream getInputStream() throws IOException {
         return getInputStream(0, length());
     }
 
     @Override
-    public synchronized InputStream getInputStream(long offset, long length) {
-        return new RandomAccessInputStream(this, offset, length);
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        ByteBuffer view = buf.duplicate();
+        if (offset < 0 || length < 0 || offset + length > view.limit()) {
+            throw new IOException("Invalid segment: offset=" + offset + ", length=" + length);
+        }
+        view.limit((int)(offset + length));
+        view.position((int)offset);
+        return new ByteBufferInputStream(view);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package nl.weeaboo.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only random access file backed by a {@link FileChannel}. Positional reads don't share any locks, so multiple
+ * threads can read from the file at the same time.
+ * <p>
+ * Interrupting a thread while it's reading from a channel closes the channel. When that happens, the interrupted read
+ * fails and the file is reopened, so the file remains usable for other threads.
+ */
+final class RandomAccessChannelWrapper implements IRandomAccessFile {
+
+    private final File path;
+
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+
+    /** Current file position, used by relative reads */
+    private long pointer;
+
+    RandomAccessChannelWrapper(File path) throws IOException {
+        this.path = path;
+        this.channel = openChannel(path);
+    }
+
+    private static FileChannel openChannel(File path) throws IOException {
+        return new RandomAccessFile(path, "r").getChannel();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /** Reopens the channel if it was closed by an interrupted read, unless this file itself was closed */
+    private synchronized void reopen(FileChannel closedChannel) throws IOException {
+        if (closed) {
+            throw new IOException("File is closed");
+        }
+        if (channel == closedChannel) {
+            channel = openChannel(path);
+        }
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, length() - pointer));
+        pointer += skipped;
+        return skipped;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        byte[] b = new byte[1];
+        int r = read(pointer, b, 0, 1);
+        if (r <= 0) {
+            return -1;
+        }
+        pointer++;
+        return b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        int r = read(pointer, b, off, len);
+        if (r > 0) {
+            pointer += r;
+        }
+        return r;
+    }
+
+    @Override
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        return read(position, ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buf) throws IOException {
+        while (true) {
+            FileChannel c = channel;
+            try {
+                return c.read(buf, position);
+            } catch (ClosedByInterruptException e) {
+                reopen(c);
+                throw new InterruptedIOException("Interrupted while reading from " + path);
+            } catch (ClosedChannelException e) {
+                // Closed by an interrupted read on another thread, try again
+                reopen(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throw new IOException("File is read-only");
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        throw new IOException("File is read-only");
+    }
+
+    @Override
+    public synchronized long pos() {
+        return pointer;
+    }
+
+    @Override
+    public synchronized void seek(long pos) {
+        pointer = pos;
+    }
+
+    @Override
+    public long length() throws IOException {
+        while (true) {
+            FileChannel c = channel;
+            try {
+                return c.size();
+            } catch (ClosedChannelException e) {
+                reopen(c);
+            }
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return getInputStream(0, length());
+    }
+
+    @Override
+    public InputStream getInputStream(long offset, long length) {
+        return new RandomAccessInputStream(this, offset, length);
+    }
+
+}
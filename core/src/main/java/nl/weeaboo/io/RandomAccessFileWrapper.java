@@ -1,17 +1,45 @@
 package nl.weeaboo.io;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-
+import java.nio.ByteBuffer;
+
+/**
+ * Random access file backed by a {@link RandomAccessFile}.
+ * <p>
+ * Positional reads move the file pointer while holding a lock. The file pointer is only restored (lazily) when it's
+ * needed by another operation, so a sequence of positional reads doesn't require any additional system calls. The
+ * file's channel isn't used, because interrupting a thread while it's reading from a channel closes the channel (and
+ * with it the file) for all users. For concurrent positional reads, see {@link RandomAccessUtil#open(File)}.
+ */
 final class RandomAccessFileWrapper implements IRandomAccessFile {
 
     private final RandomAccessFile file;
 
+    /**
+     * The file pointer expected by relative operations, if the actual file pointer was moved by a positional read.
+     * Otherwise {@code -1}.
+     */
+    private long savedPointer = -1;
+    /** The actual file pointer after the last positional read, or {@code -1} if unknown */
+    private long readPointer = -1;
+    /** Temporary buffer for positional reads into buffers that aren't backed by an array */
+    private byte[] tempBuffer = new byte[0];
+
     RandomAccessFileWrapper(RandomAccessFile file) {
         this.file = file;
     }
 
+    /** Moves the file pointer back to where relative operations expect it */
+    private void restorePointer() throws IOException {
+        if (savedPointer >= 0) {
+            file.seek(savedPointer);
+            savedPointer = -1;
+        }
+    }
+
     @Override
     public synchronized void close() throws IOException {
         file.close();
@@ -19,36 +47,88 @@ final class RandomAccessFileWrapper implements IRandomAccessFile {
 
     @Override
     public synchronized long skip(long n) throws IOException {
+        restorePointer();
         return file.skipBytes((int)Math.min(Integer.MAX_VALUE, n));
     }
 
     @Override
     public synchronized int read() throws IOException {
+        restorePointer();
         return file.read();
     }
 
     @Override
     public synchronized int read(byte[] b, int off, int len) throws IOException {
+        restorePointer();
         return file.read(b, off, len);
     }
 
+    @Override
+    public synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (savedPointer < 0) {
+            savedPointer = file.getFilePointer();
+            readPointer = savedPointer;
+        }
+        if (readPointer != position) {
+            readPointer = -1;
+            file.seek(position);
+            readPointer = position;
+        }
+
+        // Reading may fail halfway, in which case the file pointer is unknown
+        readPointer = -1;
+        int read = file.read(b, off, len);
+        readPointer = position + Math.max(0, read);
+        return read;
+    }
+
+    @Override
+    public synchronized int read(long position, ByteBuffer buf) throws IOException {
+        if (buf.hasArray()) {
+            int read = read(position, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (read > 0) {
+                buf.position(buf.position() + read);
+            }
+            return read;
+        }
+
+        if (tempBuffer.length < buf.remaining()) {
+            tempBuffer = new byte[buf.remaining()];
+        }
+        int read = read(position, tempBuffer, 0, buf.remaining());
+        if (read > 0) {
+            buf.put(tempBuffer, 0, read);
+        }
+        return read;
+    }
+
     @Override
     public synchronized void write(int b) throws IOException {
+        restorePointer();
         file.write(b);
     }
 
     @Override
     public synchronized void write(byte[] b, int off, int len) throws IOException {
+        restorePointer();
         file.write(b, off, len);
     }
 
     @Override
     public synchronized long pos() throws IOException {
+        if (savedPointer >= 0) {
+            return savedPointer;
+        }
         return file.getFilePointer();
     }
 
     @Override
     public synchronized void seek(long pos) throws IOException {
+        savedPointer = -1;
         file.seek(pos);
     }
 
@@ -63,7 +143,7 @@ final class RandomAccessFileWrapper implements IRandomAccessFile {
     }
 
     @Override
-    public synchronized InputStream getInputStream(long offset, long length) {
+    public InputStream getInputStream(long offset, long length) {
         return new RandomAccessInputStream(this, offset, length);
     }
 
@@ -3,11 +3,16 @@ package nl.weeaboo.io;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Input stream for a segment of a random access file. Uses positional reads, so multiple streams can read from the
+ * same file concurrently and don't affect the file's current position.
+ */
 final class RandomAccessInputStream extends InputStream {
 
     private final IRandomAccessFile file;
     private final long offset;
     private final long length;
+    private final byte[] singleByte = new byte[1];
 
     private long read;
     private long mark;
@@ -36,15 +41,12 @@ final class RandomAccessInputStream extends InputStream {
             return -1;
         }
 
-        int b = -1;
-        synchronized (file) {
-            if (file.pos() != offset + read) {
-                file.seek(offset + read);
-            }
-            b = file.read();
+        int r = file.read(offset + read, singleByte, 0, 1);
+        if (r <= 0) {
+            return -1;
         }
         read++;
-        return b;
+        return singleByte[0] & 0xFF;
     }
 
     @Override
@@ -55,14 +57,7 @@ final class RandomAccessInputStream extends InputStream {
 
         len = (int)Math.min(len, length - read);
 
-        int r = -1;
-        synchronized (file) {
-            if (file.pos() != offset + read) {
-                file.seek(offset + read);
-            }
-            r = file.read(out, off, len);
-        }
-
+        int r = file.read(offset + read, out, off, len);
         if (r > 0) {
             read += r;
         }
@@ -84,4 +79,4 @@ final class RandomAccessInputStream extends InputStream {
         read = mark;
     }
 
-}
\ No newline at end of file
+}
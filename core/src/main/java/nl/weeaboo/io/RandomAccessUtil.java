@@ -1,6 +1,11 @@
 package nl.weeaboo.io;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 /**
  * Functions for creating/using seekable (random-access) streams.
@@ -14,6 +19,19 @@ public final class RandomAccessUtil {
         return new RandomAccessFileWrapper(file);
     }
 
+    /**
+     * Opens a file for reading. Positional reads (and input streams obtained through
+     * {@link IRandomAccessFile#getInputStream(long, long)}) don't share any locks, so multiple threads can read from
+     * the file at the same time. Interrupting a reading thread doesn't make the file unusable for other threads.
+     * <p>
+     * The returned file is read-only.
+     *
+     * @throws IOException If the file can't be opened.
+     */
+    public static IRandomAccessFile open(File file) throws IOException {
+        return new RandomAccessChannelWrapper(file);
+    }
+
     /**
      * Constructs a new random access file.
      */
@@ -21,4 +39,31 @@ public final class RandomAccessUtil {
         return new RandomAccessBufferWrapper(bytes, off, len);
     }
 
+    /**
+     * Memory-maps a file for reading. Input streams obtained through {@link IRandomAccessFile#getInputStream(long,
+     * long)} read directly from the mapped memory and don't share any locks, so multiple threads can read from the
+     * file at the same time.
+     * <p>
+     * The returned file is read-only. The memory mapping stays valid until the returned object is garbage collected;
+     * calling {@link IRandomAccessFile#close()} doesn't release it.
+     *
+     * @throws IOException If the file can't be opened, or is too large to be mapped (larger than 2GB).
+     */
+    public static IRandomAccessFile map(File file) throws IOException {
+        RandomAccessFile rfile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = rfile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file + " (" + size + " bytes)");
+            }
+
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, size);
+            return new RandomAccessBufferWrapper(buf);
+        } finally {
+            rfile.close();
+        }
+    }
+
 }
@@ -0,0 +1,323 @@
+package nl.weeaboo.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
+
+/**
+ * Variant of {@link FileCachedOutputStream} that stores its contents in a list of memory chunks, and spills to a
+ * temporary file if the output becomes too large.
+ * <p>
+ * Unlike {@link FileCachedOutputStream}, memory is allocated in chunks of increasing size as the output grows, so
+ * small outputs only use a small amount of memory. The chunks can optionally be allocated as direct byte buffers,
+ * outside of the Java heap. When spilling to a file, the chunks are written directly to the file's channel without
+ * intermediate copies.
+ * <p>
+ * The written contents can be read back any number of times, using {@link #openInputStream()},
+ * {@link #writeTo(OutputStream)} or {@link #transferTo(WritableByteChannel)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class SpillableOutputStream extends OutputStream {
+
+    private static final int DEFAULT_THRESHOLD = 1 << 20; // 1MiB
+    private static final int MIN_CHUNK_SIZE = 1 << 10; // 1KiB
+    private static final int MAX_CHUNK_SIZE = 1 << 16; // 64KiB
+
+    private final int fileThreshold;
+    private final boolean direct;
+
+    /** Memory chunks, in write mode (position is the number of bytes written to the chunk) */
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private long size;
+
+    private @Nullable File tempFile;
+    private @Nullable RandomAccessFile fileOutput;
+    /**
+     * Number of bytes written to the temp file. Writes are positional, because the file pointer is shared with the
+     * input streams reading from the file.
+     */
+    private long fileLength;
+    /** Shared by all input streams reading from the temp file, so their positional reads use the same lock */
+    private @Nullable IRandomAccessFile fileInput;
+    /** Small buffer for writes to the temp file, so single-byte writes don't each require a system call */
+    private @Nullable ByteBuffer fileWriteBuffer;
+
+    private boolean closed;
+
+    /**
+     * Uses the default threshold for switching between in-memory and file-based mode.
+     *
+     * @see #SpillableOutputStream(int, boolean)
+     */
+    public SpillableOutputStream() {
+        this(DEFAULT_THRESHOLD, false);
+    }
+
+    /**
+     * @param fileThreshold The threshold at which the output stream switches from in-memory storage to a temporary
+     *        file.
+     * @param direct If {@code true}, uses direct byte buffers (allocated outside of the Java heap) for in-memory
+     *        storage.
+     */
+    public SpillableOutputStream(int fileThreshold, boolean direct) {
+        this.fileThreshold = Checks.checkRange(fileThreshold, "fileThreshold", 0);
+        this.direct = direct;
+    }
+
+    /**
+     * Closes the stream and releases its in-memory storage and temporary file. After closing, the contents can no
+     * longer be read.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        chunks.clear();
+        fileWriteBuffer = null;
+        try {
+            if (fileOutput != null) {
+                fileOutput.close();
+            }
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to this stream.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if the contents of this stream are stored in a temporary file.
+     */
+    public boolean isSpilled() {
+        return fileOutput != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+
+        if (fileOutput == null && size + 1 >= fileThreshold) {
+            spillToFile();
+        }
+
+        if (fileOutput != null) {
+            if (!fileWriteBuffer.hasRemaining()) {
+                flushFileWriteBuffer();
+            }
+            fileWriteBuffer.put((byte)b);
+        } else {
+            writableChunk().put((byte)b);
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", b.length=" + b.length);
+        }
+
+        if (fileOutput == null && size + len >= fileThreshold) {
+            spillToFile();
+        }
+
+        if (fileOutput != null) {
+            writeToFile(ByteBuffer.wrap(b, off, len));
+        } else {
+            int written = 0;
+            while (written < len) {
+                ByteBuffer chunk = writableChunk();
+                int n = Math.min(len - written, chunk.remaining());
+                chunk.put(b, off + written, n);
+                written += n;
+            }
+        }
+        size += len;
+    }
+
+    /** Returns the last chunk, or allocates a new chunk if the last chunk is full */
+    private ByteBuffer writableChunk() {
+        if (!chunks.isEmpty()) {
+            ByteBuffer last = chunks.get(chunks.size() - 1);
+            if (last.hasRemaining()) {
+                return last;
+            }
+        }
+
+        // Chunks double in size as the output grows
+        int chunkSize = (int)Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+        chunkSize = (int)Math.max(1, Math.min(chunkSize, fileThreshold - size));
+        ByteBuffer chunk = (direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize));
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    private void spillToFile() throws IOException {
+        tempFile = File.createTempFile("spillableoutputstream", ".bin");
+        tempFile.deleteOnExit();
+        fileOutput = new RandomAccessFile(tempFile, "rw");
+        fileWriteBuffer = ByteBuffer.allocate(MIN_CHUNK_SIZE * 8);
+
+        // Write the memory chunks directly to the file
+        ByteBuffer[] buffers = readableChunks();
+        for (ByteBuffer buf : buffers) {
+            writeFully(buf);
+        }
+        chunks.clear();
+    }
+
+    private void writeToFile(ByteBuffer buf) throws IOException {
+        ByteBuffer writeBuffer = fileWriteBuffer;
+        if (buf.remaining() <= writeBuffer.remaining()) {
+            writeBuffer.put(buf);
+            return;
+        }
+
+        // Large write, bypass the write buffer
+        flushFileWriteBuffer();
+        writeFully(buf);
+    }
+
+    /** Appends the remaining bytes of the buffer to the temp file */
+    private void writeFully(ByteBuffer buf) throws IOException {
+        FileChannel channel = fileOutput.getChannel();
+        while (buf.hasRemaining()) {
+            fileLength += channel.write(buf, fileLength);
+        }
+    }
+
+    private void flushFileWriteBuffer() throws IOException {
+        ByteBuffer writeBuffer = fileWriteBuffer;
+        if (writeBuffer == null || writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    /** Returns read-only views of the memory chunks, ready for reading */
+    private ByteBuffer[] readableChunks() {
+        ByteBuffer[] result = new ByteBuffer[chunks.size()];
+        for (int n = 0; n < result.length; n++) {
+            ByteBuffer view = chunks.get(n).asReadOnlyBuffer();
+            view.flip();
+            result[n] = view;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the contents of this stream to the supplied channel. If the contents are stored in a file, the bytes
+     * may be transferred directly by the operating system without copying them into Java memory.
+     *
+     * @throws IOException If an I/O exception occurs while writing the required data to the channel.
+     */
+    public void transferTo(WritableByteChannel out) throws IOException {
+        checkOpen();
+
+        if (fileOutput != null) {
+            flushFileWriteBuffer();
+
+            FileChannel channel = fileOutput.getChannel();
+            long pos = 0;
+            while (pos < size) {
+                long transferred = channel.transferTo(pos, size - pos, out);
+                if (transferred <= 0) {
+                    throw new IOException("Unable to transfer file contents, transferred=" + pos + ", size=" + size);
+                }
+                pos += transferred;
+            }
+        } else {
+            for (ByteBuffer buf : readableChunks()) {
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of this stream to the supplied output stream.
+     *
+     * @throws IOException If an I/O exception occurs while writing the required data to the output stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        checkOpen();
+
+        if (out.getClass() == FileOutputStream.class) {
+            transferTo(((FileOutputStream)out).getChannel());
+        } else if (fileOutput != null || direct) {
+            InputStream in = openInputStream();
+            try {
+                StreamUtil.writeBytes(in, out);
+            } finally {
+                in.close();
+            }
+        } else {
+            for (ByteBuffer chunk : chunks) {
+                out.write(chunk.array(), chunk.arrayOffset(), chunk.position());
+            }
+        }
+    }
+
+    /**
+     * Opens an input stream for reading the bytes written to this stream so far. Bytes written after the input
+     * stream is opened may or may not be visible through the input stream. Multiple input streams may be opened.
+     *
+     * @throws IOException If the input stream can't be opened.
+     */
+    public InputStream openInputStream() throws IOException {
+        checkOpen();
+
+        if (fileOutput != null) {
+            flushFileWriteBuffer();
+
+            // Not closed by the returned stream, the file is closed when this output stream is closed
+            if (fileInput == null) {
+                fileInput = RandomAccessUtil.wrap(fileOutput);
+            }
+            return fileInput.getInputStream(0, size);
+        }
+
+        List<InputStream> streams = new ArrayList<InputStream>();
+        for (ByteBuffer buf : readableChunks()) {
+            streams.add(StreamUtil.asInputStream(buf));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+}
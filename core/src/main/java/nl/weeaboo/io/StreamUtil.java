@@ -1,10 +1,13 @@
 package nl.weeaboo.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * Functions for working with input/output streams.
@@ -12,6 +15,10 @@ import java.io.OutputStream;
 public final class StreamUtil {
 
     private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MIN_BUFFER_SIZE = 512;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+    /** Some VMs can't allocate arrays of exactly {@code Integer.MAX_VALUE} elements */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
 
     private StreamUtil() {
     }
@@ -57,9 +64,71 @@ public final class StreamUtil {
      * @throws IOException If an I/O exception occurs while reading bytes from the input stream.
      */
     public static byte[] readBytes(InputStream in) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(READ_BUFFER_SIZE);
-        writeBytes(in, bout);
-        return bout.toByteArray();
+        // The number of available bytes is only an estimate, so it's only used to choose the initial buffer size
+        return readRemaining(in, new byte[getBufferSize(in.available())], 0);
+    }
+
+    /**
+     * Reads an entire file and returns its contents as a byte array. If the length of the file is known in advance,
+     * the contents are read directly into a byte array of the correct size.
+     *
+     * @param expectedLength The expected length of the file, or {@code 0} if unknown. If the actual length differs
+     *        from the expected length, the returned array has the actual length.
+     * @throws IOException If an I/O exception occurs while reading bytes from the input stream.
+     */
+    public static byte[] readBytes(InputStream in, int expectedLength) throws IOException {
+        if (expectedLength <= 0) {
+            return readRemaining(in, new byte[READ_BUFFER_SIZE], 0);
+        }
+
+        byte[] result = new byte[expectedLength];
+        int read = 0;
+        while (read < expectedLength) {
+            int r = in.read(result, read, expectedLength - read);
+            if (r < 0) {
+                return Arrays.copyOf(result, read); // File is shorter than expected
+            }
+            read += r;
+        }
+
+        int next = in.read();
+        if (next < 0) {
+            return result;
+        }
+
+        // File is longer than expected
+        result = Arrays.copyOf(result, grow(expectedLength));
+        result[expectedLength] = (byte)next;
+        return readRemaining(in, result, expectedLength + 1);
+    }
+
+    /**
+     * Reads the remainder of the stream into the buffer, starting at offset {@code length}. The buffer is enlarged
+     * as needed.
+     *
+     * @return A byte array containing the first {@code length} bytes of the buffer, followed by the bytes read from
+     *         the stream.
+     */
+    private static byte[] readRemaining(InputStream in, byte[] buf, int length) throws IOException {
+        while (true) {
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, grow(length));
+            }
+
+            int r = in.read(buf, length, buf.length - length);
+            if (r < 0) {
+                break;
+            }
+            length += r;
+        }
+        return (length == buf.length ? buf : Arrays.copyOf(buf, length));
+    }
+
+    private static int grow(int length) {
+        if (length >= MAX_ARRAY_LENGTH) {
+            throw new OutOfMemoryError("Stream too large to fit in a byte array");
+        }
+        return (int)Math.min(MAX_ARRAY_LENGTH, Math.max(READ_BUFFER_SIZE, 2L * length));
     }
 
     /**
@@ -100,13 +169,25 @@ public final class StreamUtil {
         }
     }
 
+    /**
+     * Returns an input stream reading the bytes between the buffer's position and limit. The stream reads from a
+     * private view of the buffer, so reading from the stream doesn't change the buffer's position.
+     */
+    public static InputStream asInputStream(ByteBuffer buf) {
+        return new ByteBufferInputStream(buf.duplicate());
+    }
+
     /**
      * Fully reads the input stream and writes its contents to the output stream.
+     * <p>
+     * File streams are copied using regular reads and writes, not using their file channels. Interrupting a thread
+     * that's blocked in a file channel operation closes the channel, which would close the caller's streams.
      *
      * @throws IOException If an I/O error occurs while reading the input, or writing the output.
+     * @see FileUtil#copyFile(java.io.File, java.io.File)
      */
     public static void writeBytes(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[READ_BUFFER_SIZE];
+        byte[] buf = new byte[getBufferSize(in.available())];
 
         int r;
         while ((r = in.read(buf)) > 0) {
@@ -114,4 +195,54 @@ public final class StreamUtil {
         }
     }
 
+    /**
+     * Returns {@code false} if the file channel doesn't support seeking, for example because it reads from a pipe.
+     */
+    static boolean isSeekable(FileChannel channel) {
+        try {
+            channel.position();
+            channel.size();
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Transfers the contents of a file channel (starting from its current position) to the output channel. Depending
+     * on the operating system, the bytes may be transferred directly without copying them into Java memory.
+     * <p>
+     * The input channel must support seeking, so it can't read from a pipe.
+     *
+     * @return The number of bytes transferred.
+     * @throws IOException If an I/O error occurs while reading the input, or writing the output.
+     */
+    public static long transferFully(FileChannel in, WritableByteChannel out) throws IOException {
+        final long start = in.position();
+        final long size = in.size();
+
+        long pos = start;
+        while (pos < size) {
+            long transferred = in.transferTo(pos, size - pos, out);
+            if (transferred <= 0) {
+                break;
+            }
+            pos += transferred;
+        }
+
+        // FileChannel.transferTo() doesn't change the channel's position
+        in.position(pos);
+        return pos - start;
+    }
+
+    /**
+     * Returns a suitable buffer size for copying a stream, based on the expected number of bytes.
+     */
+    static int getBufferSize(long expectedLength) {
+        if (expectedLength <= 0) {
+            return READ_BUFFER_SIZE;
+        }
+        return (int)Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, expectedLength));
+    }
+
 }
@@ -19,11 +19,20 @@ final class ZipEntryWriter implements Closeable {
     private final InputStream in;
     private final long size;
     private final Compression compression;
+    /** CRC of the contents if known in advance, or {@code -1} if unknown */
+    private final long crc;
 
     // Temporary storage of InputStream contents (may be null, depending on settings)
-    private FileCachedOutputStream contentStorage;
+    private SpillableOutputStream contentStorage;
 
     public ZipEntryWriter(String relpath, InputStream in, long size, Compression compression) {
+        this(relpath, in, size, compression, -1);
+    }
+
+    /**
+     * @param crc The CRC-32 of the contents, or {@code -1} if unknown. Only used for uncompressed entries.
+     */
+    public ZipEntryWriter(String relpath, InputStream in, long size, Compression compression, long crc) {
         this.relpath = Checks.checkNotNull(relpath);
         this.in = Checks.checkNotNull(in);
 
@@ -31,6 +40,7 @@ final class ZipEntryWriter implements Closeable {
         this.size = size;
 
         this.compression = Checks.checkNotNull(compression);
+        this.crc = crc;
     }
 
     @Override
@@ -49,7 +59,7 @@ final class ZipEntryWriter implements Closeable {
             entry.setMethod(ZipEntry.STORED);
             entry.setSize(size);
             // Must write CRC before record if compression == STORED
-            entry.setCrc(calculateCRC());
+            entry.setCrc(crc >= 0 ? crc : calculateCRC());
         }
         zout.putNextEntry(entry);
         writeContentsTo(zout);
@@ -57,7 +67,7 @@ final class ZipEntryWriter implements Closeable {
     }
 
     public long calculateCRC() throws IOException {
-        contentStorage = new FileCachedOutputStream();
+        contentStorage = new SpillableOutputStream();
 
         CRC32 crc = new CRC32();
         long read = 0;
@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -47,6 +48,15 @@ public final class ZipUtil {
     public static void add(ZipOutputStream zout, String relpath, File file, Compression c) throws IOException {
         if (file.isDirectory()) {
             writeFolderEntry(zout, relpath);
+        } else if (c == Compression.NONE) {
+            // Reading the file twice is cheaper than copying it to temporary storage to calculate the CRC
+            long crc = FileUtil.calculateCrc(file);
+            FileInputStream fin = new FileInputStream(file);
+            try {
+                writeStoredEntry(zout, relpath, fin, file.length(), crc);
+            } finally {
+                fin.close();
+            }
         } else {
             FileInputStream fin = new FileInputStream(file);
             try {
@@ -89,4 +99,49 @@ public final class ZipUtil {
         }
     }
 
+    /**
+     * Writes a new file entry to the ZIP file, using already compressed data. This allows entries to be copied between
+     * archives without decompressing and recompressing them.
+     *
+     * @param c The compression method of the compressed data.
+     * @param crc The CRC-32 of the uncompressed data.
+     * @param size The size of the uncompressed data.
+     * @param modifiedTime The last modified time of the entry, or {@code -1} to use the current time.
+     * @param compressedData Input stream from which exactly {@code compressedSize} bytes are read.
+     * @throws IOException If an I/O error occurs while writing the entry.
+     * @see ZipWriter#writeRawEntry(ZipEntry, InputStream)
+     */
+    public static void writeRawEntry(ZipWriter zipWriter, String relpath, Compression c, long crc, long size,
+            long modifiedTime, InputStream compressedData, long compressedSize) throws IOException {
+
+        ZipEntry entry = new ZipEntry(relpath);
+        entry.setMethod(c == Compression.DEFLATE ? ZipEntry.DEFLATED : ZipEntry.STORED);
+        entry.setCrc(crc);
+        entry.setSize(size);
+        entry.setCompressedSize(compressedSize);
+        if (modifiedTime >= 0) {
+            entry.setTime(modifiedTime);
+        }
+        zipWriter.writeRawEntry(entry, compressedData);
+    }
+
+    /**
+     * Writes a new uncompressed file entry to the ZIP file, using a CRC that's known in advance. Unlike
+     * {@link #writeFileEntry(ZipOutputStream, String, InputStream, long, Compression)}, the input is read only once.
+     *
+     * @param crc The CRC-32 of the file contents.
+     * @throws ZipException If the CRC doesn't match the contents read from the input stream.
+     * @throws IOException If an I/O error occurs while writing the entry.
+     */
+    public static void writeStoredEntry(ZipOutputStream zout, String relpath, InputStream in, long size, long crc)
+            throws IOException {
+
+        ZipEntryWriter writer = new ZipEntryWriter(relpath, in, size, Compression.NONE, crc);
+        try {
+            writer.writeEntry(zout);
+        } finally {
+            writer.close();
+        }
+    }
+
 }
@@ -0,0 +1,874 @@
+package nl.weeaboo.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.common.Checks;
+import nl.weeaboo.common.StringUtil;
+
+/**
+ * Low-level writer for ZIP files. Unlike {@link ZipOutputStream}, this class writes the raw (already compressed)
+ * contents of each entry. This allows entries to be compressed elsewhere, for example on another thread, or to be
+ * copied from another archive without recompressing them.
+ * <p>
+ * File names are stored as UTF-8. ZIP64 records are written when needed (for archives larger than 4GB, or containing
+ * more than 65535 entries).
+ * <p>
+ * When writing to a seekable target ({@link #ZipWriter(IRandomAccessFile)}), entry headers are patched after writing
+ * the entry data. This allows entries to be written in a single pass, even when their CRC isn't known in advance.
+ */
+public final class ZipWriter implements Closeable {
+
+    private static final int DEFLATE_BUFFER_SIZE = 16 << 10;
+
+    private static final int LOCAL_HEADER_MAGIC = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_MAGIC = 0x08074b50;
+    private static final int CENTRAL_HEADER_MAGIC = 0x02014b50;
+    private static final int EOCD_MAGIC = 0x06054b50;
+    private static final int ZIP64_EOCD_MAGIC = 0x06064b50;
+    private static final int ZIP64_LOCATOR_MAGIC = 0x07064b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int EOCD_LENGTH = 22;
+    private static final int ZIP64_EOCD_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    /** Value stored in a 32-bit field when the actual value is stored in a ZIP64 field */
+    private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+    /** Value stored in a 16-bit entry count when the actual value is stored in a ZIP64 field */
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    /**
+     * Entries written with a data descriptor whose expected size exceeds this limit use ZIP64 sizes. Leaves room for
+     * the (small) amount of overhead added when compressing incompressible data.
+     */
+    private static final long ZIP64_SIZE_LIMIT = 0xF0000000L;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    /** MS-DOS directory attribute */
+    private static final int ATTRIBUTE_FOLDER = 0x10;
+
+    private final CountingOutputStream out;
+    /** Seekable target, or {@code null} if writing to a regular output stream */
+    private final @Nullable IRandomAccessFile file;
+    /** Position in the target at which this writer started writing */
+    private final long startOffset;
+    private final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+    private final Set<String> names = new HashSet<String>();
+
+    private @Nullable CentralEntry currentEntry;
+    private boolean finished;
+
+    /**
+     * @param out The output stream to write the ZIP file to. Writes are unbuffered, so the supplied output stream
+     *        should be buffered.
+     */
+    public ZipWriter(OutputStream out) {
+        this.out = new CountingOutputStream(Checks.checkNotNull(out), 0);
+        this.file = null;
+        this.startOffset = 0;
+    }
+
+    /**
+     * Writes the ZIP file to a seekable target, starting at the file's current position. Any data in front of the
+     * current position is considered part of the ZIP file, so header offsets are relative to the start of the file.
+     * Closing the ZIP writer also closes the file.
+     *
+     * @throws IOException If the file position can't be determined.
+     */
+    public ZipWriter(IRandomAccessFile file) throws IOException {
+        this.startOffset = file.pos();
+        this.out = new CountingOutputStream(new BufferedOutputStream(new RandomAccessOutputStream(file)),
+                startOffset);
+        this.file = file;
+    }
+
+    /**
+     * Finishes writing the ZIP file and closes the underlying output stream.
+     *
+     * @see #finish()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long getBytesWritten() {
+        return out.count - startOffset;
+    }
+
+    /**
+     * Writes a folder entry.
+     *
+     * @throws ZipException If an entry with the same name was already written.
+     * @throws IOException If an I/O error occurs while writing the entry.
+     */
+    public void writeFolder(String relpath) throws IOException {
+        if (relpath.length() > 0 && !relpath.endsWith("/")) {
+            relpath += "/";
+        }
+
+        ZipEntry entry = new ZipEntry(relpath);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        entry.setCrc(0);
+        beginRawEntry(entry);
+        endRawEntry(0, 0);
+    }
+
+    /**
+     * Writes an entry with already compressed contents.
+     *
+     * @param entry Entry metadata. The compression method, CRC, size and compressed size must be set.
+     * @param compressedData Input stream from which exactly {@code entry.getCompressedSize()} bytes are read.
+     * @throws ZipException If an entry with the same name was already written.
+     * @throws IOException If an I/O error occurs while reading the input, or writing the entry.
+     */
+    public void writeRawEntry(ZipEntry entry, InputStream compressedData) throws IOException {
+        Checks.checkArgument(entry.getCrc() >= 0, "CRC must be set");
+        Checks.checkArgument(entry.getSize() >= 0, "Size must be set");
+        Checks.checkArgument(entry.getCompressedSize() >= 0, "Compressed size must be set");
+
+        OutputStream rawOut = beginRawEntry(entry);
+        copy(compressedData, rawOut, entry.getCompressedSize(), null);
+        endRawEntry(entry.getCrc(), entry.getSize());
+    }
+
+    /**
+     * Writes an uncompressed entry.
+     * <p>
+     * If the CRC of the entry is known, or the ZIP file is written to a seekable target, the entry is written in a
+     * single pass. Otherwise, the contents are buffered so the CRC can be calculated before writing the entry header.
+     *
+     * @param entry Entry metadata. The size must be set. If the CRC is set, it's checked against the actual contents.
+     * @param in Input stream from which exactly {@code entry.getSize()} bytes are read.
+     * @throws ZipException If an entry with the same name was already written, or the entry's CRC doesn't match the
+     *         contents.
+     * @throws IOException If an I/O error occurs while reading the input, or writing the entry.
+     */
+    public void writeStoredEntry(ZipEntry entry, InputStream in) throws IOException {
+        final long size = entry.getSize();
+        Checks.checkArgument(size >= 0, "Size must be set");
+
+        ZipEntry storedEntry = new ZipEntry(entry);
+        storedEntry.setMethod(ZipEntry.STORED);
+        storedEntry.setCompressedSize(size);
+
+        if (entry.getCrc() < 0 && file == null) {
+            // The CRC must be stored in the entry header, so calculate it first
+            SpillableOutputStream buffer = new SpillableOutputStream();
+            try {
+                CRC32 crc = new CRC32();
+                copy(in, buffer, size, crc);
+                storedEntry.setCrc(crc.getValue());
+
+                InputStream bufferIn = buffer.openInputStream();
+                try {
+                    writeRawEntry(storedEntry, bufferIn);
+                } finally {
+                    bufferIn.close();
+                }
+            } finally {
+                buffer.close();
+            }
+        } else {
+            CRC32 crc = new CRC32();
+            OutputStream rawOut = beginRawEntry(storedEntry);
+            copy(in, rawOut, size, crc);
+            endRawEntry(crc.getValue(), size);
+        }
+    }
+
+    /**
+     * Writes an entry, compressing its contents if the entry's compression method is {@link ZipEntry#DEFLATED} (the
+     * default).
+     *
+     * @param entry Entry metadata. For uncompressed entries, the size must be set.
+     * @param in Input stream containing the uncompressed contents. Compressed entries are read until the end of the
+     *        stream.
+     * @throws ZipException If an entry with the same name was already written.
+     * @throws IOException If an I/O error occurs while reading the input, or writing the entry.
+     * @see #writeStoredEntry(ZipEntry, InputStream)
+     */
+    public void writeEntry(ZipEntry entry, InputStream in) throws IOException {
+        if (entry.getMethod() == ZipEntry.STORED) {
+            writeStoredEntry(entry, in);
+            return;
+        }
+
+        ZipEntry deflatedEntry = new ZipEntry(entry);
+        deflatedEntry.setMethod(ZipEntry.DEFLATED);
+        deflatedEntry.setCompressedSize(-1);
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        OutputStream rawOut = beginRawEntry(deflatedEntry);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            // Not closed, that would close the underlying output stream
+            DeflaterOutputStream dout = new DeflaterOutputStream(rawOut, deflater, DEFLATE_BUFFER_SIZE);
+            byte[] buf = new byte[DEFLATE_BUFFER_SIZE];
+            int r;
+            while ((r = in.read(buf)) >= 0) {
+                crc.update(buf, 0, r);
+                dout.write(buf, 0, r);
+                size += r;
+            }
+            dout.finish();
+        } finally {
+            deflater.end();
+        }
+        endRawEntry(crc.getValue(), size);
+    }
+
+    /**
+     * Adds an entry which already exists in the target, in front of the position at which this writer started
+     * writing. Used to append entries to an existing ZIP file without copying the existing entries. The entry's
+     * central directory header is copied as-is, so all of its metadata is preserved.
+     *
+     * @param centralHeader The entry's central directory header, including the file name, extra field and comment.
+     *        The entry's local header must be in front of the start offset.
+     * @throws ZipException If the central directory header is invalid, or an entry with the same name was already
+     *         written.
+     */
+    public void addExistingEntry(byte[] centralHeader) throws IOException {
+        Checks.checkState(!finished, "ZIP file is already finished");
+
+        ByteBuffer buf = wrapCentralHeader(centralHeader);
+        int nameLength = buf.getShort(28) & 0xFFFF;
+        long headerOffset = buf.getInt(42) & 0xFFFFFFFFL;
+        if (headerOffset == ZIP64_MAGIC_VALUE) {
+            headerOffset = readZip64HeaderOffset(buf, nameLength, buf.getShort(30) & 0xFFFF);
+        }
+        Checks.checkArgument(headerOffset >= 0 && headerOffset < startOffset,
+                "Header offset must be in front of the start offset (" + startOffset + "), was: " + headerOffset);
+
+        String name = StringUtil.fromUTF8(centralHeader, CENTRAL_HEADER_LENGTH, nameLength);
+        if (!names.add(name)) {
+            throw new ZipException("Duplicate entry: " + name);
+        }
+        entries.add(new CentralEntry(name, headerOffset, centralHeader));
+    }
+
+    /**
+     * Copies an entry from another ZIP file. The entry's local header, data and data descriptor are copied as-is, and
+     * its central directory header is copied with an updated local header offset, so all of the entry's metadata is
+     * preserved.
+     *
+     * @param centralHeader The entry's original central directory header, including the file name, extra field and
+     *        comment.
+     * @param localEntry Input stream from which exactly {@code localEntryLength} bytes are read, containing the
+     *        entry's local header, (compressed) data and data descriptor (if any).
+     * @throws ZipException If the central directory header is invalid, or an entry with the same name was already
+     *         written.
+     * @throws IOException If an I/O error occurs while reading the input, or writing the entry.
+     */
+    public void copyEntry(byte[] centralHeader, InputStream localEntry, long localEntryLength) throws IOException {
+        Checks.checkState(!finished, "ZIP file is already finished");
+        Checks.checkState(currentEntry == null, "Previous entry wasn't ended");
+
+        ByteBuffer buf = wrapCentralHeader(centralHeader);
+        String name = StringUtil.fromUTF8(centralHeader, CENTRAL_HEADER_LENGTH, buf.getShort(28) & 0xFFFF);
+        if (!names.add(name)) {
+            throw new ZipException("Duplicate entry: " + name);
+        }
+
+        long headerOffset = out.count;
+        copy(localEntry, out, localEntryLength, null);
+        entries.add(new CentralEntry(name, headerOffset, withHeaderOffset(centralHeader, headerOffset)));
+    }
+
+    /** Wraps a central directory header in a buffer, after checking that it's valid */
+    private static ByteBuffer wrapCentralHeader(byte[] centralHeader) throws ZipException {
+        ByteBuffer buf = ByteBuffer.wrap(centralHeader);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (centralHeader.length < CENTRAL_HEADER_LENGTH || buf.getInt(0) != CENTRAL_HEADER_MAGIC) {
+            throw new ZipException("Invalid central directory header");
+        }
+        int nameLength = buf.getShort(28) & 0xFFFF;
+        int extraLength = buf.getShort(30) & 0xFFFF;
+        int commentLength = buf.getShort(32) & 0xFFFF;
+        if (centralHeader.length != CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength) {
+            throw new ZipException("Invalid central directory header length: " + centralHeader.length);
+        }
+        return buf;
+    }
+
+    /**
+     * Returns a copy of a central directory header with a different local header offset. If the offset doesn't fit
+     * in 32 bits, it's stored in the ZIP64 extended information extra field, which is added if needed.
+     *
+     * @throws ZipException If the central directory header is invalid, or there's no room to add the ZIP64 offset.
+     */
+    static byte[] withHeaderOffset(byte[] centralHeader, long headerOffset) throws ZipException {
+        ByteBuffer buf = wrapCentralHeader(centralHeader);
+        final int nameLength = buf.getShort(28) & 0xFFFF;
+        final int extraLength = buf.getShort(30) & 0xFFFF;
+        final int extraPos = CENTRAL_HEADER_LENGTH + nameLength;
+
+        int zip64Pos = findZip64Extra(buf, nameLength, extraLength);
+        if ((buf.getInt(42) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) {
+            // The original offset is stored in the ZIP64 extra field, overwrite it
+            int offsetPos = (zip64Pos >= 0 ? getZip64OffsetPos(buf, zip64Pos) : -1);
+            if (offsetPos < 0) {
+                throw new ZipException("Missing ZIP64 extra field");
+            }
+            byte[] result = centralHeader.clone();
+            newBuffer(result).putLong(offsetPos, headerOffset);
+            return result;
+        } else if (headerOffset < ZIP64_MAGIC_VALUE) {
+            byte[] result = centralHeader.clone();
+            newBuffer(result).putInt(42, (int)headerOffset);
+            return result;
+        }
+
+        // Insert the offset into the ZIP64 extra field (after the sizes), or add a new ZIP64 extra field
+        int insertPos;
+        if (zip64Pos >= 0) {
+            insertPos = zip64Pos + 4;
+            if ((buf.getInt(24) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) {
+                insertPos += 8;
+            }
+            if ((buf.getInt(20) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) {
+                insertPos += 8;
+            }
+        } else {
+            insertPos = extraPos + extraLength;
+        }
+        int insertLength = (zip64Pos >= 0 ? 8 : 12);
+        if (extraLength + insertLength > 0xFFFF) {
+            throw new ZipException("Not enough room in the extra field for a ZIP64 header offset");
+        }
+
+        byte[] result = new byte[centralHeader.length + insertLength];
+        System.arraycopy(centralHeader, 0, result, 0, insertPos);
+        System.arraycopy(centralHeader, insertPos, result, insertPos + insertLength,
+                centralHeader.length - insertPos);
+
+        ByteBuffer resultBuf = newBuffer(result);
+        resultBuf.position(insertPos);
+        if (zip64Pos >= 0) {
+            resultBuf.putShort(zip64Pos + 2, (short)(buf.getShort(zip64Pos + 2) + 8));
+        } else {
+            resultBuf.putShort((short)ZIP64_EXTRA_ID);
+            resultBuf.putShort((short)8);
+        }
+        resultBuf.putLong(headerOffset);
+        resultBuf.putShort(30, (short)(extraLength + insertLength));
+        resultBuf.putInt(42, (int)ZIP64_MAGIC_VALUE);
+        resultBuf.putShort(6, (short)Math.max(VERSION_ZIP64, buf.getShort(6) & 0xFFFF)); // Version needed to extract
+        return result;
+    }
+
+    /** Reads the local header offset from the ZIP64 extended information extra field of a central directory header */
+    private static long readZip64HeaderOffset(ByteBuffer header, int nameLength, int extraLength)
+            throws ZipException {
+
+        int zip64Pos = findZip64Extra(header, nameLength, extraLength);
+        int offsetPos = (zip64Pos >= 0 ? getZip64OffsetPos(header, zip64Pos) : -1);
+        if (offsetPos < 0) {
+            throw new ZipException("Missing ZIP64 extra field");
+        }
+        return header.getLong(offsetPos);
+    }
+
+    /**
+     * Returns the position of the ZIP64 extended information extra field in a central directory header, or
+     * {@code -1} if the header doesn't contain one.
+     */
+    private static int findZip64Extra(ByteBuffer header, int nameLength, int extraLength) {
+        int pos = CENTRAL_HEADER_LENGTH + nameLength;
+        int end = pos + extraLength;
+        while (pos + 4 <= end) {
+            int id = header.getShort(pos) & 0xFFFF;
+            int dataLength = header.getShort(pos + 2) & 0xFFFF;
+            if (pos + 4 + dataLength > end) {
+                break;
+            }
+            if (id == ZIP64_EXTRA_ID) {
+                return pos;
+            }
+            pos += 4 + dataLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the local header offset within the ZIP64 extra field at the specified position, or
+     * {@code -1} if the extra field is too short to contain the offset.
+     */
+    private static int getZip64OffsetPos(ByteBuffer header, int zip64Pos) {
+        // The offset is preceded by the sizes, but only if those didn't fit in their 32-bit fields
+        int offsetPos = zip64Pos + 4;
+        if ((header.getInt(24) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) {
+            offsetPos += 8;
+        }
+        if ((header.getInt(20) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) {
+            offsetPos += 8;
+        }
+        int dataLength = header.getShort(zip64Pos + 2) & 0xFFFF;
+        return (offsetPos + 8 <= zip64Pos + 4 + dataLength ? offsetPos : -1);
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length, @Nullable CRC32 crc)
+            throws IOException {
+
+        byte[] buf = new byte[(int)Math.max(1, Math.min(64 << 10, length))];
+        long remaining = length;
+        while (remaining > 0) {
+            int r = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+            if (r < 0) {
+                throw new EOFException("Unexpected end of file, read=" + (length - remaining) + " expected=" + length);
+            }
+            if (crc != null) {
+                crc.update(buf, 0, r);
+            }
+            out.write(buf, 0, r);
+            remaining -= r;
+        }
+    }
+
+    /**
+     * Starts writing a new entry. If the CRC, size and compressed size of the entry are all known, they're stored in
+     * the entry header. Otherwise, they're patched into the entry header afterwards (when writing to a seekable
+     * target), or stored in a data descriptor following the entry data. In that case, the entry's size (if set) is
+     * used to determine if ZIP64 sizes are required.
+     *
+     * @return An output stream for writing the raw (compressed) contents of the entry. The stream doesn't need to be
+     *         closed.
+     * @see #endRawEntry(long, long)
+     */
+    OutputStream beginRawEntry(ZipEntry entry) throws IOException {
+        Checks.checkState(!finished, "ZIP file is already finished");
+        Checks.checkState(currentEntry == null, "Previous entry wasn't ended");
+
+        int method = entry.getMethod();
+        Checks.checkArgument(method == ZipEntry.STORED || method == ZipEntry.DEFLATED,
+                "Unsupported compression method: " + method);
+        if (!names.add(entry.getName())) {
+            throw new ZipException("Duplicate entry: " + entry.getName());
+        }
+
+        CentralEntry ce = new CentralEntry(entry, out.count);
+        if (entry.getCrc() >= 0 && entry.getSize() >= 0 && entry.getCompressedSize() >= 0) {
+            ce.crc = entry.getCrc();
+            ce.size = entry.getSize();
+            ce.compressedSize = entry.getCompressedSize();
+            ce.zip64 = (ce.size >= ZIP64_MAGIC_VALUE || ce.compressedSize >= ZIP64_MAGIC_VALUE);
+        } else {
+            if (file != null) {
+                ce.patchHeader = true;
+            } else {
+                ce.flags |= FLAG_DATA_DESCRIPTOR;
+            }
+            // If the size is unknown, assume the worst
+            ce.zip64 = (entry.getSize() < 0 || entry.getSize() > ZIP64_SIZE_LIMIT);
+        }
+        if (method == ZipEntry.STORED && (ce.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            throw new ZipException("STORED entry requires a known CRC and size: " + entry.getName());
+        }
+
+        writeLocalHeader(ce);
+        currentEntry = ce;
+        return out;
+    }
+
+    /**
+     * Ends the current entry.
+     *
+     * @param crc CRC-32 of the uncompressed entry contents.
+     * @param size Uncompressed size of the entry contents.
+     * @throws ZipException If the entry header specified a different CRC or size than the data actually written.
+     * @see #beginRawEntry(ZipEntry)
+     */
+    void endRawEntry(long crc, long size) throws IOException {
+        CentralEntry ce = currentEntry;
+        Checks.checkState(ce != null, "No entry was started");
+        currentEntry = null;
+
+        long compressedSize = out.count - ce.dataOffset;
+        if ((ce.flags & FLAG_DATA_DESCRIPTOR) != 0 || ce.patchHeader) {
+            if (!ce.zip64 && (size >= ZIP64_MAGIC_VALUE || compressedSize >= ZIP64_MAGIC_VALUE)) {
+                throw new ZipException("Entry too large (" + size + " bytes) for 32-bit sizes: " + ce.name);
+            }
+
+            ce.crc = crc;
+            ce.size = size;
+            ce.compressedSize = compressedSize;
+            if (ce.patchHeader) {
+                patchLocalHeader(ce);
+            } else {
+                writeDataDescriptor(ce);
+            }
+        } else if (ce.crc != crc || ce.size != size || ce.compressedSize != compressedSize) {
+            throw new ZipException(String.format("Entry header mismatch for %s: crc=%08x/%08x, size=%d/%d, "
+                    + "compressedSize=%d/%d", ce.name, ce.crc, crc, ce.size, size, ce.compressedSize, compressedSize));
+        }
+        entries.add(ce);
+    }
+
+    /**
+     * Writes the central directory, which finishes the ZIP file. No more entries may be written after calling this
+     * method. Doesn't close the underlying output stream.
+     *
+     * @throws IOException If an I/O error occurs while writing to the output stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        Checks.checkState(currentEntry == null, "Last entry wasn't ended");
+        finished = true;
+
+        long centralDirOffset = out.count;
+        for (CentralEntry ce : entries) {
+            writeCentralHeader(ce);
+        }
+        long centralDirSize = out.count - centralDirOffset;
+
+        long count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralDirSize >= ZIP64_MAGIC_VALUE
+                || centralDirOffset >= ZIP64_MAGIC_VALUE) {
+            writeZip64EndOfCentralDir(count, centralDirOffset, centralDirSize);
+        }
+
+        ByteBuffer buf = newBuffer(EOCD_LENGTH);
+        buf.putInt(EOCD_MAGIC);
+        buf.putShort((short)0); // Disk number
+        buf.putShort((short)0); // Central directory disk number
+        buf.putShort((short)Math.min(count, ZIP64_MAGIC_COUNT)); // Number of entries on this disk
+        buf.putShort((short)Math.min(count, ZIP64_MAGIC_COUNT)); // Total number of entries
+        buf.putInt((int)Math.min(centralDirSize, ZIP64_MAGIC_VALUE));
+        buf.putInt((int)Math.min(centralDirOffset, ZIP64_MAGIC_VALUE));
+        buf.putShort((short)0); // Comment length
+        write(buf);
+        out.flush();
+    }
+
+    private void writeLocalHeader(CentralEntry ce) throws IOException {
+        int extraLength = (ce.zip64 ? 20 : 0);
+        ByteBuffer buf = newBuffer(LOCAL_HEADER_LENGTH + ce.nameBytes.length + extraLength);
+        buf.putInt(LOCAL_HEADER_MAGIC);
+        buf.putShort((short)(ce.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        buf.putShort((short)ce.flags);
+        buf.putShort((short)ce.method);
+        buf.putInt(ce.dosDateTime);
+        if ((ce.flags & FLAG_DATA_DESCRIPTOR) != 0 || ce.patchHeader) {
+            // Actual values are stored in the data descriptor, or patched in later
+            buf.putInt(0);
+            buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : 0);
+            buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : 0);
+        } else {
+            buf.putInt((int)ce.crc);
+            buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : (int)ce.compressedSize);
+            buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : (int)ce.size);
+        }
+        buf.putShort((short)ce.nameBytes.length);
+        buf.putShort((short)extraLength);
+        buf.put(ce.nameBytes);
+        if (ce.zip64) {
+            buf.putShort((short)ZIP64_EXTRA_ID);
+            buf.putShort((short)16);
+            buf.putLong(Math.max(0, ce.size));
+            buf.putLong(Math.max(0, ce.compressedSize));
+        }
+        write(buf);
+
+        ce.dataOffset = out.count;
+    }
+
+    /** Overwrites the CRC and size fields in the local header of an entry with their actual values */
+    private void patchLocalHeader(CentralEntry ce) throws IOException {
+        IRandomAccessFile file = this.file;
+        Checks.checkState(file != null, "Target isn't seekable");
+
+        out.flush();
+        long endPos = file.pos();
+
+        ByteBuffer buf = newBuffer(12);
+        buf.putInt((int)ce.crc);
+        buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : (int)ce.compressedSize);
+        buf.putInt(ce.zip64 ? (int)ZIP64_MAGIC_VALUE : (int)ce.size);
+        file.seek(ce.headerOffset + 14);
+        file.write(buf.array(), 0, buf.position());
+
+        if (ce.zip64) {
+            buf = newBuffer(16);
+            buf.putLong(ce.size);
+            buf.putLong(ce.compressedSize);
+            // Skip the extra field's header
+            file.seek(ce.headerOffset + LOCAL_HEADER_LENGTH + ce.nameBytes.length + 4);
+            file.write(buf.array(), 0, buf.position());
+        }
+
+        file.seek(endPos);
+    }
+
+    private void writeDataDescriptor(CentralEntry ce) throws IOException {
+        ByteBuffer buf = newBuffer(ce.zip64 ? 24 : 16);
+        buf.putInt(DATA_DESCRIPTOR_MAGIC);
+        buf.putInt((int)ce.crc);
+        if (ce.zip64) {
+            buf.putLong(ce.compressedSize);
+            buf.putLong(ce.size);
+        } else {
+            buf.putInt((int)ce.compressedSize);
+            buf.putInt((int)ce.size);
+        }
+        write(buf);
+    }
+
+    private void writeCentralHeader(CentralEntry ce) throws IOException {
+        if (ce.centralHeader != null) {
+            // Existing entry, copy its original central directory header
+            out.write(ce.centralHeader);
+            return;
+        }
+
+        // Values that don't fit in 32 bits are stored in the ZIP64 extended information extra field
+        boolean zip64Size = (ce.size >= ZIP64_MAGIC_VALUE);
+        boolean zip64CompressedSize = (ce.compressedSize >= ZIP64_MAGIC_VALUE);
+        boolean zip64Offset = (ce.headerOffset >= ZIP64_MAGIC_VALUE);
+        int zip64FieldCount = (zip64Size ? 1 : 0) + (zip64CompressedSize ? 1 : 0) + (zip64Offset ? 1 : 0);
+        int extraLength = (zip64FieldCount > 0 ? 4 + 8 * zip64FieldCount : 0);
+        int version = (ce.zip64 || zip64FieldCount > 0 ? VERSION_ZIP64 : VERSION_DEFAULT);
+
+        ByteBuffer buf = newBuffer(CENTRAL_HEADER_LENGTH + ce.nameBytes.length + extraLength);
+        buf.putInt(CENTRAL_HEADER_MAGIC);
+        buf.putShort((short)version); // Version made by
+        buf.putShort((short)version); // Version needed to extract
+        buf.putShort((short)ce.flags);
+        buf.putShort((short)ce.method);
+        buf.putInt(ce.dosDateTime);
+        buf.putInt((int)ce.crc);
+        buf.putInt(zip64CompressedSize ? (int)ZIP64_MAGIC_VALUE : (int)ce.compressedSize);
+        buf.putInt(zip64Size ? (int)ZIP64_MAGIC_VALUE : (int)ce.size);
+        buf.putShort((short)ce.nameBytes.length);
+        buf.putShort((short)extraLength);
+        buf.putShort((short)0); // Comment length
+        buf.putShort((short)0); // Disk number
+        buf.putShort((short)0); // Internal file attributes
+        buf.putInt(ce.isFolder() ? ATTRIBUTE_FOLDER : 0); // External file attributes
+        buf.putInt(zip64Offset ? (int)ZIP64_MAGIC_VALUE : (int)ce.headerOffset);
+        buf.put(ce.nameBytes);
+        if (zip64FieldCount > 0) {
+            buf.putShort((short)ZIP64_EXTRA_ID);
+            buf.putShort((short)(8 * zip64FieldCount));
+            if (zip64Size) {
+                buf.putLong(ce.size);
+            }
+            if (zip64CompressedSize) {
+                buf.putLong(ce.compressedSize);
+            }
+            if (zip64Offset) {
+                buf.putLong(ce.headerOffset);
+            }
+        }
+        write(buf);
+    }
+
+    private void writeZip64EndOfCentralDir(long count, long centralDirOffset, long centralDirSize)
+            throws IOException {
+
+        long zip64EocdOffset = out.count;
+
+        ByteBuffer buf = newBuffer(ZIP64_EOCD_LENGTH + ZIP64_LOCATOR_LENGTH);
+        buf.putInt(ZIP64_EOCD_MAGIC);
+        buf.putLong(ZIP64_EOCD_LENGTH - 12); // Size of the remainder of the record
+        buf.putShort((short)VERSION_ZIP64); // Version made by
+        buf.putShort((short)VERSION_ZIP64); // Version needed to extract
+        buf.putInt(0); // Disk number
+        buf.putInt(0); // Central directory disk number
+        buf.putLong(count); // Number of entries on this disk
+        buf.putLong(count); // Total number of entries
+        buf.putLong(centralDirSize);
+        buf.putLong(centralDirOffset);
+
+        buf.putInt(ZIP64_LOCATOR_MAGIC);
+        buf.putInt(0); // Disk containing the ZIP64 end of central directory record
+        buf.putLong(zip64EocdOffset);
+        buf.putInt(1); // Total number of disks
+        write(buf);
+    }
+
+    private static ByteBuffer newBuffer(int length) {
+        return newBuffer(new byte[length]);
+    }
+
+    private static ByteBuffer newBuffer(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        out.write(buf.array(), 0, buf.position());
+    }
+
+    /**
+     * Converts a Java timestamp to MS-DOS date/time format, using the local time zone.
+     */
+    static int toDosDateTime(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+        }
+        return (year - 1980) << 25
+                | (cal.get(Calendar.MONTH) + 1) << 21
+                | cal.get(Calendar.DAY_OF_MONTH) << 16
+                | cal.get(Calendar.HOUR_OF_DAY) << 11
+                | cal.get(Calendar.MINUTE) << 5
+                | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    private static final class CentralEntry {
+
+        final String name;
+        final byte[] nameBytes;
+        final int method;
+        final int dosDateTime;
+        final long headerOffset;
+        /** Original central directory header of an existing entry, {@code null} for entries written by this writer */
+        final @Nullable byte[] centralHeader;
+
+        int flags = FLAG_UTF8;
+        boolean zip64;
+        /** If {@code true}, the CRC and sizes in the local header are patched after writing the entry data */
+        boolean patchHeader;
+        long dataOffset;
+
+        long crc;
+        long size = -1;
+        long compressedSize = -1;
+
+        CentralEntry(ZipEntry entry, long headerOffset) throws ZipException {
+            this.name = entry.getName();
+            this.nameBytes = StringUtil.toUTF8(name);
+            if (nameBytes.length > 0xFFFF) {
+                throw new ZipException("Entry name too long: " + name);
+            }
+            this.method = entry.getMethod();
+
+            long time = entry.getTime();
+            this.dosDateTime = toDosDateTime(time >= 0 ? time : System.currentTimeMillis());
+            this.headerOffset = headerOffset;
+            this.centralHeader = null;
+        }
+
+        CentralEntry(String name, long headerOffset, byte[] centralHeader) {
+            ByteBuffer buf = ByteBuffer.wrap(centralHeader);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            this.name = name;
+            this.nameBytes = StringUtil.toUTF8(name);
+            this.method = buf.getShort(10) & 0xFFFF;
+            this.dosDateTime = buf.getInt(12);
+            this.headerOffset = headerOffset;
+            this.centralHeader = centralHeader.clone();
+            this.flags = buf.getShort(8) & 0xFFFF;
+        }
+
+        boolean isFolder() {
+            return name.endsWith("/");
+        }
+
+    }
+
+    /** Output stream which writes to a random access file */
+    private static final class RandomAccessOutputStream extends OutputStream {
+
+        private final IRandomAccessFile file;
+
+        public RandomAccessOutputStream(IRandomAccessFile file) {
+            this.file = Checks.checkNotNull(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            file.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+    }
+
+    /** Output stream wrapper which counts the number of bytes written */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        long count;
+
+        public CountingOutputStream(OutputStream out, long initialCount) {
+            this.out = out;
+            this.count = initialCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+    }
+
+}
@@ -2,10 +2,15 @@ package nl.weeaboo.filesystem;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -67,6 +72,31 @@ public abstract class AbstractFileSystemTest<FS extends IFileSystem> {
         Assert.assertEquals(SUBFOLDER_FILE_CONTENTS, FileSystemUtil.readString(fileSystem, SUBFOLDER_FILE));
     }
 
+    /** File systems implementing {@link IAsyncFileSystem} can read batches of files in the background */
+    @Test
+    public void prefetch() throws Exception {
+        if (!(fileSystem instanceof IAsyncFileSystem)) {
+            return;
+        }
+        IAsyncFileSystem asyncFileSystem = (IAsyncFileSystem)fileSystem;
+
+        List<FilePath> paths = Arrays.asList(SUBFOLDER_FILE, INVALID_NAME, VALID_NAME);
+        Map<FilePath, Future<byte[]>> futures = asyncFileSystem.prefetch(paths);
+
+        // The results are returned in the order of the input
+        Assert.assertEquals(paths, new ArrayList<FilePath>(futures.keySet()));
+        Assert.assertEquals(SUBFOLDER_FILE_CONTENTS, StringUtil.fromUTF8(futures.get(SUBFOLDER_FILE).get()));
+        Assert.assertEquals(VALID_CONTENTS, StringUtil.fromUTF8(futures.get(VALID_NAME).get()));
+        try {
+            futures.get(INVALID_NAME).get();
+            Assert.fail("Reading a non-existent file should fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(true, e.getCause() instanceof IOException);
+        }
+
+        Assert.assertEquals(VALID_CONTENTS, StringUtil.fromUTF8(asyncFileSystem.readBytesAsync(VALID_NAME).get()));
+    }
+
     @Test
     public void testIsFolder() {
         assertIsFolder(false, SUBFOLDER_FILE);
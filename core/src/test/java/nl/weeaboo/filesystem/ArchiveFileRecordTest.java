@@ -0,0 +1,46 @@
+package nl.weeaboo.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ArchiveFileRecordTest {
+
+    /** Serializing a record only stores its own path, not the name pool shared with the other records */
+    @Test
+    public void serialize() throws IOException, ClassNotFoundException {
+        ArchiveNamePool namePool = new ArchiveNamePool();
+        for (int n = 0; n < 1000; n++) {
+            new ArchiveFileRecord(namePool, "other/file" + n + ".txt", 0, 0, 0, (byte)0, 0, 0);
+        }
+        ArchiveFileRecord record = new ArchiveFileRecord(namePool, "folder/a.txt", 12, 34, 56, (byte)8, 0xCAFEBABE,
+                0x12345678);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(record);
+        out.close();
+        Assert.assertEquals(true, bout.size() < namePool.size());
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        ArchiveFileRecord copy = (ArchiveFileRecord)in.readObject();
+        in.close();
+
+        Assert.assertEquals(record.getPath(), copy.getPath());
+        Assert.assertEquals(true, copy.hasPath(FilePath.of("folder/a.txt")));
+        Assert.assertEquals(record.getPathHash(), copy.getPathHash());
+        Assert.assertEquals(record.isFolder(), copy.isFolder());
+        Assert.assertEquals(record.getHeaderOffset(), copy.getHeaderOffset());
+        Assert.assertEquals(record.getCompressedLength(), copy.getCompressedLength());
+        Assert.assertEquals(record.getUncompressedLength(), copy.getUncompressedLength());
+        Assert.assertEquals(record.getCompression(), copy.getCompression());
+        Assert.assertEquals(record.getCrc(), copy.getCrc());
+        Assert.assertEquals(record.getDosDateTime(), copy.getDosDateTime());
+    }
+
+}
@@ -0,0 +1,55 @@
+package nl.weeaboo.filesystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ArchiveIndexTest {
+
+    @Test
+    public void lookup() {
+        List<ArchiveFileRecord> records = new ArrayList<ArchiveFileRecord>();
+        for (int n = 0; n < 1000; n++) {
+            records.add(record("file" + n));
+        }
+        ArchiveIndex index = new ArchiveIndex(records.toArray(new ArchiveFileRecord[0]));
+
+        for (int n = 0; n < records.size(); n++) {
+            FilePath path = records.get(n).getPath();
+            Assert.assertEquals(n, index.indexOf(path));
+            Assert.assertSame(records.get(n), index.get(path));
+        }
+        Assert.assertEquals(-1, index.indexOf(FilePath.of("file1000")));
+        Assert.assertNull(index.get(FilePath.of("file1000")));
+    }
+
+    /** Folders without a record of their own are also part of the directory index */
+    @Test
+    public void children() {
+        ArchiveIndex index = new ArchiveIndex(new ArchiveFileRecord[] {
+            record("a.txt"),
+            record("sub/"),
+            record("sub/b.txt"),
+            record("sub/implicit/c.txt"),
+            record("sub/z.txt"),
+        });
+
+        assertChildren(index, FilePath.empty(), 0, 1);
+        assertChildren(index, FilePath.of("sub"), 2, 4);
+        assertChildren(index, FilePath.of("sub/implicit"), 3);
+        assertChildren(index, FilePath.of("a.txt"));
+        Assert.assertNull(index.get(FilePath.of("sub/implicit")));
+    }
+
+    private static void assertChildren(ArchiveIndex index, FilePath folder, int... expected) {
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(index.getChildren(folder)));
+    }
+
+    private static ArchiveFileRecord record(String path) {
+        return new ArchiveFileRecord(path, 0, 0, 0, (byte)0, 0, 0);
+    }
+
+}
@@ -0,0 +1,41 @@
+package nl.weeaboo.filesystem;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.common.StringUtil;
+
+public class ArchiveNamePoolTest {
+
+    /** Comparing stored paths gives the same result as comparing the decoded strings */
+    @Test
+    public void compareLikeString() {
+        String[] paths = {
+            "", "a", "ab", "b", "a/b", "é", "€", "￠", "😀", "😁", "x😀",
+        };
+
+        ArchiveNamePool pool = new ArchiveNamePool();
+        int[] offsets = new int[paths.length];
+        int[] lengths = new int[paths.length];
+        for (int n = 0; n < paths.length; n++) {
+            byte[] utf8 = StringUtil.toUTF8(paths[n]);
+            offsets[n] = pool.add(utf8);
+            lengths[n] = utf8.length;
+        }
+        pool.trim();
+
+        for (int a = 0; a < paths.length; a++) {
+            Assert.assertEquals(paths[a], pool.getString(offsets[a], lengths[a]));
+            for (int b = 0; b < paths.length; b++) {
+                int expected = Integer.signum(paths[a].compareTo(paths[b]));
+                int actual = Integer.signum(pool.compare(offsets[a], lengths[a], offsets[b], lengths[b]));
+                Assert.assertEquals(paths[a] + " <> " + paths[b], expected, actual);
+
+                // Compare to an (unpooled) string
+                actual = Integer.signum(pool.compare(offsets[a], lengths[a], paths[b]));
+                Assert.assertEquals(paths[a] + " <> " + paths[b], expected, actual);
+            }
+        }
+    }
+
+}
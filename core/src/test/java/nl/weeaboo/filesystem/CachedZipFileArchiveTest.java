@@ -0,0 +1,112 @@
+package nl.weeaboo.filesystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachedZipFileArchiveTest extends AbstractFileSystemTest<ZipFileArchive> {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File zipFile;
+    private File cacheFile;
+
+    @Override
+    protected ZipFileArchive createTestFileSystem() throws IOException {
+        zipFile = tempFolder.newFile();
+        ResourceUtil.extractResource(getClass(), "/test.zip", zipFile);
+        cacheFile = new File(zipFile.getPath() + ".idx");
+
+        // Opening the archive the first time writes the cache file
+        openArchive().close();
+        Assert.assertEquals(true, cacheFile.exists());
+
+        // Opening the archive again reads the cache file
+        return openArchive();
+    }
+
+    private ZipFileArchive openArchive() throws IOException {
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.setIndexCacheFile(cacheFile);
+        arc.open(zipFile);
+        return arc;
+    }
+
+    /** The records read from the cache file are equal to the records read from the archive itself */
+    @Test
+    public void cachedRecords() throws IOException {
+        ZipFileArchive uncached = new ZipFileArchive();
+        uncached.open(zipFile);
+        try {
+            List<ArchiveFileRecord> expected = toList(uncached);
+            List<ArchiveFileRecord> actual = toList(fileSystem);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int n = 0; n < expected.size(); n++) {
+                ArchiveFileRecord e = expected.get(n);
+                ArchiveFileRecord a = actual.get(n);
+                Assert.assertEquals(e.getPath(), a.getPath());
+                Assert.assertEquals(e.getPathHash(), a.getPathHash());
+                Assert.assertEquals(e.isFolder(), a.isFolder());
+                Assert.assertEquals(e.getHeaderOffset(), a.getHeaderOffset());
+                Assert.assertEquals(e.getCrc(), a.getCrc());
+                Assert.assertEquals(e.getModifiedTime(), a.getModifiedTime());
+            }
+        } finally {
+            uncached.close();
+        }
+
+        // The temporary file used to write the cache file was removed
+        Assert.assertEquals(2, tempFolder.getRoot().list().length);
+    }
+
+    private static List<ArchiveFileRecord> toList(ZipFileArchive arc) {
+        List<ArchiveFileRecord> result = new ArrayList<ArchiveFileRecord>();
+        for (ArchiveFileRecord record : arc) {
+            result.add(record);
+        }
+        return result;
+    }
+
+    /** A corrupt cache file is ignored and replaced */
+    @Test
+    public void corruptCacheFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(new byte[] { 1, 2, 3 });
+        } finally {
+            out.close();
+        }
+
+        ZipFileArchive arc = openArchive();
+        try {
+            Assert.assertEquals(true, arc.getFileExists(VALID_NAME));
+            Assert.assertEquals(true, cacheFile.length() > 3);
+        } finally {
+            arc.close();
+        }
+    }
+
+    /** A cache file written for a different version of the archive is ignored */
+    @Test
+    public void staleCacheFile() throws IOException {
+        long oldLength = cacheFile.length();
+        Assert.assertEquals(true, zipFile.setLastModified(zipFile.lastModified() - 10000L));
+
+        ZipFileArchive arc = openArchive();
+        try {
+            Assert.assertEquals(true, arc.getFileExists(SUBFOLDER_FILE));
+            Assert.assertEquals(oldLength, cacheFile.length());
+        } finally {
+            arc.close();
+        }
+    }
+
+}
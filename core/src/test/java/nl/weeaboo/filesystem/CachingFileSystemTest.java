@@ -0,0 +1,139 @@
+package nl.weeaboo.filesystem;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachingFileSystemTest extends AbstractFileSystemTest<CachingFileSystem> {
+
+    private static final long CACHE_SIZE = 64;
+
+    private InMemoryFileSystem inner;
+
+    @Override
+    protected CachingFileSystem createTestFileSystem() throws IOException {
+        inner = new InMemoryFileSystem(false);
+        FileSystemUtil.writeString(inner, VALID_NAME, VALID_CONTENTS);
+        FileSystemUtil.writeString(inner, SUBFOLDER_FILE, SUBFOLDER_FILE_CONTENTS);
+
+        return new CachingFileSystem(inner, CACHE_SIZE);
+    }
+
+    @Test
+    public void hitsAndMisses() throws IOException {
+        assertContents(VALID_NAME, VALID_CONTENTS);
+        assertStats(0, 1, 0);
+
+        assertContents(VALID_NAME, VALID_CONTENTS);
+        assertStats(1, 1, 0);
+
+        Assert.assertEquals(1, fileSystem.getCachedFileCount());
+        Assert.assertEquals(VALID_CONTENTS.length(), fileSystem.getCachedBytes());
+
+        fileSystem.invalidate(VALID_NAME);
+        Assert.assertEquals(0, fileSystem.getCachedFileCount());
+        Assert.assertEquals(0, fileSystem.getCachedBytes());
+    }
+
+    /** The least recently used files are evicted when the cache is full */
+    @Test
+    public void eviction() throws IOException {
+        FilePath a = FilePath.of("a");
+        FilePath b = FilePath.of("b");
+        FilePath c = FilePath.of("c");
+        String contents = repeat('x', (int)CACHE_SIZE / 2);
+        FileSystemUtil.writeString(inner, a, contents);
+        FileSystemUtil.writeString(inner, b, contents);
+        FileSystemUtil.writeString(inner, c, contents);
+
+        assertContents(a, contents);
+        assertContents(b, contents);
+        assertContents(a, contents); // Makes 'b' the least recently used file
+        assertStats(1, 2, 0);
+
+        assertContents(c, contents);
+        assertStats(1, 3, 1);
+        Assert.assertEquals(CACHE_SIZE, fileSystem.getCachedBytes());
+
+        // 'a' is still cached, 'b' was evicted
+        assertContents(a, contents);
+        assertStats(2, 3, 1);
+        assertContents(b, contents);
+        assertStats(2, 4, 2);
+    }
+
+    /** Files larger than the max entry size are never cached */
+    @Test
+    public void maxEntrySize() throws IOException {
+        fileSystem.setMaxEntrySize(VALID_CONTENTS.length() - 1);
+
+        assertContents(VALID_NAME, VALID_CONTENTS);
+        assertContents(VALID_NAME, VALID_CONTENTS);
+        assertStats(0, 2, 0);
+        Assert.assertEquals(0, fileSystem.getCachedFileCount());
+    }
+
+    /** If a file is modified, the cached contents are no longer used */
+    @Test
+    public void modifiedFile() throws IOException {
+        assertContents(VALID_NAME, VALID_CONTENTS);
+
+        long oldModifiedTime = inner.getFileModifiedTime(VALID_NAME);
+        do {
+            FileSystemUtil.writeString(inner, VALID_NAME, "changed");
+        } while (inner.getFileModifiedTime(VALID_NAME) == oldModifiedTime);
+
+        assertContents(VALID_NAME, "changed");
+        assertStats(0, 2, 0);
+        Assert.assertEquals("changed".length(), fileSystem.getCachedBytes());
+    }
+
+    /** Within the revalidation interval, the underlying file system isn't checked for modifications */
+    @Test
+    public void revalidateInterval() throws IOException {
+        fileSystem.setRevalidateInterval(Long.MAX_VALUE);
+        assertContents(VALID_NAME, VALID_CONTENTS);
+
+        long oldModifiedTime = inner.getFileModifiedTime(VALID_NAME);
+        do {
+            FileSystemUtil.writeString(inner, VALID_NAME, "changed");
+        } while (inner.getFileModifiedTime(VALID_NAME) == oldModifiedTime);
+
+        // The cached contents are used until the file is invalidated
+        assertContents(VALID_NAME, VALID_CONTENTS);
+        assertStats(1, 1, 0);
+
+        fileSystem.invalidate(VALID_NAME);
+        assertContents(VALID_NAME, "changed");
+        assertStats(1, 2, 0);
+    }
+
+    @Test
+    public void directBuffers() throws IOException {
+        fileSystem.setDirectBuffers(true);
+
+        assertContents(SUBFOLDER_FILE, SUBFOLDER_FILE_CONTENTS);
+        assertContents(SUBFOLDER_FILE, SUBFOLDER_FILE_CONTENTS);
+        assertStats(1, 1, 0);
+    }
+
+    private void assertContents(FilePath path, String expected) throws IOException {
+        Assert.assertEquals(expected, FileSystemUtil.readString(fileSystem, path));
+    }
+
+    private void assertStats(long hits, long misses, long evictions) {
+        Assert.assertEquals(hits, fileSystem.getHitCount());
+        Assert.assertEquals(misses, fileSystem.getMissCount());
+        Assert.assertEquals(evictions, fileSystem.getEvictionCount());
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int n = 0; n < count; n++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+}
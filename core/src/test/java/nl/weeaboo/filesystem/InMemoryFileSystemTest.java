@@ -1,6 +1,11 @@
 package nl.weeaboo.filesystem;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
 
 public class InMemoryFileSystemTest extends AbstractWritableFileSystemTest<InMemoryFileSystem> {
 
@@ -14,4 +19,30 @@ public class InMemoryFileSystemTest extends AbstractWritableFileSystemTest<InMem
         return fs;
     }
 
+    /** Files which don't fit in a byte array can't be read asynchronously */
+    @Test
+    public void readBytesAsyncTooLarge() throws IOException, InterruptedException {
+        InMemoryFileSystem fs = new InMemoryFileSystem(false) {
+            @Override
+            protected long getFileSizeImpl(FilePath path) {
+                return 3L << 30;
+            }
+        };
+        FileSystemUtil.writeString(fs, VALID_NAME, VALID_CONTENTS);
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        try {
+            AsyncFileReader.readBytesAsync(directExecutor, fs, VALID_NAME).get();
+            Assert.fail("Reading a file larger than 2GB should fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(IOException.class, e.getCause().getClass());
+        }
+    }
+
 }
@@ -1,19 +1,82 @@
 package nl.weeaboo.filesystem;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
 
 public class MultiFileSystemTest extends AbstractFileSystemTest<MultiFileSystem> {
 
+    private InMemoryFileSystem writable;
+
     @Override
     protected MultiFileSystem createTestFileSystem() throws IOException {
         InMemoryFileSystem readonly = new InMemoryFileSystem(true);
 
-        InMemoryFileSystem writable = new InMemoryFileSystem(false);
+        writable = new InMemoryFileSystem(false);
         FileSystemUtil.writeString(writable, VALID_NAME, VALID_CONTENTS);
         FileSystemUtil.writeString(writable, SUBFOLDER_FILE, SUBFOLDER_FILE_CONTENTS);
 
         return new MultiFileSystem(Arrays.<IFileSystem>asList(readonly, writable));
     }
 
+    /** Files from all file systems are merged into a single sorted list, without duplicates */
+    @Test
+    public void mergedFiles() throws IOException {
+        FilePath a = FilePath.of("a");
+        FilePath b = FilePath.of("b");
+        FilePath c = FilePath.of("c");
+
+        InMemoryFileSystem first = new InMemoryFileSystem(false);
+        FileSystemUtil.writeString(first, c, "");
+        FileSystemUtil.writeString(first, a, "");
+        InMemoryFileSystem second = new InMemoryFileSystem(false);
+        FileSystemUtil.writeString(second, b, "");
+        FileSystemUtil.writeString(second, c, "");
+
+        MultiFileSystem multi = new MultiFileSystem(first, second);
+        Iterable<FilePath> files = multi.getFiles(FileCollectOptions.files(FilePath.empty()));
+
+        List<FilePath> list = new ArrayList<FilePath>();
+        for (FilePath path : files) {
+            list.add(path);
+        }
+        Assert.assertEquals(Arrays.asList(a, b, c), list);
+
+        // Iteration can stop early
+        Iterator<FilePath> itr = files.iterator();
+        Assert.assertEquals(a, itr.next());
+        Assert.assertEquals(true, itr.hasNext());
+    }
+
+    /** While frozen, lookup results are cached until explicitly invalidated */
+    @Test
+    public void frozen() throws IOException {
+        fileSystem.setFrozen(true);
+        Assert.assertEquals(true, fileSystem.isFrozen());
+
+        Assert.assertEquals(VALID_CONTENTS, FileSystemUtil.readString(fileSystem, VALID_NAME));
+        Assert.assertEquals(false, fileSystem.getFileExists(INVALID_NAME));
+
+        // Changes to the underlying file systems aren't seen until the cached lookup result is invalidated
+        FileSystemUtil.writeString(writable, INVALID_NAME, "new");
+        Assert.assertEquals(false, fileSystem.getFileExists(INVALID_NAME));
+        fileSystem.invalidate(INVALID_NAME);
+        Assert.assertEquals(true, fileSystem.getFileExists(INVALID_NAME));
+
+        writable.delete(INVALID_NAME);
+        Assert.assertEquals(true, fileSystem.getFileExists(INVALID_NAME));
+        fileSystem.invalidateAll();
+        Assert.assertEquals(false, fileSystem.getFileExists(INVALID_NAME));
+
+        // When not frozen, changes are visible immediately
+        fileSystem.setFrozen(false);
+        FileSystemUtil.writeString(writable, INVALID_NAME, "new");
+        Assert.assertEquals(true, fileSystem.getFileExists(INVALID_NAME));
+    }
+
 }
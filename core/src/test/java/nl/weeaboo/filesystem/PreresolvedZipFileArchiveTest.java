@@ -0,0 +1,39 @@
+package nl.weeaboo.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PreresolvedZipFileArchiveTest extends AbstractFileSystemTest<ZipFileArchive> {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Override
+    protected ZipFileArchive createTestFileSystem() throws IOException {
+        File zipFile = tempFolder.newFile();
+        ResourceUtil.extractResource(getClass(), "/test.zip", zipFile);
+
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.setResolveOffsetsOnOpen(true);
+        arc.open(zipFile);
+        return arc;
+    }
+
+    /** All data offsets are resolved when the archive is opened */
+    @Test
+    public void offsetsResolved() throws IOException {
+        for (ArchiveFileRecord record : fileSystem) {
+            long cached = record.getCachedDataOffset();
+            Assert.assertEquals(true, cached > record.getHeaderOffset());
+
+            // Resolving the offset again gives the same result
+            Assert.assertEquals(cached, fileSystem.getFileOffset(record.getHeaderOffset()));
+        }
+    }
+
+}
@@ -1,8 +1,15 @@
 package nl.weeaboo.filesystem;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.junit.Assert;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 public final class RegularFileSystemTest extends AbstractWritableFileSystemTest<RegularFileSystem> {
@@ -20,4 +27,41 @@ public final class RegularFileSystemTest extends AbstractWritableFileSystemTest<
         return fs;
     }
 
+    /** Files are returned in ascending path order, not in the order the folders are traversed */
+    @Test
+    public void sortedFiles() throws IOException {
+        FilePath nested = FilePath.of("a/b");
+        FilePath sibling = FilePath.of("a-c"); // Sorts before 'a/b'
+        FileSystemUtil.writeString(fileSystem, nested, "");
+        FileSystemUtil.writeString(fileSystem, sibling, "");
+
+        List<FilePath> expected = Arrays.asList(sibling, nested, SUBFOLDER_FILE, VALID_NAME);
+        Assert.assertEquals(expected, getAllFiles());
+
+        // Listing folders in parallel doesn't change the result
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            fileSystem.setWalkExecutor(executor);
+            Assert.assertEquals(expected, getAllFiles());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** An empty file has length zero, but does exist */
+    @Test
+    public void emptyFileSize() throws IOException {
+        FilePath empty = FilePath.of("empty");
+        FileSystemUtil.writeString(fileSystem, empty, "");
+        Assert.assertEquals(0, fileSystem.getFileSize(empty));
+    }
+
+    private List<FilePath> getAllFiles() {
+        List<FilePath> files = new ArrayList<FilePath>();
+        for (FilePath path : fileSystem.getFiles(FileCollectOptions.files(FilePath.empty()))) {
+            files.add(path);
+        }
+        return files;
+    }
+
 }
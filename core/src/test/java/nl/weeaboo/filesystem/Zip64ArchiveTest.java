@@ -0,0 +1,137 @@
+package nl.weeaboo.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.common.StringUtil;
+import nl.weeaboo.io.RandomAccessUtil;
+
+public class Zip64ArchiveTest {
+
+    private static final String NAME = "a.txt";
+    private static final String CONTENTS = "hello";
+
+    private ZipFileArchive arc;
+
+    @Before
+    public void before() throws IOException {
+        byte[] zipBytes = createZip64();
+
+        arc = new ZipFileArchive();
+        arc.open(RandomAccessUtil.wrap(zipBytes, 0, zipBytes.length));
+    }
+
+    @After
+    public void after() {
+        arc.close();
+    }
+
+    /** Sizes, offsets and the entry count are read from the ZIP64 structures */
+    @Test
+    public void readZip64() throws IOException {
+        FilePath path = FilePath.of(NAME);
+        Assert.assertEquals(true, arc.getFileExists(path));
+        Assert.assertEquals(CONTENTS.length(), arc.getFileSize(path));
+        Assert.assertEquals(CONTENTS, FileSystemUtil.readString(arc, path));
+    }
+
+    /**
+     * Creates a ZIP file containing a single stored entry, using ZIP64 extra fields and end of central directory
+     * records.
+     */
+    private static byte[] createZip64() {
+        byte[] name = StringUtil.toUTF8(NAME);
+        byte[] data = StringUtil.toUTF8(CONTENTS);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Local file header
+        buf.putInt(0x04034b50);
+        buf.putShort((short)45); // Version needed to extract
+        buf.putShort((short)0); // Flags
+        buf.putShort((short)0); // Compression method
+        buf.putInt(0); // Modified time
+        buf.putInt((int)crc.getValue());
+        buf.putInt(-1); // Compressed size
+        buf.putInt(-1); // Uncompressed size
+        buf.putShort((short)name.length);
+        buf.putShort((short)20);
+        buf.put(name);
+        buf.putShort((short)1); // ZIP64 extra field
+        buf.putShort((short)16);
+        buf.putLong(data.length);
+        buf.putLong(data.length);
+        buf.put(data);
+
+        // Central directory
+        final int centralDirOffset = buf.position();
+        buf.putInt(0x02014b50);
+        buf.putShort((short)45); // Version made by
+        buf.putShort((short)45); // Version needed to extract
+        buf.putShort((short)0); // Flags
+        buf.putShort((short)0); // Compression method
+        buf.putInt(0); // Modified time
+        buf.putInt((int)crc.getValue());
+        buf.putInt(-1); // Compressed size
+        buf.putInt(-1); // Uncompressed size
+        buf.putShort((short)name.length);
+        buf.putShort((short)28); // Extra field length
+        buf.putShort((short)0); // Comment length
+        buf.putShort((short)0); // Disk number
+        buf.putShort((short)0); // Internal attributes
+        buf.putInt(0); // External attributes
+        buf.putInt(-1); // Local header offset
+        buf.put(name);
+        buf.putShort((short)1); // ZIP64 extra field
+        buf.putShort((short)24);
+        buf.putLong(data.length);
+        buf.putLong(data.length);
+        buf.putLong(0); // Local header offset
+        final int centralDirSize = buf.position() - centralDirOffset;
+
+        // ZIP64 end of central directory record
+        final int zip64Offset = buf.position();
+        buf.putInt(0x06064b50);
+        buf.putLong(44); // Remaining record size
+        buf.putShort((short)45);
+        buf.putShort((short)45);
+        buf.putInt(0);
+        buf.putInt(0);
+        buf.putLong(1); // Entries on this disk
+        buf.putLong(1); // Total entries
+        buf.putLong(centralDirSize);
+        buf.putLong(centralDirOffset);
+
+        // ZIP64 end of central directory locator
+        buf.putInt(0x07064b50);
+        buf.putInt(0);
+        buf.putLong(zip64Offset);
+        buf.putInt(1);
+
+        // End of central directory record
+        buf.putInt(0x06054b50);
+        buf.putShort((short)0);
+        buf.putShort((short)0);
+        buf.putShort((short)-1); // Entries on this disk
+        buf.putShort((short)-1); // Total entries
+        buf.putInt(-1); // Central directory size
+        buf.putInt(-1); // Central directory offset
+        buf.putShort((short)0); // Comment length
+
+        byte[] result = new byte[buf.position()];
+        buf.rewind();
+        buf.get(result);
+        return result;
+    }
+
+}
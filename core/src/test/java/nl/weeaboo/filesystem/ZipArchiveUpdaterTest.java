@@ -0,0 +1,224 @@
+package nl.weeaboo.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.weeaboo.common.StringUtil;
+import nl.weeaboo.io.FileUtil;
+import nl.weeaboo.io.StreamUtil;
+import nl.weeaboo.io.ZipUtil.Compression;
+
+public final class ZipArchiveUpdaterTest {
+
+    private static final FilePath VALID_NAME = FilePath.of("valid.txt");
+    private static final FilePath SUBFOLDER_FILE = FilePath.of("sub1/sub2/sub.txt");
+    private static final String SUBFOLDER_FILE_CONTENTS = "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxx";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File zipFile;
+    private ZipArchiveUpdater updater;
+
+    @Before
+    public void before() throws IOException {
+        zipFile = tempFolder.newFile("test.zip");
+        ResourceUtil.extractResource(getClass(), "/test.zip", zipFile);
+
+        updater = new ZipArchiveUpdater(zipFile);
+    }
+
+    @Test
+    public void updateInPlace() throws IOException {
+        long oldLength = zipFile.length();
+
+        applyChanges();
+
+        // Removed/replaced entries still take up space
+        Assert.assertEquals(true, zipFile.length() > oldLength);
+        assertChanges();
+    }
+
+    @Test
+    public void updateCompacted() throws IOException {
+        updater.setCompact(true);
+        applyChanges();
+
+        assertChanges();
+    }
+
+    /** Compacting removes the data of replaced entries */
+    @Test
+    public void compactAfterUpdate() throws IOException {
+        applyChanges();
+        long inPlaceLength = zipFile.length();
+
+        updater.setCompact(true);
+        updater.commit();
+
+        Assert.assertEquals(true, zipFile.length() < inPlaceLength);
+        assertChanges();
+    }
+
+    /** Multiple in-place updates in a row */
+    @Test
+    public void repeatedUpdates() throws IOException {
+        for (int n = 0; n < 3; n++) {
+            updater.put(FilePath.of("new.txt"), StringUtil.toUTF8("new" + n), Compression.NONE);
+            updater.commit();
+        }
+
+        assertContents("new2", FilePath.of("new.txt"));
+        assertContents(SUBFOLDER_FILE_CONTENTS, SUBFOLDER_FILE);
+    }
+
+    /** If the update fails while writing an entry, the original ZIP file is restored */
+    @Test
+    public void failedUpdate() throws IOException {
+        // Reading this file fails with an I/O error
+        File unreadable = new File("/proc/self/mem");
+        if (!unreadable.exists()) {
+            return;
+        }
+
+        byte[] original = readFile(zipFile);
+        updater.put(FilePath.of("new.txt"), StringUtil.toUTF8("new"), Compression.NONE);
+        updater.put(FilePath.of("unreadable.bin"), unreadable, Compression.DEFLATE);
+        try {
+            updater.commit();
+            Assert.fail("Commit should fail");
+        } catch (IOException ioe) {
+            // Expected
+        }
+
+        Assert.assertArrayEquals(original, readFile(zipFile));
+        assertContents(SUBFOLDER_FILE_CONTENTS, SUBFOLDER_FILE);
+    }
+
+    /** Metadata of unchanged entries which isn't part of their archive record is preserved */
+    @Test
+    public void preserveMetadata() throws IOException {
+        preserveMetadata(false);
+    }
+
+    /** When compacting, metadata of unchanged entries which isn't part of their archive record is preserved */
+    @Test
+    public void preserveMetadataCompacted() throws IOException {
+        preserveMetadata(true);
+    }
+
+    private void preserveMetadata(boolean compact) throws IOException {
+        // Entries written by ZipOutputStream use data descriptors
+        ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            ZipEntry entry = new ZipEntry("a.txt");
+            entry.setExtra(new byte[] { (byte)0xFE, (byte)0xCA, 2, 0, 1, 2 });
+            entry.setComment("comment");
+            zout.putNextEntry(entry);
+            zout.write(StringUtil.toUTF8("contents"));
+            zout.closeEntry();
+        } finally {
+            zout.close();
+        }
+        byte[] centralHeader = readCentralHeaders().values().iterator().next();
+
+        updater.setCompact(compact);
+        updater.put(FilePath.of("b.txt"), StringUtil.toUTF8("new"), Compression.NONE);
+        updater.commit();
+
+        Map<Long, byte[]> centralHeaders = readCentralHeaders();
+        Assert.assertEquals(2, centralHeaders.size());
+        Assert.assertArrayEquals(centralHeader, centralHeaders.get(0L));
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            ZipEntry entry = zip.getEntry("a.txt");
+            Assert.assertEquals("comment", entry.getComment());
+            InputStream in = zip.getInputStream(entry);
+            try {
+                Assert.assertEquals("contents", StringUtil.fromUTF8(StreamUtil.readBytes(in)));
+            } finally {
+                in.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private Map<Long, byte[]> readCentralHeaders() throws IOException {
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.open(zipFile);
+        try {
+            return arc.readCentralHeaders();
+        } finally {
+            arc.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return StreamUtil.readBytes(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void applyChanges() throws IOException {
+        File newFile = tempFolder.newFile("new.bin");
+        FileUtil.writeUtf8(newFile, "new file contents, new file contents");
+
+        updater.put(FilePath.of("new/file.bin"), newFile, Compression.DEFLATE);
+        updater.put(VALID_NAME, StringUtil.toUTF8("replaced"), Compression.NONE);
+        updater.remove(FilePath.of("does-not-exist"));
+        updater.commit();
+    }
+
+    private void assertChanges() throws IOException {
+        assertContents("new file contents, new file contents", FilePath.of("new/file.bin"));
+        assertContents("replaced", VALID_NAME);
+        // Unchanged entries
+        assertContents(SUBFOLDER_FILE_CONTENTS, SUBFOLDER_FILE);
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Assert.assertEquals(5, zip.size());
+            Assert.assertEquals(true, zip.getEntry("sub1/sub2/").isDirectory());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry(SUBFOLDER_FILE.toString()).getMethod());
+
+            ZipEntry replaced = zip.getEntry(VALID_NAME.toString());
+            InputStream in = zip.getInputStream(replaced);
+            try {
+                Assert.assertEquals("replaced", StringUtil.fromUTF8(StreamUtil.readBytes(in)));
+            } finally {
+                in.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private void assertContents(String expected, FilePath path) throws IOException {
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.open(zipFile);
+        try {
+            Assert.assertEquals(expected, StringUtil.fromUTF8(FileSystemUtil.readBytes(arc, path)));
+        } finally {
+            arc.close();
+        }
+    }
+
+}
@@ -1,11 +1,29 @@
 package nl.weeaboo.filesystem;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
+import org.junit.Assert;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import nl.weeaboo.common.StringUtil;
+import nl.weeaboo.io.StreamUtil;
+import nl.weeaboo.io.ZipWriter;
+
 public class ZipFileArchiveTest extends AbstractFileSystemTest<ZipFileArchive> {
 
     @Rule
@@ -21,4 +39,122 @@ public class ZipFileArchiveTest extends AbstractFileSystemTest<ZipFileArchive> {
         return arc;
     }
 
+    /** Inflaters used to read compressed entries are returned to the pool when the stream is closed */
+    @Test
+    public void inflaterPool() throws IOException {
+        InflaterPool pool = new InflaterPool(1, 16);
+        fileSystem.setInflaterPool(pool);
+
+        // The first read creates a new inflater, which is then returned to the pool
+        assertSubfolderFileContents();
+        Assert.assertEquals(0, pool.getHitCount());
+        Assert.assertEquals(1, pool.getMissCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // The second read reuses the pooled inflater
+        assertSubfolderFileContents();
+        Assert.assertEquals(1, pool.getHitCount());
+        Assert.assertEquals(1, pool.getMissCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // Two streams open at the same time need two inflaters. Only one fits in the pool.
+        InputStream a = fileSystem.openInputStream(SUBFOLDER_FILE);
+        InputStream b = fileSystem.openInputStream(SUBFOLDER_FILE);
+        Assert.assertEquals(0, pool.getIdleCount());
+        a.close();
+        b.close();
+        b.close(); // Closing a stream twice doesn't return the inflater twice
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        pool.clear();
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    /** Raw entry data can be copied to another archive without recompressing it */
+    @Test
+    public void copyRawEntries() throws IOException {
+        ArchiveFileRecord record = fileSystem.getFile(SUBFOLDER_FILE);
+        Assert.assertEquals(ZipEntry.DEFLATED, record.getCompression());
+        CRC32 crc = new CRC32();
+        crc.update(StringUtil.toUTF8(SUBFOLDER_FILE_CONTENTS));
+        Assert.assertEquals(crc.getValue(), record.getCrc());
+
+        // The raw data is compressed
+        InputStream in = fileSystem.openRawInputStream(SUBFOLDER_FILE);
+        try {
+            Assert.assertEquals(record.getCompressedLength(), StreamUtil.readBytes(in).length);
+        } finally {
+            in.close();
+        }
+
+        File zipFile = tempFolder.newFile("copy.zip");
+        ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        try {
+            for (ArchiveFileRecord r : fileSystem) {
+                fileSystem.copyRawEntry(r.getPath(), zipWriter);
+            }
+        } finally {
+            zipWriter.close();
+        }
+
+        ZipFileArchive copy = new ZipFileArchive();
+        copy.open(zipFile);
+        try {
+            ArchiveFileRecord copied = copy.getFile(SUBFOLDER_FILE);
+            Assert.assertEquals(record.getCrc(), copied.getCrc());
+            Assert.assertEquals(record.getCompressedLength(), copied.getCompressedLength());
+            Assert.assertEquals(record.getModifiedTime(), copied.getModifiedTime());
+            Assert.assertEquals(SUBFOLDER_FILE_CONTENTS, FileSystemUtil.readString(copy, SUBFOLDER_FILE));
+            Assert.assertEquals(VALID_CONTENTS, FileSystemUtil.readString(copy, VALID_NAME));
+            Assert.assertEquals(true, copy.isFolder(FilePath.of("sub1/sub2/")));
+        } finally {
+            copy.close();
+        }
+    }
+
+    /** Entries using an unsupported compression method can't be copied */
+    @Test(expected = ZipException.class)
+    public void copyUnsupportedCompression() throws IOException {
+        ArchiveFileRecord record = fileSystem.getFile(SUBFOLDER_FILE);
+        // BZIP2 compression
+        ArchiveFileRecord bzip2Record = new ArchiveFileRecord(record.getPath().toString(), record.getHeaderOffset(),
+                record.getCompressedLength(), record.getUncompressedLength(), (byte)12, (int)record.getCrc(), 0);
+
+        ZipWriter zipWriter = new ZipWriter(new ByteArrayOutputStream());
+        try {
+            fileSystem.copyRawEntry(bzip2Record, zipWriter);
+        } finally {
+            zipWriter.close();
+        }
+    }
+
+    /** Asynchronous reads from an archive that isn't open fail with an I/O error */
+    @Test
+    public void readAsyncNotOpen() throws InterruptedException {
+        ZipFileArchive unopened = new ZipFileArchive();
+        assertReadAsyncFails(unopened);
+
+        fileSystem.close();
+        assertReadAsyncFails(fileSystem);
+    }
+
+    private static void assertReadAsyncFails(ZipFileArchive arc) throws InterruptedException {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        futures.add(arc.readBytesAsync(VALID_NAME));
+        futures.addAll(arc.prefetch(Arrays.asList(VALID_NAME, SUBFOLDER_FILE)).values());
+        for (Future<byte[]> future : futures) {
+            try {
+                future.get();
+                Assert.fail("Reading from an archive that isn't open should fail");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(true, e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    private void assertSubfolderFileContents() throws IOException {
+        byte[] bytes = FileSystemUtil.readBytes(fileSystem, SUBFOLDER_FILE);
+        Assert.assertEquals(SUBFOLDER_FILE_CONTENTS, StringUtil.fromUTF8(bytes, 0, bytes.length));
+    }
+
 }
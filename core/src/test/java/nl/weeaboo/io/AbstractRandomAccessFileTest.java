@@ -2,6 +2,7 @@ package nl.weeaboo.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -64,4 +65,70 @@ public abstract class AbstractRandomAccessFileTest {
         }
     }
 
+    /** Interrupting a thread while it's reading doesn't make the file unusable */
+    @Test
+    public void interruptedRead() throws IOException {
+        for (int n = 0; n < 5; n++) {
+            rfile.write(n);
+        }
+
+        byte[] buf = new byte[2];
+        Thread.currentThread().interrupt();
+        try {
+            rfile.read(1, buf, 0, 2);
+        } catch (IOException ioe) {
+            // Failing the interrupted read is allowed
+        } finally {
+            // Clear the interrupted flag
+            Thread.interrupted();
+        }
+
+        Assert.assertEquals(2, rfile.read(3, buf, 0, 2));
+        Assert.assertArrayEquals(new byte[] { 3, 4 }, buf);
+        Assert.assertEquals(2, rfile.read(3, ByteBuffer.wrap(buf)));
+    }
+
+    /** Positional reads don't use or change the current file position */
+    @Test
+    public void positionalRead() throws IOException {
+        for (int n = 0; n < 5; n++) {
+            rfile.write(n);
+        }
+
+        byte[] buf = new byte[4];
+        Assert.assertEquals(3, rfile.read(2, buf, 1, 3));
+        Assert.assertArrayEquals(new byte[] { 0, 2, 3, 4 }, buf);
+        Assert.assertEquals(5, rfile.pos());
+
+        ByteBuffer byteBuf = ByteBuffer.allocate(2);
+        Assert.assertEquals(2, rfile.read(1, byteBuf));
+        Assert.assertEquals(2, byteBuf.position());
+        Assert.assertEquals(1, byteBuf.get(0));
+        Assert.assertEquals(2, byteBuf.get(1));
+
+        // Reading at/past the end of the file
+        Assert.assertEquals(-1, rfile.read(5, buf, 0, 1));
+        Assert.assertEquals(-1, rfile.read(5, ByteBuffer.allocate(1)));
+    }
+
+    /** Relative reads and writes continue at the current file position after positional reads */
+    @Test
+    public void relativeAfterPositionalRead() throws IOException {
+        for (int n = 0; n < 5; n++) {
+            rfile.write(n);
+        }
+
+        byte[] buf = new byte[1];
+        rfile.seek(2);
+        Assert.assertEquals(1, rfile.read(0, buf, 0, 1));
+        Assert.assertEquals(2, rfile.pos());
+        Assert.assertEquals(2, rfile.read());
+
+        Assert.assertEquals(1, rfile.read(4, buf, 0, 1));
+        rfile.write(9);
+        Assert.assertEquals(4, rfile.pos());
+        Assert.assertEquals(1, rfile.read(3, buf, 0, 1));
+        Assert.assertEquals(9, buf[0]);
+    }
+
 }
@@ -0,0 +1,103 @@
+package nl.weeaboo.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChannelRandomAccessFileTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private IRandomAccessFile rfile;
+
+    @Before
+    public void before() throws IOException {
+        File file = tempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int n = 0; n < 5; n++) {
+                out.write(n);
+            }
+        } finally {
+            out.close();
+        }
+
+        rfile = RandomAccessUtil.open(file);
+    }
+
+    @After
+    public void after() throws IOException {
+        rfile.close();
+    }
+
+    @Test
+    public void seekRead() throws IOException {
+        Assert.assertEquals(5, rfile.length());
+        rfile.seek(2);
+        Assert.assertEquals(2, rfile.read());
+        Assert.assertEquals(3, rfile.pos());
+
+        byte[] buf = new byte[4];
+        Assert.assertEquals(2, rfile.read(buf, 0, 4));
+        Assert.assertEquals(-1, rfile.read());
+    }
+
+    /** The file is read-only */
+    @Test(expected = IOException.class)
+    public void write() throws IOException {
+        rfile.write(1);
+    }
+
+    /** Interrupting a thread while it's reading fails the read, but doesn't make the file unusable */
+    @Test
+    public void interruptedRead() throws IOException {
+        InputStream in = rfile.getInputStream(0, 5);
+        try {
+            Assert.assertEquals(0, in.read());
+
+            byte[] buf = new byte[2];
+            Thread.currentThread().interrupt();
+            try {
+                rfile.read(1, buf, 0, 2);
+                Assert.fail("Interrupted read should fail");
+            } catch (IOException ioe) {
+                // Expected
+            } finally {
+                // Clear the interrupted flag
+                Thread.interrupted();
+            }
+
+            Assert.assertEquals(2, rfile.read(3, ByteBuffer.wrap(buf)));
+            Assert.assertArrayEquals(new byte[] { 3, 4 }, buf);
+            Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4 }, StreamUtil.readBytes(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Positional reads don't use or change the current file position */
+    @Test
+    public void positionalRead() throws IOException {
+        rfile.seek(1);
+
+        byte[] buf = new byte[4];
+        Assert.assertEquals(3, rfile.read(2, buf, 1, 3));
+        Assert.assertArrayEquals(new byte[] { 0, 2, 3, 4 }, buf);
+        Assert.assertEquals(1, rfile.pos());
+
+        // Reading at/past the end of the file
+        Assert.assertEquals(-1, rfile.read(5, buf, 0, 1));
+        Assert.assertEquals(-1, rfile.read(5, ByteBuffer.allocateDirect(1)));
+    }
+
+}
@@ -1,7 +1,11 @@
 package nl.weeaboo.io;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -25,4 +29,30 @@ public final class FileUtilTest {
         Assert.assertEquals(write, read);
     }
 
+    @Test
+    public void testCopyFile() throws IOException {
+        byte[] contents = new byte[100 * 1024];
+        new Random(1).nextBytes(contents);
+
+        File src = tempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(src);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+
+        // Copy overwrites the existing destination file
+        File dst = tempFolder.newFile();
+        FileUtil.writeUtf8(dst, "existing contents, longer than nothing");
+        FileUtil.copyFile(src, dst);
+
+        FileInputStream in = new FileInputStream(dst);
+        try {
+            Assert.assertEquals(true, Arrays.equals(contents, StreamUtil.readBytes(in)));
+        } finally {
+            in.close();
+        }
+    }
+
 }
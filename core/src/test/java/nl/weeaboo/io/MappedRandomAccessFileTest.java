@@ -0,0 +1,86 @@
+package nl.weeaboo.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRandomAccessFileTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private IRandomAccessFile rfile;
+
+    @Before
+    public void before() throws IOException {
+        File file = tempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int n = 0; n < 5; n++) {
+                out.write(n);
+            }
+        } finally {
+            out.close();
+        }
+
+        rfile = RandomAccessUtil.map(file);
+    }
+
+    @After
+    public void after() throws IOException {
+        rfile.close();
+    }
+
+    @Test
+    public void seekRead() throws IOException {
+        Assert.assertEquals(5, rfile.length());
+        rfile.seek(2);
+        Assert.assertEquals(2, rfile.read());
+        Assert.assertEquals(3, rfile.pos());
+    }
+
+    /** Mapped files are read-only */
+    @Test(expected = IOException.class)
+    public void write() throws IOException {
+        rfile.write(1);
+    }
+
+    /** Input streams don't affect each other, or the file position */
+    @Test
+    public void independentStreams() throws IOException {
+        InputStream a = rfile.getInputStream(1, 3);
+        InputStream b = rfile.getInputStream(0, 5);
+        try {
+            Assert.assertEquals(1, a.read());
+            Assert.assertEquals(0, b.read());
+            Assert.assertEquals(2, a.read());
+            Assert.assertEquals(0, rfile.pos());
+
+            a.mark(5);
+            Assert.assertArrayEquals(new byte[] { 3 }, StreamUtil.readBytes(a));
+            a.reset();
+            Assert.assertEquals(3, a.read());
+            Assert.assertEquals(-1, a.read());
+
+            Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4 }, StreamUtil.readBytes(b));
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    /** Requesting a segment outside the file bounds throws an exception */
+    @Test(expected = IOException.class)
+    public void invalidSegment() throws IOException {
+        rfile.getInputStream(4, 2);
+    }
+
+}
@@ -0,0 +1,226 @@
+package nl.weeaboo.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.weeaboo.filesystem.FilePath;
+import nl.weeaboo.filesystem.FileSystemUtil;
+import nl.weeaboo.filesystem.ZipFileArchive;
+import nl.weeaboo.io.ZipUtil.Compression;
+
+public final class ParallelZipWriterTest {
+
+    private static final int BLOCK_SIZE = 64 << 10;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+    private File zipFile;
+
+    @Before
+    public void before() throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        zipFile = tempFolder.newFile("test.zip");
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writeEntries() throws IOException {
+        byte[] small = "small".getBytes("UTF-8");
+        // Large enough to be split into multiple blocks, with repetition across block boundaries
+        byte[] large = compressibleBytes(5 * BLOCK_SIZE + 123);
+        byte[] random = new byte[3 * BLOCK_SIZE];
+        new Random(1).nextBytes(random);
+
+        File largeFile = tempFolder.newFile("large.bin");
+        FileOutputStream fout = new FileOutputStream(largeFile);
+        try {
+            fout.write(large);
+        } finally {
+            fout.close();
+        }
+
+        ParallelZipWriter zipWriter = newZipWriter(2);
+        try {
+            zipWriter.addFolder("folder");
+            zipWriter.add("folder/small.txt", small, 0, small.length, Compression.DEFLATE);
+            zipWriter.add("stored.bin", random, 0, random.length, Compression.NONE);
+            zipWriter.add("large-file.bin", largeFile, Compression.DEFLATE);
+            zipWriter.add("large-stream.bin", new ByteArrayInputStream(large), large.length, Compression.DEFLATE);
+            zipWriter.add("random.bin", random, 0, random.length, Compression.DEFLATE);
+            zipWriter.add("empty.bin", new byte[0], 0, 0, Compression.DEFLATE);
+        } finally {
+            zipWriter.close();
+        }
+
+        // Check with the JDK's ZIP implementation
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Assert.assertEquals(true, zip.getEntry("folder/").isDirectory());
+            assertEntry(zip, "folder/small.txt", small);
+            assertEntry(zip, "stored.bin", random);
+            assertEntry(zip, "large-file.bin", large);
+            assertEntry(zip, "large-stream.bin", large);
+            assertEntry(zip, "random.bin", random);
+            assertEntry(zip, "empty.bin", new byte[0]);
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("stored.bin").getMethod());
+            Assert.assertEquals(largeFile.lastModified() / 2000,
+                    zip.getEntry("large-file.bin").getTime() / 2000);
+        } finally {
+            zip.close();
+        }
+
+        // Check with our own ZIP implementation
+        ZipFileArchive arc = new ZipFileArchive();
+        arc.open(zipFile);
+        try {
+            Assert.assertEquals(true, arc.isFolder(FilePath.of("folder/")));
+            Assert.assertEquals(true, Arrays.equals(large,
+                    FileSystemUtil.readBytes(arc, FilePath.of("large-stream.bin"))));
+            Assert.assertEquals(true, Arrays.equals(small,
+                    FileSystemUtil.readBytes(arc, FilePath.of("folder/small.txt"))));
+        } finally {
+            arc.close();
+        }
+    }
+
+    /** Many small entries and a low limit on the number of pending blocks */
+    @Test
+    public void manyEntries() throws IOException {
+        ParallelZipWriter zipWriter = newZipWriter(1);
+        try {
+            for (int n = 0; n < 100; n++) {
+                byte[] bytes = compressibleBytes(n * 100);
+                zipWriter.add("file" + n, bytes, 0, bytes.length, Compression.DEFLATE);
+            }
+        } finally {
+            zipWriter.close();
+        }
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Assert.assertEquals(100, zip.size());
+            for (int n = 0; n < 100; n++) {
+                assertEntry(zip, "file" + n, compressibleBytes(n * 100));
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void duplicateEntry() throws IOException {
+        ParallelZipWriter zipWriter = newZipWriter(2);
+        try {
+            zipWriter.add("a", new byte[1], 0, 1, Compression.DEFLATE);
+            zipWriter.add("a", new byte[1], 0, 1, Compression.DEFLATE);
+        } finally {
+            zipWriter.close();
+        }
+    }
+
+    /** After a failure, closing the writer cancels the compression of entries that weren't written */
+    @Test
+    public void cancelAfterFailure() throws IOException {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor manualExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+
+        ParallelZipWriter zipWriter = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)),
+                manualExecutor, 10);
+        try {
+            zipWriter.add("a", new byte[1], 0, 1, Compression.DEFLATE);
+            zipWriter.add("a", new byte[1], 0, 1, Compression.DEFLATE);
+            zipWriter.add("b", new byte[1], 0, 1, Compression.DEFLATE);
+            for (Runnable task : tasks) {
+                task.run();
+            }
+
+            // Writing the duplicate entry fails, the task for 'c' hasn't run yet
+            zipWriter.add("c", new byte[1], 0, 1, Compression.DEFLATE);
+            Assert.fail("Writing a duplicate entry should fail");
+        } catch (IOException ioe) {
+            // Expected
+        } finally {
+            zipWriter.close();
+        }
+
+        Assert.assertEquals(4, tasks.size());
+        Assert.assertEquals(true, ((Future<?>)tasks.get(3)).isCancelled());
+    }
+
+    @Test
+    public void crc32Combine() {
+        byte[] bytes = compressibleBytes(12345);
+        int split = 5000;
+
+        Assert.assertEquals(crc(bytes, 0, bytes.length), ParallelZipWriter.crc32Combine(crc(bytes, 0, split),
+                crc(bytes, split, bytes.length - split), bytes.length - split));
+    }
+
+    private ParallelZipWriter newZipWriter(int maxPendingBlocks) throws IOException {
+        ParallelZipWriter zipWriter = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)),
+                executor, maxPendingBlocks);
+        zipWriter.setBlockSize(BLOCK_SIZE);
+        return zipWriter;
+    }
+
+    private static byte[] compressibleBytes(int length) {
+        Random random = new Random(length);
+        byte[] bytes = new byte[length];
+        for (int n = 0; n < length; n++) {
+            bytes[n] = (byte)('a' + random.nextInt(4));
+        }
+        return bytes;
+    }
+
+    private static long crc(byte[] b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        return crc.getValue();
+    }
+
+    private static void assertEntry(ZipFile zip, String name, byte[] expected) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        Assert.assertNotNull(name, entry);
+
+        InputStream in = zip.getInputStream(entry);
+        try {
+            Assert.assertEquals(name, true, Arrays.equals(expected, StreamUtil.readBytes(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+}
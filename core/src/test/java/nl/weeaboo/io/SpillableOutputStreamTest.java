@@ -0,0 +1,96 @@
+package nl.weeaboo.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class SpillableOutputStreamTest {
+
+    private static final int THRESHOLD = 10000;
+
+    @Test
+    public void inMemory() throws IOException {
+        assertRoundTrip(new SpillableOutputStream(THRESHOLD, false), THRESHOLD - 1, false);
+    }
+
+    @Test
+    public void inMemoryDirect() throws IOException {
+        assertRoundTrip(new SpillableOutputStream(THRESHOLD, true), THRESHOLD - 1, false);
+    }
+
+    @Test
+    public void spilled() throws IOException {
+        assertRoundTrip(new SpillableOutputStream(THRESHOLD, false), 3 * THRESHOLD, true);
+    }
+
+    @Test
+    public void spilledDirect() throws IOException {
+        assertRoundTrip(new SpillableOutputStream(THRESHOLD, true), 3 * THRESHOLD, true);
+    }
+
+    @Test
+    public void empty() throws IOException {
+        assertRoundTrip(new SpillableOutputStream(THRESHOLD, false), 0, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void readAfterClose() throws IOException {
+        SpillableOutputStream out = new SpillableOutputStream();
+        out.write(1);
+        out.close();
+        out.openInputStream();
+    }
+
+    private static void assertRoundTrip(SpillableOutputStream out, int length, boolean spilled) throws IOException {
+        byte[] expected = new byte[length];
+        new Random(length).nextBytes(expected);
+
+        try {
+            // Mix single-byte writes and writes of various lengths
+            int written = 0;
+            Random random = new Random(1);
+            while (written < length) {
+                if (random.nextBoolean()) {
+                    out.write(expected[written++]);
+                } else {
+                    int len = Math.min(length - written, random.nextInt(3000));
+                    out.write(expected, written, len);
+                    written += len;
+                }
+            }
+            Assert.assertEquals(length, out.size());
+            Assert.assertEquals(spilled, out.isSpilled());
+
+            // Contents can be read multiple times
+            for (int n = 0; n < 2; n++) {
+                InputStream in = out.openInputStream();
+                try {
+                    assertEquals(expected, StreamUtil.readBytes(in));
+                } finally {
+                    in.close();
+                }
+            }
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            out.writeTo(bout);
+            assertEquals(expected, bout.toByteArray());
+
+            bout.reset();
+            out.transferTo(Channels.newChannel(bout));
+            assertEquals(expected, bout.toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void assertEquals(byte[] expected, byte[] actual) {
+        Assert.assertEquals(true, Arrays.equals(expected, actual));
+    }
+
+}
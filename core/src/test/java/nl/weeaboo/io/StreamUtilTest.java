@@ -0,0 +1,147 @@
+package nl.weeaboo.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class StreamUtilTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final byte[] CONTENTS = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    /** The expected length is only a hint, the actual length of the stream is always used */
+    @Test
+    public void readBytesExpectedLength() throws IOException {
+        assertReadBytes(0);
+        assertReadBytes(1);
+        assertReadBytes(CONTENTS.length - 1);
+        assertReadBytes(CONTENTS.length);
+        assertReadBytes(CONTENTS.length + 1);
+    }
+
+    /** The number of available bytes reported by the stream is only an estimate */
+    @Test
+    public void readBytesOverreportedAvailable() throws IOException {
+        InputStream in = new ByteArrayInputStream(CONTENTS) {
+            @Override
+            public synchronized int available() {
+                return Integer.MAX_VALUE;
+            }
+        };
+        Assert.assertEquals(true, Arrays.equals(CONTENTS, StreamUtil.readBytes(in)));
+    }
+
+    /** Reading a stream that's much longer than expected */
+    @Test
+    public void readBytesGrow() throws IOException {
+        byte[] contents = new byte[100000];
+        for (int n = 0; n < contents.length; n++) {
+            contents[n] = (byte)n;
+        }
+
+        byte[] read = StreamUtil.readBytes(new ByteArrayInputStream(contents), 10);
+        Assert.assertEquals(true, Arrays.equals(contents, read));
+    }
+
+    /** Copying from a FileInputStream that isn't backed by a regular file (a named pipe) */
+    @Test
+    public void writeBytesFromPipe() throws IOException, InterruptedException {
+        final File fifo = new File(tempFolder.getRoot(), "fifo");
+        try {
+            Process process = new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start();
+            if (process.waitFor() != 0) {
+                return; // Named pipes aren't supported on this platform
+            }
+        } catch (IOException ioe) {
+            return; // Named pipes aren't supported on this platform
+        }
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    FileOutputStream out = new FileOutputStream(fifo);
+                    try {
+                        out.write(CONTENTS);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException ioe) {
+                    throw new RuntimeException(ioe);
+                }
+            }
+        };
+        writer.start();
+
+        File outputFile = tempFolder.newFile("out");
+        FileInputStream in = new FileInputStream(fifo);
+        try {
+            FileOutputStream out = new FileOutputStream(outputFile);
+            try {
+                StreamUtil.writeBytes(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        writer.join();
+
+        in = new FileInputStream(outputFile);
+        try {
+            Assert.assertEquals(true, Arrays.equals(CONTENTS, StreamUtil.readBytes(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Copying between file streams doesn't use their channels, so an interrupt doesn't close the streams */
+    @Test
+    public void writeBytesInterrupted() throws IOException {
+        File inputFile = tempFolder.newFile("in");
+        FileOutputStream out = new FileOutputStream(inputFile);
+        try {
+            out.write(CONTENTS);
+        } finally {
+            out.close();
+        }
+
+        FileInputStream in = new FileInputStream(inputFile);
+        try {
+            out = new FileOutputStream(tempFolder.newFile("out"));
+            try {
+                Thread.currentThread().interrupt();
+                try {
+                    StreamUtil.writeBytes(in, out);
+                } finally {
+                    Assert.assertEquals(true, Thread.interrupted());
+                }
+
+                Assert.assertEquals(true, in.getChannel().isOpen());
+                Assert.assertEquals(true, out.getChannel().isOpen());
+                Assert.assertEquals(CONTENTS.length, out.getChannel().size());
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertReadBytes(int expectedLength) throws IOException {
+        byte[] read = StreamUtil.readBytes(new ByteArrayInputStream(CONTENTS), expectedLength);
+        Assert.assertEquals(true, Arrays.equals(CONTENTS, read));
+    }
+
+}
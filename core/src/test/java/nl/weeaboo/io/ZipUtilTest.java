@@ -1,9 +1,12 @@
 package nl.weeaboo.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 import org.junit.After;
@@ -98,6 +101,30 @@ public class ZipUtilTest {
         }
     }
 
+    @Test
+    public void addStoredWithKnownCrc() throws IOException {
+        byte[] bytes = {1, 2, 3, 4};
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ZipUtil.writeStoredEntry(zout, "bytes", new ByteArrayInputStream(bytes), bytes.length, crc.getValue());
+
+        ZipFileArchive arc = openZipFile();
+        try {
+            Assert.assertArrayEquals(bytes, FileSystemUtil.readBytes(arc, FilePath.of("bytes")));
+        } finally {
+            arc.close();
+        }
+    }
+
+    /** If the supplied CRC doesn't match the file contents, an exception is thrown */
+    @Test(expected = ZipException.class)
+    public void addStoredWithWrongCrc() throws IOException {
+        byte[] bytes = {1, 2, 3, 4};
+
+        ZipUtil.writeStoredEntry(zout, "bytes", new ByteArrayInputStream(bytes), bytes.length, 12345);
+    }
+
     private ZipFileArchive openZipFile() throws IOException {
         zout.close();
 
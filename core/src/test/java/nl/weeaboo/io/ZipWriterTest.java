@@ -0,0 +1,185 @@
+package nl.weeaboo.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ZipWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File zipFile;
+    private byte[] contents;
+
+    @Before
+    public void before() throws IOException {
+        zipFile = tempFolder.newFile("test.zip");
+        contents = "contents of a stored entry".getBytes("UTF-8");
+    }
+
+    /** Stored entries with an unknown CRC are buffered when writing to a regular output stream */
+    @Test
+    public void storedEntryStream() throws IOException {
+        ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        try {
+            zipWriter.writeFolder("folder");
+            zipWriter.writeStoredEntry(newEntry("folder/a.txt", -1), new ByteArrayInputStream(contents));
+        } finally {
+            zipWriter.close();
+        }
+
+        assertZipContents();
+    }
+
+    /** When writing to a seekable target, the entry header is patched after writing the contents */
+    @Test
+    public void storedEntrySeekable() throws IOException {
+        ZipWriter zipWriter = new ZipWriter(RandomAccessUtil.wrap(new RandomAccessFile(zipFile, "rw")));
+        try {
+            zipWriter.writeFolder("folder");
+            zipWriter.writeStoredEntry(newEntry("folder/a.txt", -1), new ByteArrayInputStream(contents));
+        } finally {
+            zipWriter.close();
+        }
+
+        assertZipContents();
+    }
+
+    @Test
+    public void storedEntryKnownCrc() throws IOException {
+        ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        try {
+            zipWriter.writeFolder("folder");
+            zipWriter.writeStoredEntry(newEntry("folder/a.txt", crc(contents)), new ByteArrayInputStream(contents));
+        } finally {
+            zipWriter.close();
+        }
+
+        assertZipContents();
+    }
+
+    @Test(expected = ZipException.class)
+    public void storedEntryWrongCrc() throws IOException {
+        ZipWriter zipWriter = new ZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        try {
+            zipWriter.writeStoredEntry(newEntry("a.txt", 12345), new ByteArrayInputStream(contents));
+        } finally {
+            zipWriter.close();
+        }
+    }
+
+    /** Changing the local header offset of a central directory header, adding a ZIP64 extra field if needed */
+    @Test
+    public void changeHeaderOffset() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(46 + 5 + 6 + 1);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, 0x02014b50);
+        header.putShort(6, (short)20); // Version needed to extract
+        header.putShort(28, (short)5); // Name length
+        header.putShort(30, (short)6); // Extra field length
+        header.putShort(32, (short)1); // Comment length
+        header.putInt(42, 1234);
+        header.position(46);
+        header.put("a.txt".getBytes("UTF-8"));
+        header.put(new byte[] { (byte)0xFE, (byte)0xCA, 2, 0, 1, 2 });
+        header.put((byte)'c');
+
+        // 32-bit offset
+        ByteBuffer changed = wrap(ZipWriter.withHeaderOffset(header.array(), 100));
+        Assert.assertEquals(header.capacity(), changed.capacity());
+        Assert.assertEquals(100, changed.getInt(42));
+        changed.putInt(42, 1234);
+        Assert.assertArrayEquals(header.array(), changed.array());
+
+        // 64-bit offset, a ZIP64 extra field is added after the existing extra field
+        final long largeOffset = 5L << 30;
+        changed = wrap(ZipWriter.withHeaderOffset(header.array(), largeOffset));
+        Assert.assertEquals(header.capacity() + 12, changed.capacity());
+        Assert.assertEquals(45, changed.getShort(6));
+        Assert.assertEquals(6 + 12, changed.getShort(30));
+        Assert.assertEquals(-1, changed.getInt(42));
+        Assert.assertEquals(0x0001, changed.getShort(46 + 5 + 6));
+        Assert.assertEquals(8, changed.getShort(46 + 5 + 6 + 2));
+        Assert.assertEquals(largeOffset, changed.getLong(46 + 5 + 6 + 4));
+        Assert.assertEquals('c', changed.get(changed.capacity() - 1));
+
+        // The existing ZIP64 offset is overwritten
+        changed = wrap(ZipWriter.withHeaderOffset(changed.array(), 200));
+        Assert.assertEquals(header.capacity() + 12, changed.capacity());
+        Assert.assertEquals(-1, changed.getInt(42));
+        Assert.assertEquals(200, changed.getLong(46 + 5 + 6 + 4));
+    }
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    private ZipEntry newEntry(String name, long crc) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setSize(contents.length);
+        if (crc >= 0) {
+            entry.setCrc(crc);
+        }
+        return entry;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private void assertZipContents() throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Assert.assertEquals(true, zip.getEntry("folder/").isDirectory());
+
+            ZipEntry entry = zip.getEntry("folder/a.txt");
+            Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+            Assert.assertEquals(crc(contents), entry.getCrc());
+            assertContents(zip.getInputStream(entry));
+        } finally {
+            zip.close();
+        }
+
+        // The local headers must also be valid, check using a streaming reader
+        ZipInputStream zin = new ZipInputStream(new FileInputStream(zipFile));
+        try {
+            Assert.assertEquals("folder/", zin.getNextEntry().getName());
+            ZipEntry entry = zin.getNextEntry();
+            Assert.assertEquals("folder/a.txt", entry.getName());
+            Assert.assertEquals(contents.length, entry.getSize());
+            Assert.assertEquals(crc(contents), entry.getCrc());
+            assertContents(zin);
+        } finally {
+            zin.close();
+        }
+    }
+
+    private void assertContents(InputStream in) throws IOException {
+        Assert.assertEquals(true, Arrays.equals(contents, StreamUtil.readBytes(in)));
+    }
+
+}
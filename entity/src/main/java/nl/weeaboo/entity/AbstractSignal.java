@@ -2,7 +2,7 @@ package nl.weeaboo.entity;
 
 public abstract class AbstractSignal implements ISignal {
 
-    private boolean handled;
+    private volatile boolean handled;
     
     @Override
     public boolean isHandled() {
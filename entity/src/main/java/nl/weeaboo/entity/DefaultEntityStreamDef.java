@@ -7,12 +7,14 @@ public final class DefaultEntityStreamDef extends EntityStreamDef {
     public static final DefaultEntityStreamDef ALL_ENTITIES_STREAM = new DefaultEntityStreamDef();
 
     private final PartType<?>[] requiredParts;
+    private final PartSignature requiredSignature;
 
     /**
      * @param required The required parts that an entity must have to be considered part of this stream.
      */
     public DefaultEntityStreamDef(PartType<?>... required) {
         requiredParts = required.clone();
+        requiredSignature = PartSignature.of(requiredParts);
     }
 
     @Override
@@ -37,12 +39,12 @@ public final class DefaultEntityStreamDef extends EntityStreamDef {
 
     @Override
     public boolean accept(Entity e) {
-        for (PartType<?> partType : requiredParts) {
-            if (!e.hasPart(partType)) {
-                return false;
-            }
-        }
-        return true;
+        return e.getSignature().containsAll(requiredSignature);
+    }
+
+    @Override
+    PartSignature getRequiredSignature() {
+        return requiredSignature;
     }
 
 }
@@ -2,7 +2,6 @@ package nl.weeaboo.entity;
 
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 import nl.weeaboo.io.IReadResolveSerializable;
 import nl.weeaboo.io.IWriteReplaceSerializable;
@@ -53,6 +52,11 @@ public final class Entity implements IWriteReplaceSerializable {
      */
     private int partsCount = 0;
 
+    /**
+     * Bitset of the PartType ids of all attached parts. Derived from the parts array, so not serialized.
+     */
+    private transient PartSignature signature = PartSignature.EMPTY;
+
     // -------------------------------------------------------------------------
 
     Entity(Scene scene, int id) {
@@ -70,26 +74,13 @@ public final class Entity implements IWriteReplaceSerializable {
         scene = null;
         parts = EMPTY;
         partsCount = 0;
+        signature = PartSignature.EMPTY;
     }
 
-    void serialize(ObjectOutput out) throws IOException {
-        out.writeInt(id);
-
-        final int partsL = parts.length;
-        out.writeInt(partsCount);
-        out.writeInt(partsL);
-        for (int n = 0; n < partsL; n++) {
-            if (parts[n] != null) {
-                if (partsL < 256) {
-                    out.writeByte(n);
-                } else {
-                    out.writeInt(n);
-                }
-                out.writeObject(parts[n]);
-            }
-        }
-    }
-
+    /**
+     * Reads an entity stored in the legacy serialization format, which stores the parts of each entity using Java
+     * serialization. Entities are now written column-wise by {@link EntityManager}.
+     */
     void deserialize(Scene s, ObjectInput in) throws IOException, ClassNotFoundException {
         reset();
 
@@ -102,6 +93,7 @@ public final class Entity implements IWriteReplaceSerializable {
         for (int n = 0; n < partsCount; n++) {
             int index = (partsL < 256 ? in.readByte() & 0xFF : in.readInt());
             parts[index] = (IPart)in.readObject();
+            signature = signature.with(index);
         }
 
         s.registerEntity(this, false);
@@ -148,6 +140,21 @@ public final class Entity implements IWriteReplaceSerializable {
         parts = newParts;
     }
 
+    /**
+     * Attaches a part while loading a serialized scene. Doesn't register the part with the scene; that happens when
+     * the entity itself gets registered.
+     */
+    void loadPart(int partId, IPart part) {
+        if (partId >= parts.length) {
+            reserveRoomForPart(partId);
+        }
+        if (parts[partId] == null) {
+            partsCount++;
+        }
+        parts[partId] = part;
+        signature = signature.with(partId);
+    }
+
     /**
      * Returns the unique identifier for this entity.
      */
@@ -184,6 +191,14 @@ public final class Entity implements IWriteReplaceSerializable {
         return result;
     }
 
+    /**
+     * Returns the length of the internal parts array. Part ids greater than or equal to this value are never attached
+     * to this entity.
+     */
+    int partsLength() {
+        return parts.length;
+    }
+
     /**
      * Adds a new part to the entity.
      *
@@ -267,13 +282,14 @@ public final class Entity implements IWriteReplaceSerializable {
 
             if (oldPart == null) {
                 partsCount++; // Filled an empty slot
+                signature = signature.with(partId);
             } else {
                 if (scene != null) {
-                    scene.unregisterPart(this, oldPart, true);
+                    scene.unregisterPart(this, partId, oldPart, true);
                 }
             }
             if (scene != null) {
-                scene.registerPart(this, part, true);
+                scene.registerPart(this, partId, part, true);
             }
         } else if (partId >= 0 && partId < parts.length) {
             //Remove part
@@ -282,13 +298,21 @@ public final class Entity implements IWriteReplaceSerializable {
 
             if (oldPart != null) {
                 partsCount--; // Cleared a filled slot
+                signature = signature.without(partId);
                 if (scene != null) {
-                    scene.unregisterPart(this, oldPart, true);
+                    scene.unregisterPart(this, partId, oldPart, true);
                 }
             }
         }
     }
 
+    /**
+     * Returns a bitset containing the PartType ids of the parts attached to this entity.
+     */
+    PartSignature getSignature() {
+        return signature;
+    }
+
     /**
      * Returns the number of parts attached to this entity.
      */
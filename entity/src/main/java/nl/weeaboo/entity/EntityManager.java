@@ -2,18 +2,29 @@ package nl.weeaboo.entity;
 
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import nl.weeaboo.collections.IntMap;
+import nl.weeaboo.common.Checks;
 
 /**
  * Helper object for Scene to keep track of its entities.
  */
 final class EntityManager {
 
+    private static final IdComparator ID_ORDER = new IdComparator();
+
     // -------------------------------------------------------------------------
     // * Attributes must be serialized manually
     // * Update reset method after adding/removing attributes
@@ -22,6 +33,19 @@ final class EntityManager {
     private final IntMap<Entity> entities = new IntMap<Entity>();
     private final Map<EntityStreamDef, EntityStream> streamMap = new HashMap<EntityStreamDef, EntityStream>();
     private int idGenerator;
+
+    /** Entities grouped by the set of part types attached to them. Rebuilt during deserialization. */
+    private final Map<PartSignature, IntMap<Entity>> archetypes = new HashMap<PartSignature, IntMap<Entity>>();
+
+    /** The signature under which each entity is currently stored in {@link #archetypes}. */
+    private final IntMap<PartSignature> indexedSignatures = new IntMap<PartSignature>();
+
+    /**
+     * Stream notifications are deferred while {@code batchDepth > 0}. Stores the signature of each changed entity
+     * before its first change in the batch, or {@code null} if the entity wasn't attached at that point.
+     */
+    private int batchDepth;
+    private final Map<Entity, PartSignature> batchChanges = new IdentityHashMap<Entity, PartSignature>();
     // -------------------------------------------------------------------------
 
     public EntityManager(Scene s) {
@@ -32,28 +56,159 @@ final class EntityManager {
         entities.clear();
         streamMap.clear();
         idGenerator = 0;
+        archetypes.clear();
+        indexedSignatures.clear();
+        batchDepth = 0;
+        batchChanges.clear();
+    }
+
+    void serialize(SnapshotOutput out) throws IOException {
+        writeEntities(out, entities);
+
+        // The contents of streamMap are not serialized
     }
 
-    void serialize(ObjectOutput out) throws IOException {
-        out.writeInt(entities.size());
-        for (int n = 0; n < entities.size(); n++) {
+    /**
+     * Writes the ids of removed entities, followed by the changed entities.
+     */
+    void serializeDelta(SnapshotOutput out, IntMap<Entity> changed, List<Integer> removedIds) throws IOException {
+        out.writeVarInt(removedIds.size());
+        int lastId = 0;
+        for (int removedId : removedIds) {
+            out.writeVarInt(removedId - lastId);
+            lastId = removedId;
+        }
+
+        writeEntities(out, changed);
+    }
+
+    private static void writeEntities(SnapshotOutput out, IntMap<Entity> entities) throws IOException {
+        final int entitiesL = entities.size();
+
+        // Entity ids are stored in ascending order, so only the difference with the previous id is written
+        out.writeVarInt(entitiesL);
+        int lastId = 0;
+        int maxPartsLength = 0;
+        for (int n = 0; n < entitiesL; n++) {
             Entity e = entities.valueAt(n);
-            e.serialize(out);
+            out.writeVarInt(e.getId() - lastId);
+            lastId = e.getId();
+            maxPartsLength = Math.max(maxPartsLength, e.partsLength());
         }
 
-        // The contents of streamMap are not serialized
+        // Parts are stored column-wise, grouped by part type
+        int[] columnSizes = new int[maxPartsLength];
+        int columnsL = 0;
+        for (int n = 0; n < entitiesL; n++) {
+            Entity e = entities.valueAt(n);
+            for (int partId = 0; partId < e.partsLength(); partId++) {
+                if (e.getPart(partId) != null && columnSizes[partId]++ == 0) {
+                    columnsL++;
+                }
+            }
+        }
+
+        out.writeVarInt(columnsL);
+        for (int partId = 0; partId < maxPartsLength; partId++) {
+            if (columnSizes[partId] == 0) {
+                continue;
+            }
+
+            out.writeVarInt(partId);
+            out.writeVarInt(columnSizes[partId]);
+
+            // Entity indices (delta-encoded), followed by the parts
+            int lastIndex = 0;
+            for (int n = 0; n < entitiesL; n++) {
+                if (entities.valueAt(n).getPart(partId) != null) {
+                    out.writeVarInt(n - lastIndex);
+                    lastIndex = n;
+                }
+            }
+            for (int n = 0; n < entitiesL; n++) {
+                IPart part = entities.valueAt(n).getPart(partId);
+                if (part != null) {
+                    out.writePart(partId, part);
+                }
+            }
+        }
     }
 
-    void deserialize(Scene s, ObjectInput in) throws IOException, ClassNotFoundException {
+    void deserialize(Scene s, SnapshotInput in) throws IOException, ClassNotFoundException {
         reset();
 
         scene = s;
 
-        int entitiesL = in.readInt();
+        if (in.isLegacyFormat()) {
+            ObjectInput legacyIn = in.getInput();
+            int entitiesL = legacyIn.readInt();
+            for (int n = 0; n < entitiesL; n++) {
+                Entity e = new Entity(s, 0);
+                e.deserialize(s, legacyIn);
+            }
+            return;
+        }
+
+        for (Entity e : readEntities(s, in)) {
+            s.registerEntity(e, false);
+        }
+    }
+
+    /**
+     * Applies changes written by {@link #serializeDelta(SnapshotOutput, IntMap, List)}. Changed entities replace the
+     * existing entity with the same id.
+     */
+    void deserializeDelta(Scene s, SnapshotInput in) throws IOException, ClassNotFoundException {
+        final int removedL = in.readVarInt();
+        int removedId = 0;
+        for (int n = 0; n < removedL; n++) {
+            removedId += in.readVarInt();
+            Entity removed = entities.get(removedId);
+            if (removed != null) {
+                s.unregisterEntity(removed, false);
+            }
+        }
+
+        for (Entity e : readEntities(s, in)) {
+            Entity existing = entities.get(e.getId());
+            if (existing != null) {
+                s.unregisterEntity(existing, false);
+            }
+            s.registerEntity(e, false);
+        }
+    }
+
+    private static Entity[] readEntities(Scene s, SnapshotInput in) throws IOException, ClassNotFoundException {
+        final int entitiesL = in.readVarInt();
+        Entity[] loaded = new Entity[entitiesL];
+        int id = 0;
         for (int n = 0; n < entitiesL; n++) {
-            Entity e = new Entity(s, 0);
-            e.deserialize(s, in);
+            id += in.readVarInt();
+            loaded[n] = new Entity(s, id);
         }
+
+        final int columnsL = in.readVarInt();
+        for (int c = 0; c < columnsL; c++) {
+            int partId = in.readVarInt();
+            int columnSize = in.readVarInt();
+            if (columnSize > entitiesL) {
+                throw new IOException("Invalid column size for part type " + partId + ": " + columnSize);
+            }
+
+            int[] indices = new int[columnSize];
+            int index = 0;
+            for (int n = 0; n < columnSize; n++) {
+                index += in.readVarInt();
+                if (index >= entitiesL) {
+                    throw new IOException("Invalid entity index for part type " + partId + ": " + index);
+                }
+                indices[n] = index;
+            }
+            for (int n = 0; n < columnSize; n++) {
+                loaded[indices[n]].loadPart(partId, in.readPart(partId));
+            }
+        }
+        return loaded;
     }
 
     int generateId() {
@@ -61,15 +216,117 @@ final class EntityManager {
         return idGenerator;
     }
 
-    public void invalidateStreams() {
+    /**
+     * Notifies the entity streams that the parts of an entity changed.
+     */
+    public void onEntityUpdated(Entity e) {
+        if (entities.get(e.getId()) != e) {
+            return; // Entity isn't (or no longer) attached
+        }
+
+        PartSignature oldSignature = indexedSignatures.get(e.getId());
+        PartSignature newSignature = e.getSignature();
+        if (!newSignature.equals(oldSignature)) {
+            unindex(e);
+            index(e);
+        }
+
+        notifyStreams(e, oldSignature, newSignature);
+    }
+
+    /**
+     * Starts a batch of changes. Until the matching call to {@link #endBatch()}, stream notifications are collected
+     * and then sent at most once per changed entity.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes.
+     *
+     * @see #beginBatch()
+     */
+    public void endBatch() {
+        Checks.checkState(batchDepth > 0, "endBatch() called without a matching beginBatch()");
+        if (--batchDepth > 0) {
+            return;
+        }
+
+        Map<Entity, PartSignature> changes = new IdentityHashMap<Entity, PartSignature>(batchChanges);
+        batchChanges.clear();
+        for (Map.Entry<Entity, PartSignature> entry : changes.entrySet()) {
+            Entity e = entry.getKey();
+            PartSignature newSignature = (entities.get(e.getId()) == e ? e.getSignature() : null);
+            notifyStreams(e, entry.getValue(), newSignature);
+        }
+    }
+
+    /**
+     * Notifies the entity streams of a change to an entity.
+     *
+     * @param oldSignature The entity signature before the change, or {@code null} if the entity was just added.
+     * @param newSignature The entity signature after the change, or {@code null} if the entity was just removed.
+     */
+    private void notifyStreams(Entity e, @Nullable PartSignature oldSignature,
+            @Nullable PartSignature newSignature) {
+
+        if (batchDepth > 0) {
+            if (!batchChanges.containsKey(e)) {
+                batchChanges.put(e, oldSignature);
+            }
+            return;
+        }
+
         for (EntityStream stream : streamMap.values()) {
-            stream.invalidate();
+            PartSignature required = stream.getDef().getRequiredSignature();
+            boolean wasIncluded = (oldSignature != null && oldSignature.containsAll(required));
+            boolean isIncluded = (newSignature != null && newSignature.containsAll(required));
+            if (newSignature == null) {
+                if (wasIncluded) {
+                    stream.onEntityRemoved(e);
+                }
+            } else if (oldSignature == null) {
+                if (isIncluded) {
+                    stream.onEntityAdded(e);
+                }
+            } else if (wasIncluded || isIncluded) {
+                stream.onEntityUpdated(e);
+            }
+        }
+    }
+
+    private void index(Entity e) {
+        PartSignature signature = e.getSignature();
+        IntMap<Entity> archetype = archetypes.get(signature);
+        if (archetype == null) {
+            archetype = new IntMap<Entity>();
+            archetypes.put(signature, archetype);
         }
+        archetype.put(e.getId(), e);
+        indexedSignatures.put(e.getId(), signature);
+    }
+
+    private PartSignature unindex(Entity e) {
+        PartSignature signature = indexedSignatures.remove(e.getId());
+        IntMap<Entity> archetype = archetypes.get(signature);
+        if (archetype != null) {
+            archetype.remove(e.getId());
+            if (archetype.isEmpty()) {
+                archetypes.remove(signature);
+            }
+        }
+        return signature;
     }
 
     private EntityStream newEntityStream(EntityStreamDef esd) {
         EntityStream stream = new EntityStream(esd);
-        stream.setSource(entities.values());
+        PartSignature required = esd.getRequiredSignature();
+        if (required.isEmpty()) {
+            stream.setSource(entities.values());
+        } else {
+            stream.setSource(new ArchetypeView(required));
+        }
         return stream;
     }
 
@@ -85,14 +342,15 @@ final class EntityManager {
                 throw new IllegalStateException("New entity replaced a different entity with the same ID ("
                         + e.getId() + "). This should not be possible.");
             }
-            invalidateStreams();
+            index(e);
+            notifyStreams(e, null, e.getSignature());
         }
     }
 
     public boolean remove(Entity e) {
         Entity removed = entities.remove(e.getId());
         if (removed != null) {
-            invalidateStreams();
+            notifyStreams(removed, unindex(removed), null);
             return true;
         }
         return false;
@@ -126,4 +384,52 @@ final class EntityManager {
         return streamMap.remove(esd) != null;
     }
 
+    /**
+     * Read-only view of all entities belonging to archetypes that contain the required parts. Entities are returned in
+     * the same order as the full entity list.
+     */
+    private final class ArchetypeView implements Iterable<Entity> {
+
+        private final PartSignature required;
+
+        public ArchetypeView(PartSignature required) {
+            this.required = required;
+        }
+
+        @Override
+        public Iterator<Entity> iterator() {
+            List<Entity> result = new ArrayList<Entity>();
+            int matched = 0;
+            for (Map.Entry<PartSignature, IntMap<Entity>> entry : archetypes.entrySet()) {
+                if (entry.getKey().containsAll(required)) {
+                    IntMap<Entity> archetype = entry.getValue();
+                    int count = archetype.size();
+                    for (int n = 0; n < count; n++) {
+                        result.add(archetype.valueAt(n));
+                    }
+                    matched++;
+                }
+            }
+
+            if (matched > 1) {
+                Collections.sort(result, ID_ORDER);
+            }
+            return Collections.unmodifiableList(result).iterator();
+        }
+
+    }
+
+    private static final class IdComparator implements Comparator<Entity>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(Entity a, Entity b) {
+            int aId = a.getId();
+            int bId = b.getId();
+            return (aId < bId ? -1 : (aId == bId ? 0 : 1));
+        }
+
+    }
+
 }
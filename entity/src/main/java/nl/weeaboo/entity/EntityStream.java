@@ -1,21 +1,43 @@
 package nl.weeaboo.entity;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Maintains a filtered and sorted view of a collection of entities.
  */
 public final class EntityStream implements Iterable<Entity> {
 
+    private static final Entity[] EMPTY = {};
+
+    /** Minimum number of entities per task when sending a signal in parallel. */
+    private static final int MIN_SIGNAL_CHUNK = 64;
+
     private final EntityStreamDef esd;
     private Iterable<Entity> sourceCollection = null;
+    private boolean incremental;
 
     private transient Itr itr;
     private transient Entity[] tempArray;
     private transient int tempArrayL;
 
+    /**
+     * Entities that changed since the last call to {@link #validate()}. Only used in incremental mode. The value is
+     * {@code true} if the entity needs to be re-evaluated, or {@code false} if it was removed from the source.
+     */
+    private final transient Map<Entity, Boolean> pending = new IdentityHashMap<Entity, Boolean>();
+
     /**
      * @param esd Stream definition containing the filter and sort logic.
      */
@@ -47,6 +69,80 @@ public final class EntityStream implements Iterable<Entity> {
 
         tempArray = null;
         tempArrayL = 0;
+        pending.clear();
+    }
+
+    /**
+     * Invalidates the cached state for a single entity, for example after changing a value that affects the sort
+     * order. In non-incremental mode, this is equivalent to {@link #invalidate()}.
+     */
+    public void invalidate(Entity e) {
+        onEntityUpdated(e);
+    }
+
+    /**
+     * Returns the stream definition containing the filter and sort logic.
+     */
+    EntityStreamDef getDef() {
+        return esd;
+    }
+
+    /**
+     * Returns {@code true} if this stream is in incremental mode.
+     *
+     * @see #setIncremental(boolean)
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Enables or disables incremental mode. By default, every change to the scene causes the stream to be rebuilt
+     * from scratch the next time it's used. In incremental mode, the stream instead keeps track of the individual
+     * entities that changed and merges those into the existing sorted result.
+     * <p>
+     * Incremental mode requires that an entity's sort order only changes when one of its parts is added/removed, or
+     * when the change is reported through {@link #invalidate(Entity)}.
+     */
+    public void setIncremental(boolean incremental) {
+        if (this.incremental != incremental) {
+            this.incremental = incremental;
+            invalidate();
+        }
+    }
+
+    /**
+     * Called when an entity is added to the source collection.
+     */
+    void onEntityAdded(Entity e) {
+        onEntityUpdated(e);
+    }
+
+    /**
+     * Called when an entity is removed from the source collection.
+     */
+    void onEntityRemoved(Entity e) {
+        onEntityChanged(e, false);
+    }
+
+    /**
+     * Called when an entity in the source collection changes in a way that may affect its inclusion or position in
+     * this stream.
+     */
+    void onEntityUpdated(Entity e) {
+        onEntityChanged(e, true);
+    }
+
+    private void onEntityChanged(Entity e, boolean present) {
+        if (!incremental) {
+            invalidate();
+            return;
+        }
+
+        invalidateItr();
+        if (tempArray != null) {
+            pending.put(e, present);
+        }
     }
 
     /**
@@ -73,6 +169,9 @@ public final class EntityStream implements Iterable<Entity> {
 
     private void validate() {
         if (tempArray != null) {
+            if (!pending.isEmpty()) {
+                applyPending();
+            }
             return;
         }
 
@@ -98,6 +197,62 @@ public final class EntityStream implements Iterable<Entity> {
         Arrays.sort(tempArray, 0, tempArrayL, esd);
     }
 
+    /**
+     * Merges the pending changes into the existing sorted array.
+     */
+    private void applyPending() {
+        // Remove all changed entities from the sorted array
+        int newL = 0;
+        for (int n = 0; n < tempArrayL; n++) {
+            Entity e = tempArray[n];
+            if (!pending.containsKey(e)) {
+                tempArray[newL++] = e;
+            }
+        }
+        Arrays.fill(tempArray, newL, tempArrayL, null);
+        tempArrayL = newL;
+
+        // Re-evaluate the changed entities that are still part of the source collection
+        Entity[] added = EMPTY;
+        int addedL = 0;
+        for (Map.Entry<Entity, Boolean> entry : pending.entrySet()) {
+            Entity e = entry.getKey();
+            if (entry.getValue() && esd.accept(e)) {
+                if (addedL >= added.length) {
+                    added = Arrays.copyOf(added, Math.max(8, addedL * 2));
+                }
+                added[addedL++] = e;
+            }
+        }
+        pending.clear();
+
+        if (addedL > 0) {
+            Arrays.sort(added, 0, addedL, esd);
+            merge(added, addedL);
+        }
+    }
+
+    /**
+     * Merges a sorted batch of entities into the sorted array. The merge is performed in-place, starting from the end.
+     */
+    private void merge(Entity[] added, int addedL) {
+        final int newL = tempArrayL + addedL;
+        if (newL > tempArray.length) {
+            tempArray = Arrays.copyOf(tempArray, Math.max(newL, tempArray.length * 2));
+        }
+
+        int a = tempArrayL - 1;
+        int b = addedL - 1;
+        for (int dst = newL - 1; b >= 0; dst--) {
+            if (a >= 0 && esd.compare(tempArray[a], added[b]) > 0) {
+                tempArray[dst] = tempArray[a--];
+            } else {
+                tempArray[dst] = added[b--];
+            }
+        }
+        tempArrayL = newL;
+    }
+
     /**
      * Sends a signal to all entities in this stream.
      */
@@ -111,6 +266,63 @@ public final class EntityStream implements Iterable<Entity> {
         }
     }
 
+    /**
+     * Sends a signal to all entities in this stream. If the signal is an {@link IUnorderedSignal}, the stream is split
+     * into chunks which are processed in parallel by the supplied executor. Other signals are sent in order on the
+     * calling thread, just like {@link #sendSignal(ISignal)}.
+     * <p>
+     * This method blocks until the signal has been delivered. If a signal handler fails or the calling thread is
+     * interrupted, chunks that haven't started yet are skipped. Chunks that are already being processed are always
+     * allowed to finish before this method returns, so no signal handlers are running afterwards.
+     *
+     * @throws RuntimeException If a signal handler throws an exception, or the calling thread is interrupted while
+     *         waiting. In the latter case, the thread's interrupted status is set. The signal may only have been
+     *         delivered to some of the entities.
+     */
+    public void sendSignal(ISignal signal, ExecutorService executor) {
+        if (!(signal instanceof IUnorderedSignal)) {
+            sendSignal(signal);
+            return;
+        }
+
+        validate();
+
+        final Entity[] array = tempArray;
+        final int len = tempArrayL;
+        final int chunkSize = Math.max(MIN_SIGNAL_CHUNK, len / (4 * Runtime.getRuntime().availableProcessors()));
+
+        List<SignalTask> tasks = new ArrayList<SignalTask>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int start = 0; start < len; start += chunkSize) {
+                SignalTask task = new SignalTask(signal, array, start, Math.min(len, start + chunkSize));
+                tasks.add(task);
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending signal", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            for (SignalTask task : tasks) {
+                task.skipOrAwait();
+            }
+        }
+    }
+
     /**
      * Sets the source collection this entity stream is a sorted, filtered view of.
      */
@@ -120,6 +332,69 @@ public final class EntityStream implements Iterable<Entity> {
     }
 
     // Inner classes
+    private static final class SignalTask implements Callable<Void> {
+
+        private final ISignal signal;
+        private final Entity[] array;
+        private final int start;
+        private final int end;
+
+        /** Set by whichever happens first: the task starting, or the task being skipped */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        public SignalTask(ISignal signal, Entity[] array, int start, int end) {
+            this.signal = signal;
+            this.array = array;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null; // Skipped
+            }
+
+            try {
+                for (int n = start; n < end; n++) {
+                    if (signal.isHandled()) {
+                        break;
+                    }
+
+                    array[n].handleSignal(signal);
+                }
+            } finally {
+                finished.countDown();
+            }
+            return null;
+        }
+
+        /**
+         * Prevents the task from running if it hasn't started yet. Otherwise, waits for it to finish. Waiting can't be
+         * interrupted, but the thread's interrupted status is preserved.
+         */
+        void skipOrAwait() {
+            if (claimed.compareAndSet(false, true)) {
+                return;
+            }
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
     private static class Itr implements Iterator<Entity> {
 
         private final Entity[] array;
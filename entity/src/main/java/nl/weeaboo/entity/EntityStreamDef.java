@@ -15,4 +15,12 @@ public abstract class EntityStreamDef implements Comparator<Entity> {
      */
     public abstract boolean accept(Entity e);
 
+    /**
+     * Returns the parts an entity must have to be accepted by this stream definition. Entities without these parts
+     * aren't passed to {@link #accept(Entity)}, which allows the stream to skip them entirely.
+     */
+    PartSignature getRequiredSignature() {
+        return PartSignature.EMPTY;
+    }
+
 }
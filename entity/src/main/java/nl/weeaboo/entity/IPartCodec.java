@@ -0,0 +1,29 @@
+package nl.weeaboo.entity;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+
+/**
+ * Compact binary encoding for the parts of a single {@link PartType}. When a {@link World} is serialized, parts with
+ * a registered codec are written using the codec instead of Java serialization.
+ * <p>
+ * Codec-encoded parts are stored by value. Attaching the same part instance to multiple entities is preserved, but
+ * references to the part from other serialized objects are not.
+ *
+ * @see PartRegistry#setCodec(PartType, IPartCodec)
+ */
+public interface IPartCodec<T> extends Serializable {
+
+    /**
+     * Writes the state of a part to the output stream.
+     */
+    void write(T part, ObjectOutput out) throws IOException;
+
+    /**
+     * Reads a part previously written by {@link #write(Object, ObjectOutput)}.
+     */
+    T read(ObjectInput in) throws IOException, ClassNotFoundException;
+
+}
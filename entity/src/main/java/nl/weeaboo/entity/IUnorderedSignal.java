@@ -0,0 +1,14 @@
+package nl.weeaboo.entity;
+
+/**
+ * Marker interface for signals that may be delivered to entities in any order, possibly from multiple threads at
+ * the same time.
+ * <p>
+ * Implementations must make {@link #isHandled()}/{@link #setHandled()} thread-safe. The part signal handlers
+ * receiving this signal must also be thread-safe, and may not add/remove entities or parts while handling it.
+ *
+ * @see EntityStream#sendSignal(ISignal, java.util.concurrent.ExecutorService)
+ */
+public interface IUnorderedSignal extends ISignal {
+
+}
@@ -0,0 +1,138 @@
+package nl.weeaboo.entity;
+
+import java.util.Arrays;
+
+/**
+ * Densely packed storage of all parts of a single {@link PartType} within a scene. Systems that only need parts of
+ * one type can iterate over the column by index, instead of going through an {@link EntityStream} and looking up the
+ * part in each entity.
+ * <p>
+ * The order of the parts in the column is unspecified. Removing a part moves the last part in the column into the
+ * freed slot, so adding/removing parts while iterating over the column may cause parts to be skipped.
+ *
+ * @see Scene#getPartColumn(PartType)
+ */
+public final class PartColumn<T> {
+
+    private static final int[] EMPTY_INTS = {};
+    private static final int MIN_CAPACITY = 16;
+
+    private final PartType<T> type;
+
+    /** Maps entity ids to dense array indices. Stores {@code index + 1}, so that {@code 0} means 'absent'. */
+    private int[] sparse = EMPTY_INTS;
+
+    private Entity[] entities = new Entity[MIN_CAPACITY];
+    private IPart[] parts = new IPart[MIN_CAPACITY];
+    private int size;
+
+    PartColumn(PartType<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the part type stored in this column.
+     */
+    public PartType<T> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of parts in this column.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the part stored at the specified index.
+     *
+     * @throws ArrayIndexOutOfBoundsException If the index is outside the range {@code [0, size())}.
+     */
+    public T getPart(int index) {
+        checkIndex(index);
+        return type.cast(parts[index]);
+    }
+
+    /**
+     * Returns the entity that owns the part stored at the specified index.
+     *
+     * @throws ArrayIndexOutOfBoundsException If the index is outside the range {@code [0, size())}.
+     */
+    public Entity getEntity(int index) {
+        checkIndex(index);
+        return entities[index];
+    }
+
+    /**
+     * Returns the index of the part belonging to the specified entity, or {@code -1} if this column doesn't contain a
+     * part for that entity.
+     */
+    public int indexOf(Entity e) {
+        int index = indexOf(e.getId());
+        if (index >= 0 && entities[index] != e) {
+            return -1;
+        }
+        return index;
+    }
+
+    private int indexOf(int entityId) {
+        if (entityId < 0 || entityId >= sparse.length) {
+            return -1;
+        }
+        return sparse[entityId] - 1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index (" + index + ") out of bounds, size=" + size);
+        }
+    }
+
+    void put(Entity e, IPart part) {
+        final int entityId = e.getId();
+        int index = indexOf(entityId);
+        if (index >= 0) {
+            entities[index] = e;
+            parts[index] = part;
+            return;
+        }
+
+        if (entityId >= sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.max(entityId + 1, sparse.length * 2));
+        }
+        if (size >= parts.length) {
+            entities = Arrays.copyOf(entities, size * 2);
+            parts = Arrays.copyOf(parts, size * 2);
+        }
+
+        entities[size] = e;
+        parts[size] = part;
+        sparse[entityId] = ++size;
+    }
+
+    void remove(Entity e) {
+        final int index = indexOf(e);
+        if (index < 0) {
+            return;
+        }
+
+        // Move the last element into the freed slot
+        final int last = size - 1;
+        if (index != last) {
+            entities[index] = entities[last];
+            parts[index] = parts[last];
+            sparse[entities[index].getId()] = index + 1;
+        }
+        entities[last] = null;
+        parts[last] = null;
+        sparse[e.getId()] = 0;
+        size--;
+    }
+
+    @Override
+    public String toString() {
+        return "PartColumn[" + type.getName() + ", size=" + size + "]";
+    }
+
+}
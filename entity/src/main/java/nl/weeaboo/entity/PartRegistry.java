@@ -1,12 +1,17 @@
 package nl.weeaboo.entity;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import nl.weeaboo.collections.IntMap;
+import nl.weeaboo.common.Checks;
 
 /**
  * Maintains global mapping of String names and int ids to parts.
@@ -21,16 +26,27 @@ public class PartRegistry implements Serializable {
 
     private final Map<String, PartType<?>> entriesByName = new HashMap<String, PartType<?>>();
     private final IntMap<PartType<?>> entriesById = new IntMap<PartType<?>>();
+    private IntMap<IPartCodec<?>> codecsById = new IntMap<IPartCodec<?>>();
     private int idGenerator;
 
     // -------------------------------------------------------------------------
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        // Registries serialized before codecs were introduced don't contain the codecs map
+        if (codecsById == null) {
+            codecsById = new IntMap<IPartCodec<?>>();
+        }
+    }
+
     /**
      * Clears all entries in this part registry.
      */
     public void clear() {
         entriesByName.clear();
         entriesById.clear();
+        codecsById.clear();
         idGenerator = 0;
     }
 
@@ -61,6 +77,75 @@ public class PartRegistry implements Serializable {
         return entry;
     }
 
+    /**
+     * Registers a new part type in the registry, using a binary codec to serialize its parts.
+     *
+     * @see #register(String, Class)
+     * @see #setCodec(PartType, IPartCodec)
+     */
+    public <T> PartType<T> register(String name, Class<T> partInterface, IPartCodec<T> codec) {
+        PartType<T> entry = register(name, partInterface);
+        setCodec(entry, codec);
+        return entry;
+    }
+
+    /**
+     * Sets the codec used to serialize parts of the specified type. Parts without a codec are serialized using
+     * regular Java serialization.
+     *
+     * @param codec The codec, or {@code null} to remove the current codec.
+     * @throws IllegalArgumentException If the part type isn't registered in this registry.
+     */
+    public <T> void setCodec(PartType<T> type, @Nullable IPartCodec<T> codec) {
+        Checks.checkArgument(type.equals(entriesById.get(type.getId())), "Part type isn't registered: " + type);
+
+        if (codec == null) {
+            codecsById.remove(type.getId());
+        } else {
+            codecsById.put(type.getId(), codec);
+        }
+    }
+
+    /**
+     * Returns the codec used to serialize parts of the specified type, or {@code null} if parts of that type use
+     * regular Java serialization.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable <T> IPartCodec<T> getCodec(PartType<T> type) {
+        return (IPartCodec<T>)codecsById.get(type.getId());
+    }
+
+    /**
+     * Adds the part types and codecs of another registry which aren't in this registry yet. Existing part types keep
+     * their identity.
+     *
+     * @throws IOException If both registries contain a different part type with the same id or name.
+     */
+    void merge(PartRegistry other) throws IOException {
+        for (int n = 0; n < other.entriesById.size(); n++) {
+            PartType<?> type = other.entriesById.valueAt(n);
+            PartType<?> existing = entriesById.get(type.getId());
+            if (existing == null) {
+                if (entriesByName.containsKey(type.getName())) {
+                    throw new IOException("Conflicting part type: " + type.getName());
+                }
+                entriesByName.put(type.getName(), type);
+                entriesById.put(type.getId(), type);
+            } else if (!existing.equals(type)) {
+                throw new IOException("Conflicting part type: " + type.getName() + " <-> " + existing.getName());
+            }
+        }
+
+        for (int n = 0; n < other.codecsById.size(); n++) {
+            int id = other.codecsById.keyAt(n);
+            if (!codecsById.containsKey(id)) {
+                codecsById.put(id, other.codecsById.valueAt(n));
+            }
+        }
+
+        idGenerator = Math.max(idGenerator, other.idGenerator);
+    }
+
     /**
      * Returns information about the part registered under the given name.
      */
@@ -0,0 +1,129 @@
+package nl.weeaboo.entity;
+
+import java.util.Arrays;
+
+/**
+ * Immutable bitset of {@link PartType} ids. Used to quickly check which parts are attached to an entity.
+ */
+final class PartSignature {
+
+    static final PartSignature EMPTY = new PartSignature(new long[0]);
+
+    private final long[] words;
+    private final int hash;
+
+    private PartSignature(long[] words) {
+        this.words = words;
+        this.hash = Arrays.hashCode(words);
+    }
+
+    /**
+     * Returns a signature containing the ids of the supplied part types.
+     */
+    static PartSignature of(PartType<?>... types) {
+        PartSignature result = EMPTY;
+        for (PartType<?> type : types) {
+            result = result.with(type.getId());
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if the part id is contained in this signature.
+     */
+    boolean has(int partId) {
+        int index = partId >>> 6;
+        return index < words.length && (words[index] & (1L << partId)) != 0;
+    }
+
+    /**
+     * Returns {@code true} if all part ids in {@code other} are also contained in this signature.
+     */
+    boolean containsAll(PartSignature other) {
+        long[] otherWords = other.words;
+        if (otherWords.length > words.length) {
+            return false; // Highest word of a signature is never zero
+        }
+        for (int n = 0; n < otherWords.length; n++) {
+            if ((words[n] & otherWords[n]) != otherWords[n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if this signature is empty.
+     */
+    boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    /**
+     * Returns a copy of this signature with the specified part id added.
+     */
+    PartSignature with(int partId) {
+        if (has(partId)) {
+            return this;
+        }
+
+        int index = partId >>> 6;
+        long[] newWords = Arrays.copyOf(words, Math.max(words.length, index + 1));
+        newWords[index] |= 1L << partId;
+        return new PartSignature(newWords);
+    }
+
+    /**
+     * Returns a copy of this signature with the specified part id removed.
+     */
+    PartSignature without(int partId) {
+        if (!has(partId)) {
+            return this;
+        }
+
+        int index = partId >>> 6;
+        long[] newWords = words.clone();
+        newWords[index] &= ~(1L << partId);
+
+        // Trim trailing zero words, so equal signatures always have equal lengths
+        int newLength = newWords.length;
+        while (newLength > 0 && newWords[newLength - 1] == 0) {
+            newLength--;
+        }
+        if (newLength == 0) {
+            return EMPTY;
+        }
+        return new PartSignature(Arrays.copyOf(newWords, newLength));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PartSignature)) {
+            return false;
+        }
+
+        PartSignature other = (PartSignature)obj;
+        return hash == other.hash && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PartSignature[");
+        int count = 0;
+        for (int n = 0; n < words.length * 64; n++) {
+            if (has(n)) {
+                if (count++ > 0) {
+                    sb.append(", ");
+                }
+                sb.append(n);
+            }
+        }
+        return sb.append("]").toString();
+    }
+
+}
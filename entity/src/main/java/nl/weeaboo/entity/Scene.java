@@ -11,6 +11,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import nl.weeaboo.collections.IntMap;
 import nl.weeaboo.io.IReadResolveSerializable;
 import nl.weeaboo.io.IWriteReplaceSerializable;
 
@@ -37,6 +38,15 @@ public final class Scene implements IWriteReplaceSerializable {
             new CopyOnWriteArrayList<IEntityListener>();
     private final transient CopyOnWriteArrayList<IPartListener> partListeners =
             new CopyOnWriteArrayList<IPartListener>();
+    private final transient IntMap<PartColumn<?>> partColumns = new IntMap<PartColumn<?>>();
+
+    /**
+     * Ids of entities that were changed, attached or detached since the last snapshot. Only tracked while the world
+     * tracks changes.
+     */
+    private final transient IntMap<Boolean> changedEntities = new IntMap<Boolean>();
+    /** {@code true} if the scene's own attributes changed since the last snapshot. */
+    private transient boolean changed;
 
     // -------------------------------------------------------------------------
 
@@ -57,14 +67,77 @@ public final class Scene implements IWriteReplaceSerializable {
         partManager.reset();
         entityListeners.clear();
         partListeners.clear();
+        partColumns.clear();
+        clearChanges();
     }
 
-    void serialize(ObjectOutput out) throws IOException {
+    void serialize(SnapshotOutput snapshotOut) throws IOException {
+        ObjectOutput out = snapshotOut.getOutput();
         out.writeBoolean(enabled);
 
-        entityManager.serialize(out);
+        entityManager.serialize(snapshotOut);
         partManager.serialize();
 
+        serializeListeners(out);
+    }
+
+    /**
+     * Writes the changes since the last snapshot: the scene attributes, changed entities and the ids of removed
+     * entities.
+     *
+     * @see World#writeDelta(ObjectOutput)
+     */
+    void serializeDelta(SnapshotOutput snapshotOut) throws IOException {
+        ObjectOutput out = snapshotOut.getOutput();
+        out.writeBoolean(enabled);
+
+        IntMap<Entity> changedAttached = new IntMap<Entity>();
+        List<Integer> removedIds = new ArrayList<Integer>();
+        for (int n = 0; n < changedEntities.size(); n++) {
+            int entityId = changedEntities.keyAt(n);
+            Entity e = getEntity(entityId);
+            if (e == null) {
+                removedIds.add(entityId);
+                continue;
+            }
+
+            addWithSharedParts(changedAttached, e);
+        }
+        entityManager.serializeDelta(snapshotOut, changedAttached, removedIds);
+
+        serializeListeners(out);
+    }
+
+    /**
+     * Adds an entity, and all entities (transitively) sharing a part with it. When written to a delta snapshot, the
+     * shared parts keep their identity.
+     */
+    private void addWithSharedParts(IntMap<Entity> out, Entity entity) {
+        if (out.containsKey(entity.getId())) {
+            return;
+        }
+
+        List<Entity> pending = new ArrayList<Entity>();
+        out.put(entity.getId(), entity);
+        pending.add(entity);
+        while (!pending.isEmpty()) {
+            Entity e = pending.remove(pending.size() - 1);
+            for (int partId = 0; partId < e.partsLength(); partId++) {
+                IPart p = e.getPart(partId);
+                if (p == null) {
+                    continue;
+                }
+                for (Entity other : partManager.entitiesWithPart(p)) {
+                    if (!out.containsKey(other.getId())) {
+                        out.put(other.getId(), other);
+                        pending.add(other);
+                    }
+                }
+            }
+        }
+    }
+
+    private void serializeListeners(ObjectOutput out) throws IOException {
         out.writeInt(entityListeners.size());
         for (IEntityListener listener : entityListeners) {
             out.writeObject(listener);
@@ -76,15 +149,42 @@ public final class Scene implements IWriteReplaceSerializable {
         }
     }
 
-    void deserialize(World w, ObjectInput in) throws IOException, ClassNotFoundException {
+    void deserialize(World w, SnapshotInput snapshotIn) throws IOException, ClassNotFoundException {
         reset();
 
+        ObjectInput in = snapshotIn.getInput();
+
         this.world = w;
         enabled = in.readBoolean();
 
-        entityManager.deserialize(this, in);
+        entityManager.deserialize(this, snapshotIn);
         partManager.deserialize(this);
 
+        deserializeListeners(in);
+        clearChanges();
+    }
+
+    /**
+     * Applies changes written by {@link #serializeDelta(SnapshotOutput)}.
+     */
+    void deserializeDelta(SnapshotInput snapshotIn) throws IOException, ClassNotFoundException {
+        ObjectInput in = snapshotIn.getInput();
+        enabled = in.readBoolean();
+
+        beginBatch();
+        try {
+            entityManager.deserializeDelta(this, snapshotIn);
+        } finally {
+            endBatch();
+        }
+
+        entityListeners.clear();
+        partListeners.clear();
+        deserializeListeners(in);
+        clearChanges();
+    }
+
+    private void deserializeListeners(ObjectInput in) throws IOException, ClassNotFoundException {
         int entityListenersL = in.readInt();
         for (int n = 0; n < entityListenersL; n++) {
             entityListeners.add((IEntityListener)in.readObject());
@@ -137,6 +237,33 @@ public final class Scene implements IWriteReplaceSerializable {
      */
     public void setEnabled(boolean e) {
         enabled = e;
+        changed = true;
+    }
+
+    /**
+     * Returns {@code true} if anything in this scene changed since the last snapshot.
+     *
+     * @see World#hasChanges()
+     */
+    boolean hasChanges() {
+        return changed || !changedEntities.isEmpty();
+    }
+
+    /**
+     * Forgets all changes made since the last snapshot.
+     */
+    void clearChanges() {
+        changedEntities.clear();
+        changed = false;
+    }
+
+    /**
+     * Marks an entity as changed, so it will be included in the next delta snapshot.
+     */
+    private void markChanged(Entity e) {
+        if (world != null && world.isTrackingChanges()) {
+            changedEntities.put(e.getId(), Boolean.TRUE);
+        }
     }
 
     /**
@@ -144,6 +271,7 @@ public final class Scene implements IWriteReplaceSerializable {
      */
     public void addEntityListener(IEntityListener el) {
         entityListeners.add(el);
+        changed = true;
     }
 
     /**
@@ -151,6 +279,7 @@ public final class Scene implements IWriteReplaceSerializable {
      */
     public void removeEntityListener(IEntityListener el) {
         entityListeners.remove(el);
+        changed = true;
     }
 
     /**
@@ -158,6 +287,7 @@ public final class Scene implements IWriteReplaceSerializable {
      */
     public void addPartListener(IPartListener pl) {
         partListeners.add(pl);
+        changed = true;
     }
 
     /**
@@ -165,6 +295,7 @@ public final class Scene implements IWriteReplaceSerializable {
      */
     public void removePartListener(IPartListener pl) {
         partListeners.remove(pl);
+        changed = true;
     }
 
     /**
@@ -173,12 +304,9 @@ public final class Scene implements IWriteReplaceSerializable {
      * @see World#firePartPropertyChanged(IPart, String, Object)
      */
     void firePartPropertyChanged(IPart part, String propertyName, Object newValue) {
-        boolean invalidated = false;
         for (Entity e : partManager.entitiesWithPart(part)) {
-            if (!invalidated) {
-                invalidated = true;
-                entityManager.invalidateStreams();
-            }
+            entityManager.onEntityUpdated(e);
+            markChanged(e);
 
             for (IPartListener pl : partListeners) {
                 pl.onPartPropertyChanged(e, part, propertyName, newValue);
@@ -216,6 +344,7 @@ public final class Scene implements IWriteReplaceSerializable {
     void registerEntity(Entity e, boolean notifyListeners) {
         e.scene = this;
         entityManager.add(e);
+        markChanged(e);
 
         if (notifyListeners) {
             for (IEntityListener el : entityListeners) {
@@ -223,8 +352,11 @@ public final class Scene implements IWriteReplaceSerializable {
             }
         }
 
-        for (IPart p : e.parts()) {
-            registerPart(e, p, notifyListeners);
+        for (int partId = 0; partId < e.partsLength(); partId++) {
+            IPart p = e.getPart(partId);
+            if (p != null) {
+                registerPart(e, partId, p, notifyListeners);
+            }
         }
     }
 
@@ -240,6 +372,7 @@ public final class Scene implements IWriteReplaceSerializable {
             return false;
         }
         e.scene = null;
+        markChanged(e);
 
         if (notifyListeners) {
             for (IEntityListener el : entityListeners) {
@@ -247,12 +380,32 @@ public final class Scene implements IWriteReplaceSerializable {
             }
         }
 
-        for (IPart p : e.parts()) {
-            unregisterPart(e, p, notifyListeners);
+        for (int partId = 0; partId < e.partsLength(); partId++) {
+            IPart p = e.getPart(partId);
+            if (p != null) {
+                unregisterPart(e, partId, p, notifyListeners);
+            }
         }
         return true;
     }
 
+    /**
+     * Starts a batch of structural changes. Stream updates are deferred until the matching call to
+     * {@link #endBatch()}.
+     */
+    void beginBatch() {
+        entityManager.beginBatch();
+    }
+
+    /**
+     * Ends a batch of structural changes.
+     *
+     * @see #beginBatch()
+     */
+    void endBatch() {
+        entityManager.endBatch();
+    }
+
     /**
      * Destroys and removes all entities from this scene.
      */
@@ -326,14 +479,52 @@ public final class Scene implements IWriteReplaceSerializable {
         return getEntity(id) != null;
     }
 
-    void registerPart(Entity e, IPart p, boolean notifyListeners) {
+    /**
+     * Returns a densely packed column containing all parts of the specified type attached to entities in this scene.
+     * The column is created on first use, and then kept up-to-date until the column is removed or the scene is
+     * destroyed.
+     *
+     * @see #removePartColumn(PartType)
+     */
+    public <T> PartColumn<T> getPartColumn(PartType<T> type) {
+        @SuppressWarnings("unchecked")
+        PartColumn<T> column = (PartColumn<T>)partColumns.get(type.getId());
+        if (column == null) {
+            column = new PartColumn<T>(type);
+            for (Entity e : getEntities()) {
+                IPart p = e.getPart(type.getId());
+                if (p != null) {
+                    column.put(e, p);
+                }
+            }
+            partColumns.put(type.getId(), column);
+        }
+        return column;
+    }
+
+    /**
+     * Stops maintaining the part column for the specified type.
+     *
+     * @return {@code true} if a part column for the type existed.
+     * @see #getPartColumn(PartType)
+     */
+    public boolean removePartColumn(PartType<?> type) {
+        return partColumns.remove(type.getId()) != null;
+    }
+
+    void registerPart(Entity e, int partId, IPart p, boolean notifyListeners) {
         boolean newlyAttached = !partManager.contains(p);
 
         partManager.add(e, p);
+        PartColumn<?> column = partColumns.get(partId);
+        if (column != null) {
+            column.put(e, p);
+        }
         if (newlyAttached) {
             p.onAttached(this);
         }
-        entityManager.invalidateStreams();
+        entityManager.onEntityUpdated(e);
+        markChanged(e);
 
         if (notifyListeners) {
             for (IPartListener pl : partListeners) {
@@ -342,9 +533,14 @@ public final class Scene implements IWriteReplaceSerializable {
         }
     }
 
-    void unregisterPart(Entity e, IPart p, boolean notifyListeners) {
+    void unregisterPart(Entity e, int partId, IPart p, boolean notifyListeners) {
         partManager.remove(e, p);
-        entityManager.invalidateStreams();
+        PartColumn<?> column = partColumns.get(partId);
+        if (column != null) {
+            column.remove(e);
+        }
+        entityManager.onEntityUpdated(e);
+        markChanged(e);
 
         if (notifyListeners) {
             for (IPartListener pl : partListeners) {
@@ -0,0 +1,235 @@
+package nl.weeaboo.entity;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import nl.weeaboo.common.Checks;
+
+/**
+ * Records structural changes to a scene (creating/destroying entities, adding/removing parts) and applies them
+ * later in a single batch. Changes may be recorded from any thread, but {@link #flush()} must be called from the
+ * thread that owns the scene.
+ * <p>
+ * Changes are applied in the order they were recorded. Entity streams are updated once per changed entity at the
+ * end of the flush, instead of after every individual change.
+ */
+public final class SceneCommandBuffer {
+
+    private final Scene scene;
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+
+    /**
+     * @param scene The scene to apply the recorded changes to.
+     */
+    public SceneCommandBuffer(Scene scene) {
+        this.scene = Checks.checkNotNull(scene);
+    }
+
+    /**
+     * Records the creation of a new entity.
+     *
+     * @return A handle to the entity that will be created when the command buffer is flushed.
+     */
+    public DeferredEntity createEntity() {
+        DeferredEntity result = new DeferredEntity(null);
+        commands.add(new CreateCommand(result));
+        return result;
+    }
+
+    /**
+     * Records the destruction of an entity.
+     *
+     * @throws IllegalArgumentException If the entity doesn't belong to the scene.
+     * @see Entity#destroy()
+     */
+    public void destroy(Entity e) {
+        new DeferredEntity(checkEntity(e)).destroy();
+    }
+
+    /**
+     * Records adding a part to an existing entity.
+     *
+     * @throws IllegalArgumentException If the entity doesn't belong to the scene.
+     * @see Entity#addPart(PartType, Object)
+     */
+    public <T> void addPart(Entity e, PartType<T> type, T part) {
+        new DeferredEntity(checkEntity(e)).addPart(type, part);
+    }
+
+    /**
+     * Records setting or overwriting a part of an existing entity.
+     *
+     * @throws IllegalArgumentException If the entity doesn't belong to the scene.
+     * @see Entity#setPart(PartType, Object)
+     */
+    public <T> void setPart(Entity e, PartType<T> type, T part) {
+        new DeferredEntity(checkEntity(e)).setPart(type, part);
+    }
+
+    /**
+     * Records removing a part from an existing entity.
+     *
+     * @throws IllegalArgumentException If the entity doesn't belong to the scene.
+     * @see Entity#removePart(PartType)
+     */
+    public void removePart(Entity e, PartType<?> type) {
+        new DeferredEntity(checkEntity(e)).removePart(type);
+    }
+
+    /**
+     * Checks that an entity belongs to the scene, so invalid changes are rejected when they're recorded instead of
+     * when the buffer is flushed.
+     */
+    private Entity checkEntity(Entity e) {
+        Checks.checkNotNull(e);
+        Checks.checkArgument(e.getScene() == scene, "Entity doesn't belong to this command buffer's scene: " + e);
+        return e;
+    }
+
+    /**
+     * Returns {@code true} if no changes are waiting to be applied.
+     */
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /**
+     * Applies all recorded changes to the scene.
+     *
+     * @throws IllegalArgumentException If one of the recorded changes is invalid, for example when adding a part to
+     *         an entity that already has a part of that type. Changes recorded after the invalid change remain in
+     *         the buffer.
+     */
+    public void flush() {
+        scene.beginBatch();
+        try {
+            Command command;
+            while ((command = commands.poll()) != null) {
+                command.apply(scene);
+            }
+        } finally {
+            scene.endBatch();
+        }
+    }
+
+    /**
+     * Handle to an entity that's modified through a command buffer. The entity may not exist yet until the command
+     * buffer is flushed.
+     */
+    public final class DeferredEntity {
+
+        private volatile Entity entity;
+
+        private DeferredEntity(Entity entity) {
+            this.entity = entity;
+        }
+
+        /**
+         * Returns the entity, or {@code null} if the entity hasn't been created yet.
+         */
+        public Entity getEntity() {
+            return entity;
+        }
+
+        /**
+         * Records the destruction of this entity.
+         *
+         * @see Entity#destroy()
+         */
+        public void destroy() {
+            commands.add(new DestroyCommand(this));
+        }
+
+        /**
+         * Records adding a part to this entity.
+         *
+         * @see Entity#addPart(PartType, Object)
+         */
+        public <T> void addPart(PartType<T> type, T part) {
+            commands.add(new PartCommand(this, type.getId(), (IPart)part, true));
+        }
+
+        /**
+         * Records setting or overwriting a part of this entity.
+         *
+         * @see Entity#setPart(PartType, Object)
+         */
+        public <T> void setPart(PartType<T> type, T part) {
+            commands.add(new PartCommand(this, type.getId(), (IPart)part, false));
+        }
+
+        /**
+         * Records removing a part from this entity.
+         *
+         * @see Entity#removePart(PartType)
+         */
+        public void removePart(PartType<?> type) {
+            commands.add(new PartCommand(this, type.getId(), null, false));
+        }
+
+    }
+
+    private abstract static class Command {
+
+        protected final DeferredEntity target;
+
+        public Command(DeferredEntity target) {
+            this.target = target;
+        }
+
+        abstract void apply(Scene scene);
+
+    }
+
+    private static final class CreateCommand extends Command {
+
+        public CreateCommand(DeferredEntity target) {
+            super(target);
+        }
+
+        @Override
+        void apply(Scene scene) {
+            target.entity = scene.createEntity();
+        }
+
+    }
+
+    private static final class DestroyCommand extends Command {
+
+        public DestroyCommand(DeferredEntity target) {
+            super(target);
+        }
+
+        @Override
+        void apply(Scene scene) {
+            target.entity.destroy();
+        }
+
+    }
+
+    private static final class PartCommand extends Command {
+
+        private final int partId;
+        private final IPart part;
+        private final boolean add;
+
+        public PartCommand(DeferredEntity target, int partId, IPart part, boolean add) {
+            super(target);
+
+            this.partId = partId;
+            this.part = part;
+            this.add = add;
+        }
+
+        @Override
+        void apply(Scene scene) {
+            if (add) {
+                target.entity.addPart(partId, part);
+            } else {
+                target.entity.setPart(partId, part);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package nl.weeaboo.entity;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the input stream while deserializing a {@link World}.
+ *
+ * @see SnapshotOutput
+ */
+final class SnapshotInput {
+
+    private final ObjectInput in;
+    private final PartRegistry partRegistry;
+    private final boolean legacyFormat;
+    private final List<IPart> readParts = new ArrayList<IPart>();
+
+    /**
+     * @param legacyFormat If {@code true}, the stream stores parts per entity using Java serialization.
+     */
+    public SnapshotInput(ObjectInput in, PartRegistry partRegistry, boolean legacyFormat) {
+        this.in = in;
+        this.partRegistry = partRegistry;
+        this.legacyFormat = legacyFormat;
+    }
+
+    /**
+     * Returns the underlying input stream.
+     */
+    ObjectInput getInput() {
+        return in;
+    }
+
+    /**
+     * Returns {@code true} if the stream uses the old format, which stores parts per entity using Java serialization.
+     */
+    boolean isLegacyFormat() {
+        return legacyFormat;
+    }
+
+    /**
+     * Reads an int written by {@link SnapshotOutput#writeVarInt(int)}.
+     */
+    int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable-length int");
+    }
+
+    /**
+     * Reads a part written by {@link SnapshotOutput#writePart(int, IPart)}.
+     */
+    IPart readPart(int partId) throws IOException, ClassNotFoundException {
+        int tag = readVarInt();
+        if (tag >= SnapshotOutput.TAG_REF) {
+            int ref = tag - SnapshotOutput.TAG_REF;
+            if (ref >= readParts.size()) {
+                throw new IOException("Invalid part reference: " + ref);
+            }
+            return readParts.get(ref);
+        }
+
+        IPart part;
+        if (tag == SnapshotOutput.TAG_CODEC) {
+            PartType<?> type = partRegistry.get(partId);
+            if (type == null) {
+                throw new IOException("Unknown part type: " + partId);
+            }
+            part = readWithCodec(type);
+        } else {
+            part = (IPart)in.readObject();
+        }
+        readParts.add(part);
+        return part;
+    }
+
+    private <T> IPart readWithCodec(PartType<T> type) throws IOException, ClassNotFoundException {
+        IPartCodec<T> codec = partRegistry.getCodec(type);
+        if (codec == null) {
+            throw new IOException("No codec registered for part type: " + type.getName());
+        }
+        return (IPart)codec.read(in);
+    }
+
+}
@@ -0,0 +1,78 @@
+package nl.weeaboo.entity;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Wraps the output stream while serializing a {@link World}. Keeps track of the parts written so far, so parts that
+ * are attached to multiple entities are only written once.
+ */
+final class SnapshotOutput {
+
+    /** The part is written using the codec registered for its part type. */
+    static final int TAG_CODEC = 0;
+    /** The part is written using Java serialization. */
+    static final int TAG_OBJECT = 1;
+    /** Values starting from this tag refer to a previously written part: {@code tag - TAG_REF}. */
+    static final int TAG_REF = 2;
+
+    private final ObjectOutput out;
+    private final PartRegistry partRegistry;
+    private final Map<IPart, Integer> writtenParts = new IdentityHashMap<IPart, Integer>();
+
+    public SnapshotOutput(ObjectOutput out, PartRegistry partRegistry) {
+        this.out = out;
+        this.partRegistry = partRegistry;
+    }
+
+    /**
+     * Returns the underlying output stream.
+     */
+    ObjectOutput getOutput() {
+        return out;
+    }
+
+    /**
+     * Writes an int using a variable-length encoding (7 bits per byte). Small non-negative values take up less
+     * space.
+     */
+    void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Writes a part attached under the specified part type id.
+     */
+    void writePart(int partId, IPart part) throws IOException {
+        Integer ref = writtenParts.get(part);
+        if (ref != null) {
+            writeVarInt(TAG_REF + ref);
+            return;
+        }
+        writtenParts.put(part, writtenParts.size());
+
+        PartType<?> type = partRegistry.get(partId);
+        if (type == null || !writeWithCodec(type, part)) {
+            writeVarInt(TAG_OBJECT);
+            out.writeObject(part);
+        }
+    }
+
+    private <T> boolean writeWithCodec(PartType<T> type, IPart part) throws IOException {
+        IPartCodec<T> codec = partRegistry.getCodec(type);
+        if (codec == null) {
+            return false;
+        }
+
+        writeVarInt(TAG_CODEC);
+        codec.write(type.cast(part), out);
+        return true;
+    }
+
+}
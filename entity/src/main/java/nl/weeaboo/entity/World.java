@@ -9,13 +9,23 @@ import java.util.Collection;
 import java.util.List;
 
 import nl.weeaboo.collections.IntMap;
+import nl.weeaboo.common.Checks;
 
 /**
  * This class maintains a collection of all available {@link Scene} objects.
+ * <p>
+ * Besides full snapshots (through Java serialization), the world supports delta snapshots containing only the
+ * changes since the previous snapshot. See {@link #writeDelta(ObjectOutput)}.
  */
 public final class World implements Externalizable {
 
-    private static final int SERIALIZE_VERSION = 6;
+    /** Fixed to the value implicitly used by earlier versions, so their snapshots can still be read */
+    private static final long serialVersionUID = 7387463455385105927L;
+
+    /** Version 7: parts are stored column-wise per part type, optionally using a {@link IPartCodec} */
+    private static final int SERIALIZE_VERSION = 7;
+    /** Last version that stored the parts of each entity using Java serialization. Can still be read. */
+    private static final int LEGACY_SERIALIZE_VERSION = 6;
 
     // -------------------------------------------------------------------------
     // * Attributes must be serialized manually
@@ -26,6 +36,16 @@ public final class World implements Externalizable {
     private final IntMap<Scene> scenes = new IntMap<Scene>();
     private int idGenerator;
 
+    /**
+     * Scenes created ({@code true}) or destroyed ({@code false}) since the last snapshot. Not serialized.
+     */
+    private final IntMap<Boolean> changedScenes = new IntMap<Boolean>();
+    /**
+     * Changes are only tracked once there's a baseline for the next delta snapshot, so worlds that never use delta
+     * snapshots don't accumulate changes. Not serialized.
+     */
+    private boolean trackChanges;
+
     // -------------------------------------------------------------------------
 
     public World() {
@@ -46,6 +66,8 @@ public final class World implements Externalizable {
         }
         scenes.clear();
         idGenerator = 0;
+        changedScenes.clear();
+        trackChanges = false;
     }
 
     @Override
@@ -53,25 +75,30 @@ public final class World implements Externalizable {
         out.writeInt(SERIALIZE_VERSION);
         out.writeObject(partRegistry);
 
+        SnapshotOutput snapshotOut = new SnapshotOutput(out, partRegistry);
         final int scenesL = scenes.size();
         out.writeInt(scenesL);
         for (int n = 0; n < scenesL; n++) {
             Scene scene = scenes.valueAt(n);
             out.writeInt(scene.getId());
-            scene.serialize(out);
+            scene.serialize(snapshotOut);
         }
+
+        // The full snapshot is the base for the next delta snapshot
+        clearChanges();
     }
 
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         int version = in.readInt();
-        if (version != SERIALIZE_VERSION) {
+        if (version != SERIALIZE_VERSION && version != LEGACY_SERIALIZE_VERSION) {
             throw new IOException("Unsupported serialization version: " + version);
         }
 
         reset();
 
         partRegistry = (PartRegistry)in.readObject();
+        SnapshotInput snapshotIn = new SnapshotInput(in, partRegistry, version == LEGACY_SERIALIZE_VERSION);
 
         scenes.clear();
         int scenesL = in.readInt();
@@ -86,7 +113,142 @@ public final class World implements Externalizable {
 
             Scene scene = new Scene(this, sceneId);
             scenes.put(sceneId, scene);
-            scene.deserialize(this, in);
+            scene.deserialize(this, snapshotIn);
+        }
+    }
+
+    /**
+     * Writes a delta snapshot containing only the changes since the previous (full or delta) snapshot. To restore
+     * the world, read the last full snapshot and then apply each subsequent delta snapshot in order using
+     * {@link #readDelta(ObjectInput)}.
+     * <p>
+     * Changes are only tracked after a baseline has been established by writing a full snapshot, applying a delta
+     * snapshot, or calling {@link #clearChanges()}. A world that was read from a full snapshot doesn't track changes
+     * until then.
+     * <p>
+     * Entities are tracked as changed when they're created, destroyed or moved, when parts are added or removed, or
+     * when {@link #firePartPropertyChanged(IPart, String, Object)} is called for one of their parts. Changes to part
+     * state that don't fire a property change event are not detected.
+     *
+     * @throws IllegalStateException If there's no baseline for the delta snapshot.
+     * @see #hasChanges()
+     */
+    public void writeDelta(ObjectOutput out) throws IOException {
+        Checks.checkState(trackChanges, "No baseline for a delta snapshot, write a full snapshot first");
+
+        out.writeInt(SERIALIZE_VERSION);
+        out.writeObject(partRegistry);
+
+        SnapshotOutput snapshotOut = new SnapshotOutput(out, partRegistry);
+
+        // Destroyed scenes
+        List<Integer> destroyedIds = new ArrayList<Integer>();
+        for (int n = 0; n < changedScenes.size(); n++) {
+            if (!changedScenes.valueAt(n) && !scenes.containsKey(changedScenes.keyAt(n))) {
+                destroyedIds.add(changedScenes.keyAt(n));
+            }
+        }
+        snapshotOut.writeVarInt(destroyedIds.size());
+        for (int sceneId : destroyedIds) {
+            out.writeInt(sceneId);
+        }
+
+        // Changed scenes. New scenes are written in full.
+        List<Scene> changed = new ArrayList<Scene>();
+        for (int n = 0; n < scenes.size(); n++) {
+            Scene scene = scenes.valueAt(n);
+            if (changedScenes.containsKey(scene.getId()) || scene.hasChanges()) {
+                changed.add(scene);
+            }
+        }
+        snapshotOut.writeVarInt(changed.size());
+        for (Scene scene : changed) {
+            boolean created = changedScenes.containsKey(scene.getId());
+            out.writeInt(scene.getId());
+            out.writeBoolean(created);
+            if (created) {
+                scene.serialize(snapshotOut);
+            } else {
+                scene.serializeDelta(snapshotOut);
+            }
+        }
+
+        clearChanges();
+    }
+
+    /**
+     * Applies a delta snapshot written by {@link #writeDelta(ObjectOutput)}. The current state of the world must be
+     * equal to the state at the time the previous snapshot was written.
+     */
+    public void readDelta(ObjectInput in) throws IOException, ClassNotFoundException {
+        int version = in.readInt();
+        if (version != SERIALIZE_VERSION) {
+            throw new IOException("Unsupported serialization version: " + version);
+        }
+
+        // Update the existing registry, references to it or its part types must remain valid
+        partRegistry.merge((PartRegistry)in.readObject());
+        SnapshotInput snapshotIn = new SnapshotInput(in, partRegistry, false);
+
+        int destroyedL = snapshotIn.readVarInt();
+        for (int n = 0; n < destroyedL; n++) {
+            Scene destroyed = scenes.remove(in.readInt());
+            if (destroyed != null) {
+                destroyed.world = null;
+            }
+        }
+
+        int changedL = snapshotIn.readVarInt();
+        for (int n = 0; n < changedL; n++) {
+            int sceneId = in.readInt();
+            if (sceneId <= 0) {
+                throw new IOException("Serialized scene has an invalid id: " + sceneId);
+            }
+
+            boolean created = in.readBoolean();
+            Scene scene = scenes.get(sceneId);
+            if (created) {
+                scene = new Scene(this, sceneId);
+                scenes.put(sceneId, scene);
+                scene.deserialize(this, snapshotIn);
+            } else if (scene != null) {
+                scene.deserializeDelta(snapshotIn);
+            } else {
+                throw new IOException("Delta snapshot refers to a non-existent scene: " + sceneId);
+            }
+        }
+
+        // The resulting state is the baseline for the next delta snapshot
+        clearChanges();
+    }
+
+    /**
+     * Returns {@code true} if anything changed since the last snapshot. Also returns {@code true} if changes aren't
+     * tracked yet, because there's no baseline snapshot.
+     *
+     * @see #writeDelta(ObjectOutput)
+     */
+    public boolean hasChanges() {
+        if (!trackChanges || !changedScenes.isEmpty()) {
+            return true;
+        }
+        for (int n = 0; n < scenes.size(); n++) {
+            if (scenes.valueAt(n).hasChanges()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all changes since the last snapshot. The next delta snapshot will only contain changes made after
+     * this call. Starts tracking changes if they weren't tracked yet.
+     */
+    public void clearChanges() {
+        trackChanges = true;
+        changedScenes.clear();
+        for (int n = 0; n < scenes.size(); n++) {
+            scenes.valueAt(n).clearChanges();
         }
     }
 
@@ -104,6 +266,9 @@ public final class World implements Externalizable {
 
         Scene s = new Scene(this, id);
         scenes.put(id, s);
+        if (trackChanges) {
+            changedScenes.put(id, Boolean.TRUE);
+        }
         return s;
     }
 
@@ -114,6 +279,9 @@ public final class World implements Externalizable {
         Scene removed = scenes.remove(s.getId());
         s.world = null;
         assert removed == s;
+        if (trackChanges) {
+            changedScenes.put(s.getId(), Boolean.FALSE);
+        }
     }
 
     /**
@@ -149,6 +317,13 @@ public final class World implements Externalizable {
         }
     }
 
+    /**
+     * Returns {@code true} if changes are tracked for the next delta snapshot.
+     */
+    boolean isTrackingChanges() {
+        return trackChanges;
+    }
+
     /**
      * Returns the global part registry used by this world.
      */
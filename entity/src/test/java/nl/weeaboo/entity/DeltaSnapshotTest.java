@@ -0,0 +1,268 @@
+package nl.weeaboo.entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaSnapshotTest {
+
+    private TestPartRegistry pr;
+    private World world;
+    private Scene scene;
+
+    @Before
+    public void before() {
+        pr = new TestPartRegistry();
+        world = new World(pr);
+        scene = world.createScene();
+    }
+
+    /**
+     * Changes are tracked since the last snapshot.
+     */
+    @Test
+    public void trackChanges() throws IOException {
+        Assert.assertEquals(true, world.hasChanges());
+        writeFull(world);
+        Assert.assertEquals(false, world.hasChanges());
+
+        Entity e = scene.createEntity();
+        Assert.assertEquals(true, world.hasChanges());
+        writeDelta(world);
+        Assert.assertEquals(false, world.hasChanges());
+
+        ModelPart part = new ModelPart();
+        e.addPart(pr.typeA, part);
+        Assert.assertEquals(true, world.hasChanges());
+        world.clearChanges();
+
+        world.firePartPropertyChanged(part, "x", 1);
+        Assert.assertEquals(true, world.hasChanges());
+        world.clearChanges();
+
+        e.destroy();
+        Assert.assertEquals(true, world.hasChanges());
+        world.clearChanges();
+
+        scene.setEnabled(false);
+        Assert.assertEquals(true, world.hasChanges());
+        world.clearChanges();
+
+        scene.destroy();
+        Assert.assertEquals(true, world.hasChanges());
+    }
+
+    /**
+     * Applies a chain of delta snapshots onto a full snapshot.
+     */
+    @Test
+    public void applyDeltas() throws IOException, ClassNotFoundException {
+        Entity e1 = scene.createEntity();
+        e1.addPart(pr.typeA, new ModelPart(1, 1, 1));
+        Entity e2 = scene.createEntity();
+        e2.addPart(pr.typeA, new ModelPart(2, 2, 2));
+        Entity e3 = scene.createEntity();
+        e3.addPart(pr.typeA, new ModelPart(3, 3, 3));
+        byte[] base = writeFull(world);
+
+        // Delta 1: change, remove and add entities
+        ModelPart part1 = e1.getPart(pr.typeA);
+        part1.setX(10);
+        world.firePartPropertyChanged(part1, "x", 10);
+        e2.destroy();
+        Entity e4 = scene.createEntity();
+        e4.addPart(pr.typeB, new ModelPart(4, 4, 4));
+        byte[] delta1 = writeDelta(world);
+
+        // Delta 2: scene changes
+        Scene scene2 = world.createScene();
+        scene2.createEntity().addPart(pr.typeC, new ModelPart(5, 5, 5));
+        e3.removePart(pr.typeA);
+        byte[] delta2 = writeDelta(world);
+
+        // Delta 3: destroy a scene
+        scene.setEnabled(false);
+        Scene scene3 = world.createScene();
+        scene3.createEntity();
+        byte[] delta3a = writeDelta(world);
+        scene3.destroy();
+        byte[] delta3b = writeDelta(world);
+
+        World loaded = readFull(base);
+        readDelta(loaded, delta1);
+        readDelta(loaded, delta2);
+        readDelta(loaded, delta3a);
+        readDelta(loaded, delta3b);
+        Assert.assertEquals(false, loaded.hasChanges());
+
+        Assert.assertEquals(world.getScenesCount(), loaded.getScenesCount());
+        Assert.assertNull(loaded.getScene(scene3.getId()));
+        for (Scene expected : world.getScenes()) {
+            Scene actual = loaded.getScene(expected.getId());
+            Assert.assertEquals(expected.isEnabled(), actual.isEnabled());
+            assertEntitiesEqual(expected.getEntities(), actual.getEntities());
+        }
+
+        // Entity streams are updated while applying the deltas
+        EntityStream stream = loaded.getScene(scene.getId()).joinStream(new DefaultEntityStreamDef(pr.typeA));
+        Assert.assertEquals(1, stream.count());
+    }
+
+    /**
+     * Parts shared between a changed and an unchanged entity keep their identity.
+     */
+    @Test
+    public void sharedPart() throws IOException, ClassNotFoundException {
+        ModelPart shared = new ModelPart();
+        Entity e1 = scene.createEntity();
+        e1.addPart(pr.typeA, shared);
+        Entity e2 = scene.createEntity();
+        e2.addPart(pr.typeA, shared);
+        byte[] base = writeFull(world);
+
+        e1.addPart(pr.typeB, new ModelPart());
+        byte[] delta = writeDelta(world);
+
+        World loaded = readFull(base);
+        readDelta(loaded, delta);
+
+        Entity loaded1 = loaded.findEntity(e1.getId());
+        Entity loaded2 = loaded.findEntity(e2.getId());
+        Assert.assertNotNull(loaded1.getPart(pr.typeB));
+        Assert.assertSame(loaded1.getPart(pr.typeA), loaded2.getPart(pr.typeA));
+    }
+
+    /**
+     * Changes aren't tracked until there's a baseline snapshot.
+     */
+    @Test
+    public void noTrackingWithoutBaseline() throws IOException {
+        Entity e = scene.createEntity();
+        e.addPart(pr.typeA, new ModelPart());
+        Assert.assertEquals(false, scene.hasChanges());
+        // Without a baseline, everything counts as changed
+        Assert.assertEquals(true, world.hasChanges());
+
+        try {
+            writeDelta(world);
+            Assert.fail("Delta snapshot without baseline");
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+
+        world.clearChanges();
+        e.destroy();
+        Assert.assertEquals(true, scene.hasChanges());
+    }
+
+    /**
+     * Parts shared indirectly (through a chain of entities) keep their identity.
+     */
+    @Test
+    public void transitivelySharedParts() throws IOException, ClassNotFoundException {
+        ModelPart p = new ModelPart();
+        ModelPart q = new ModelPart();
+        Entity e = scene.createEntity();
+        Entity u = scene.createEntity();
+        Entity v = scene.createEntity();
+        e.addPart(pr.typeA, p);
+        u.addPart(pr.typeA, p);
+        u.addPart(pr.typeB, q);
+        v.addPart(pr.typeB, q);
+        byte[] base = writeFull(world);
+
+        e.addPart(pr.typeC, new ModelPart());
+        byte[] delta = writeDelta(world);
+
+        World loaded = readFull(base);
+        readDelta(loaded, delta);
+
+        Entity loadedE = loaded.findEntity(e.getId());
+        Entity loadedU = loaded.findEntity(u.getId());
+        Entity loadedV = loaded.findEntity(v.getId());
+        Assert.assertSame(loadedE.getPart(pr.typeA), loadedU.getPart(pr.typeA));
+        Assert.assertSame(loadedU.getPart(pr.typeB), loadedV.getPart(pr.typeB));
+    }
+
+    /**
+     * Applying a delta snapshot updates the existing part registry.
+     */
+    @Test
+    public void deltaUpdatesPartRegistry() throws IOException, ClassNotFoundException {
+        byte[] base = writeFull(world);
+
+        PartType<ModelPart> newType = pr.register("new", ModelPart.class);
+        scene.createEntity().addPart(newType, new ModelPart(1, 2, 3));
+        byte[] delta = writeDelta(world);
+
+        World loaded = readFull(base);
+        PartRegistry loadedPr = loaded.getPartRegistry();
+        PartType<?> loadedTypeA = loadedPr.get(pr.typeA.getId());
+        readDelta(loaded, delta);
+
+        Assert.assertSame(loadedPr, loaded.getPartRegistry());
+        Assert.assertSame(loadedTypeA, loadedPr.get(pr.typeA.getId()));
+        Assert.assertEquals(newType, loadedPr.get("new"));
+    }
+
+    private static void assertEntitiesEqual(List<Entity> expected, List<Entity> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int n = 0; n < expected.size(); n++) {
+            Entity a = expected.get(n);
+            Entity b = actual.get(n);
+            Assert.assertEquals(a.getId(), b.getId());
+            Assert.assertEquals(a.getPartsCount(), b.getPartsCount());
+            for (int partId = 0; partId < a.partsLength(); partId++) {
+                ModelPart aPart = (ModelPart)a.getPart(partId);
+                ModelPart bPart = (ModelPart)b.getPart(partId);
+                if (aPart == null) {
+                    Assert.assertNull(bPart);
+                } else {
+                    Assert.assertEquals(aPart.getX(), bPart.getX());
+                }
+            }
+        }
+    }
+
+    private static byte[] writeFull(World world) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(world);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    private static World readFull(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (World)in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] writeDelta(World world) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        world.writeDelta(out);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    private static void readDelta(World world, byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            world.readDelta(in);
+        } finally {
+            in.close();
+        }
+    }
+
+}
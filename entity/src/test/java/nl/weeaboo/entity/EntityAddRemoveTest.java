@@ -1,5 +1,8 @@
 package nl.weeaboo.entity;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -44,4 +47,36 @@ public class EntityAddRemoveTest {
         Assert.assertEquals(1, beta.getEntitiesCount());
     }
 
+    /**
+     * While clearing a scene, listeners never see destroyed entities in the scene's entity streams.
+     */
+    @Test
+    public void clearUpdatesStreams() {
+        TestPartRegistry pr = new TestPartRegistry();
+        World world = new World(pr);
+        Scene scene = world.createScene();
+        for (int n = 0; n < 3; n++) {
+            scene.createEntity().addPart(pr.typeA, new ModelPart());
+        }
+
+        final EntityStream stream = scene.joinStream(new DefaultEntityStreamDef(pr.typeA));
+        final List<Entity> seenInStream = new ArrayList<Entity>();
+        scene.addEntityListener(new CountingEntityListener() {
+            @Override
+            public void onEntityDestroyed(Entity e) {
+                super.onEntityDestroyed(e);
+                for (Entity streamEntity : stream) {
+                    if (streamEntity == e) {
+                        seenInStream.add(e);
+                    }
+                }
+            }
+        });
+
+        scene.clear();
+        Assert.assertEquals(0, scene.getEntitiesCount());
+        Assert.assertEquals(0, stream.count());
+        Assert.assertEquals(new ArrayList<Entity>(), seenInStream);
+    }
+
 }
@@ -0,0 +1,156 @@
+package nl.weeaboo.entity;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelSignalTest {
+
+    private static final int ENTITY_COUNT = 1000;
+
+    private ExecutorService executor;
+    private TestPartRegistry pr;
+    private EntityStream stream;
+
+    @Before
+    public void before() {
+        executor = Executors.newFixedThreadPool(4);
+
+        pr = new TestPartRegistry();
+        World world = new World(pr);
+        Scene scene = world.createScene();
+        for (int n = 0; n < ENTITY_COUNT; n++) {
+            scene.createEntity().addPart(pr.typeA, new SignalPart());
+        }
+        stream = scene.joinStream(new DefaultEntityStreamDef(pr.typeA));
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    /** Unordered signals are delivered to every entity. */
+    @Test
+    public void unorderedSignal() {
+        CountSignal signal = new CountSignal(Integer.MAX_VALUE);
+        stream.sendSignal(signal, executor);
+
+        Assert.assertEquals(ENTITY_COUNT, signal.count.get());
+        Assert.assertEquals(false, signal.isHandled());
+    }
+
+    /** Marking the signal as handled stops all workers. */
+    @Test
+    public void unorderedSignalHandled() {
+        CountSignal signal = new CountSignal(10);
+        stream.sendSignal(signal, executor);
+
+        Assert.assertEquals(true, signal.isHandled());
+        Assert.assertTrue(signal.count.get() < ENTITY_COUNT);
+    }
+
+    /** If a handler fails, the signal isn't delivered any further and no handlers remain running afterwards. */
+    @Test
+    public void unorderedSignalFails() throws InterruptedException {
+        // Fails in the first chunk, while the other chunks are still running
+        FailSignal signal = new FailSignal(stream.iterator().next().getPart(pr.typeA));
+        try {
+            stream.sendSignal(signal, executor);
+            Assert.fail("Handler exception should be rethrown");
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+
+        Assert.assertEquals(0, signal.active.get());
+        int count = signal.count.get();
+        Thread.sleep(50);
+        Assert.assertEquals(count, signal.count.get());
+        Assert.assertTrue(count < ENTITY_COUNT);
+    }
+
+    /** Regular signals are still delivered in order on the calling thread. */
+    @Test
+    public void orderedSignal() {
+        ThreadSignal signal = new ThreadSignal();
+        stream.sendSignal(signal, executor);
+
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), signal.threads);
+    }
+
+    private static final class CountSignal extends AbstractSignal implements IUnorderedSignal {
+
+        final AtomicInteger count = new AtomicInteger();
+        private final int handledThreshold;
+
+        public CountSignal(int handledThreshold) {
+            this.handledThreshold = handledThreshold;
+        }
+
+        void increment() {
+            if (count.incrementAndGet() >= handledThreshold) {
+                setHandled();
+            }
+        }
+
+    }
+
+    private static final class FailSignal extends AbstractSignal implements IUnorderedSignal {
+
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        private final IPart failingPart;
+
+        public FailSignal(IPart failingPart) {
+            this.failingPart = failingPart;
+        }
+
+        void handle(IPart part) {
+            active.incrementAndGet();
+            try {
+                count.incrementAndGet();
+                if (part == failingPart) {
+                    throw new IllegalStateException("Handler failed");
+                }
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+    }
+
+    private static final class ThreadSignal extends AbstractSignal {
+
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    }
+
+    private static final class SignalPart extends ModelPart {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void handleSignal(ISignal signal) {
+            if (signal instanceof CountSignal) {
+                ((CountSignal)signal).increment();
+            } else if (signal instanceof FailSignal) {
+                ((FailSignal)signal).handle(this);
+            } else if (signal instanceof ThreadSignal) {
+                ((ThreadSignal)signal).threads.add(Thread.currentThread());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package nl.weeaboo.entity;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartColumnTest {
+
+    private TestPartRegistry pr;
+    private Scene scene;
+
+    @Before
+    public void before() {
+        pr = new TestPartRegistry();
+        World world = new World(pr);
+        scene = world.createScene();
+    }
+
+    /**
+     * Parts attached before the column is created are included in the column.
+     */
+    @Test
+    public void existingParts() {
+        Entity alpha = scene.createEntity();
+        ModelPart alphaPart = new ModelPart();
+        alpha.addPart(pr.typeA, alphaPart);
+        scene.createEntity().addPart(pr.typeB, new ModelPart());
+
+        PartColumn<ModelPart> column = scene.getPartColumn(pr.typeA);
+        Assert.assertEquals(1, column.size());
+        Assert.assertSame(alphaPart, column.getPart(0));
+        Assert.assertSame(alpha, column.getEntity(0));
+        Assert.assertSame(column, scene.getPartColumn(pr.typeA));
+    }
+
+    @Test
+    public void addRemove() {
+        PartColumn<ModelPart> column = scene.getPartColumn(pr.typeA);
+
+        Entity[] entities = new Entity[5];
+        for (int n = 0; n < entities.length; n++) {
+            entities[n] = scene.createEntity();
+            entities[n].addPart(pr.typeA, new ModelPart(n, 0, 0));
+        }
+        assertColumn(column, entities[0], entities[1], entities[2], entities[3], entities[4]);
+
+        // Remove a part from the middle
+        entities[1].removePart(pr.typeA);
+        Assert.assertEquals(-1, column.indexOf(entities[1]));
+        assertColumn(column, entities[0], entities[2], entities[3], entities[4]);
+
+        // Overwrite a part
+        ModelPart replacement = new ModelPart();
+        entities[2].setPart(pr.typeA, replacement);
+        Assert.assertSame(replacement, column.getPart(column.indexOf(entities[2])));
+        assertColumn(column, entities[0], entities[2], entities[3], entities[4]);
+
+        // Destroy an entity
+        entities[3].destroy();
+        assertColumn(column, entities[0], entities[2], entities[4]);
+
+        // Move an entity to another scene
+        Scene other = scene.world.createScene();
+        entities[4].moveToScene(other);
+        assertColumn(column, entities[0], entities[2]);
+        assertColumn(other.getPartColumn(pr.typeA), entities[4]);
+
+        Assert.assertEquals(true, scene.removePartColumn(pr.typeA));
+        Assert.assertEquals(false, scene.removePartColumn(pr.typeA));
+    }
+
+    private static void assertColumn(PartColumn<ModelPart> column, Entity... expected) {
+        Set<Entity> actual = new HashSet<Entity>();
+        for (int n = 0; n < column.size(); n++) {
+            Entity e = column.getEntity(n);
+            Assert.assertEquals(n, column.indexOf(e));
+            Assert.assertSame(e.getPart(column.getType()), column.getPart(n));
+            actual.add(e);
+        }
+        Assert.assertEquals(expected.length, column.size());
+        for (Entity e : expected) {
+            Assert.assertTrue(actual.contains(e));
+        }
+    }
+
+}
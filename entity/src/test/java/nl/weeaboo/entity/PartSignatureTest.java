@@ -0,0 +1,33 @@
+package nl.weeaboo.entity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PartSignatureTest {
+
+    @Test
+    public void addRemove() {
+        PartSignature sig = PartSignature.EMPTY.with(1).with(70);
+        Assert.assertEquals(true, sig.has(1));
+        Assert.assertEquals(true, sig.has(70));
+        Assert.assertEquals(false, sig.has(2));
+        Assert.assertEquals(false, sig.has(-1));
+
+        // Removing the high bit should result in a signature equal to one that never had it
+        Assert.assertEquals(PartSignature.EMPTY.with(1), sig.without(70));
+        Assert.assertEquals(PartSignature.EMPTY.with(1).hashCode(), sig.without(70).hashCode());
+        Assert.assertSame(PartSignature.EMPTY, sig.without(1).without(70));
+    }
+
+    @Test
+    public void containsAll() {
+        PartSignature small = PartSignature.EMPTY.with(3);
+        PartSignature large = small.with(5).with(100);
+
+        Assert.assertEquals(true, large.containsAll(small));
+        Assert.assertEquals(false, small.containsAll(large));
+        Assert.assertEquals(true, small.containsAll(PartSignature.EMPTY));
+        Assert.assertEquals(false, PartSignature.EMPTY.containsAll(small));
+    }
+
+}
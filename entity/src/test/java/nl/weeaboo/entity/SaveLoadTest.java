@@ -2,6 +2,10 @@ package nl.weeaboo.entity;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -76,6 +80,111 @@ public class SaveLoadTest {
         Assert.assertEquals(true, e.getPart(pr.typeC).isAttached());
     }
 
+    /**
+     * Parts with a registered codec are serialized using that codec.
+     */
+    @Test
+    public void writePartsWithCodec() throws IOException, ClassNotFoundException {
+        TestPartRegistry pr = new TestPartRegistry();
+        ModelPartCodec codec = new ModelPartCodec();
+        pr.setCodec(pr.typeA, codec);
+        pr.setCodec(pr.typeB, codec);
+        World world = new World(pr);
+
+        Scene scene = world.createScene();
+        Entity e1 = scene.createEntity();
+        Entity e2 = scene.createEntity();
+        Entity e3 = scene.createEntity();
+
+        ModelPart shared = new ModelPart(1, 2, 3);
+        e1.addPart(pr.typeA, shared);
+        e1.addPart(pr.typeB, shared);
+        e1.addPart(pr.typeC, new ModelPart(4, 5, 6)); // No codec
+        e2.addPart(pr.typeA, shared);
+        e3.addPart(pr.typeA, new ModelPart(-7, 8, 0x12345678));
+        e2.destroy(); // Leaves a gap in the entity ids
+
+        TestUtil.serializeWorld(TEMP_FILE, false, world);
+        Assert.assertEquals(2, ModelPartCodec.writeCount); // Shared part is only written once
+
+        World loaded = TestUtil.deserializeWorld(TEMP_FILE);
+        Assert.assertEquals(2, ModelPartCodec.readCount);
+        TestUtil.assertEntitiesEqual(scene.getEntities(), loaded.getScene(scene.getId()).getEntities());
+
+        PartRegistry loadedPr = loaded.getPartRegistry();
+        PartType<?> loadedTypeA = loadedPr.get(pr.typeA.getId());
+        Assert.assertNotNull(loadedPr.getCodec(loadedTypeA));
+
+        Entity loaded1 = loaded.findEntity(e1.getId());
+        ModelPart loadedShared = (ModelPart)loaded1.getPart(pr.typeA.getId());
+        Assert.assertEquals(true, loadedShared.isAttached());
+        Assert.assertSame(loadedShared, loaded1.getPart(pr.typeB.getId()));
+        assertModel(1, 2, 3, loadedShared);
+        assertModel(4, 5, 6, (ModelPart)loaded1.getPart(pr.typeC.getId()));
+
+        Assert.assertNull(loaded.findEntity(e2.getId()));
+
+        Entity loaded3 = loaded.findEntity(e3.getId());
+        assertModel(-7, 8, 0x12345678, (ModelPart)loaded3.getPart(pr.typeA.getId()));
+    }
+
+    /**
+     * Snapshots written using the legacy format (version 6) can still be read, and written again using the current
+     * format. The fixture was written using the last release that used version 6.
+     */
+    @Test
+    public void readLegacySnapshot() throws IOException, ClassNotFoundException {
+        World legacy = readLegacyWorld();
+        assertLegacyWorld(legacy);
+
+        TestUtil.serializeWorld(TEMP_FILE, false, legacy);
+        World loaded = TestUtil.deserializeWorld(TEMP_FILE);
+        assertLegacyWorld(loaded);
+        for (Scene scene : legacy.getScenes()) {
+            TestUtil.assertEntitiesEqual(scene.getEntities(), loaded.getScene(scene.getId()).getEntities());
+        }
+    }
+
+    private World readLegacyWorld() throws IOException, ClassNotFoundException {
+        InputStream in = getClass().getResourceAsStream("/world-v6.bin");
+        Assert.assertNotNull(in);
+        try {
+            return TestUtil.deserializeWorld(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertLegacyWorld(World world) {
+        TestPartRegistry pr = (TestPartRegistry)world.getPartRegistry();
+        Assert.assertEquals(2, world.getScenesCount());
+
+        Scene scene = world.getScenes().get(0);
+        Assert.assertEquals(2, scene.getEntitiesCount());
+        List<Entity> entities = scene.getEntities();
+        Entity e1 = entities.get(0);
+        Entity e3 = entities.get(1);
+        Assert.assertEquals(e1.getId() + 2, e3.getId()); // The second entity was destroyed
+
+        ModelPart shared = e1.getPart(pr.typeA);
+        assertModel(1, 2, 3, shared);
+        Assert.assertEquals(true, shared.isAttached());
+        Assert.assertSame(shared, e1.getPart(pr.typeB));
+        Assert.assertSame(shared, e3.getPart(pr.typeA));
+        assertModel(4, 5, 6, e1.getPart(pr.typeC));
+        Assert.assertNotNull(e3.getPart(pr.typeRender));
+        Assert.assertEquals(true, e3.hasPart(pr.typeRender));
+
+        Scene scene2 = world.getScenes().get(1);
+        Assert.assertEquals(1, scene2.getEntitiesCount());
+        assertModel(-7, 8, 0x12345678, scene2.getEntities().get(0).getPart(pr.typeModel));
+    }
+
+    private static void assertModel(int x, int y, int z, ModelPart part) {
+        Assert.assertEquals(x, part.getX());
+        Assert.assertEquals(y, part.getY());
+        Assert.assertEquals(z, part.getZ());
+    }
 
     /**
      * Tests serialization of Entities with Parts.
@@ -125,4 +234,33 @@ public class SaveLoadTest {
         }
     }
 
+    private static final class ModelPartCodec implements IPartCodec<ModelPart> {
+
+        private static final long serialVersionUID = 1L;
+
+        // Static, because the registry (and the codec with it) is serialized together with the world
+        static int writeCount;
+        static int readCount;
+
+        public ModelPartCodec() {
+            writeCount = 0;
+            readCount = 0;
+        }
+
+        @Override
+        public void write(ModelPart part, ObjectOutput out) throws IOException {
+            writeCount++;
+            out.writeInt(part.getX());
+            out.writeInt(part.getY());
+            out.writeInt(part.getZ());
+        }
+
+        @Override
+        public ModelPart read(ObjectInput in) throws IOException {
+            readCount++;
+            return new ModelPart(in.readInt(), in.readInt(), in.readInt());
+        }
+
+    }
+
 }
@@ -0,0 +1,161 @@
+package nl.weeaboo.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.entity.SceneCommandBuffer.DeferredEntity;
+
+public class SceneCommandBufferTest {
+
+    private TestPartRegistry pr;
+    private World world;
+    private Scene scene;
+    private SceneCommandBuffer buffer;
+    private EntityStream stream;
+
+    @Before
+    public void before() {
+        pr = new TestPartRegistry();
+        world = new World(pr);
+        scene = world.createScene();
+        buffer = new SceneCommandBuffer(scene);
+        stream = scene.joinStream(new DefaultEntityStreamDef(pr.typeA));
+    }
+
+    /**
+     * Changes are only applied when the buffer is flushed.
+     */
+    @Test
+    public void createDestroy() {
+        CountingEntityListener el = new CountingEntityListener();
+        scene.addEntityListener(el);
+        CountingPartListener pl = new CountingPartListener();
+        scene.addPartListener(pl);
+
+        DeferredEntity deferred = buffer.createEntity();
+        deferred.addPart(pr.typeA, new ModelPart());
+        Assert.assertNull(deferred.getEntity());
+        Assert.assertEquals(0, scene.getEntitiesCount());
+        Assert.assertEquals(0, stream.count());
+
+        buffer.flush();
+        Assert.assertEquals(true, buffer.isEmpty());
+        Entity e = deferred.getEntity();
+        Assert.assertEquals(true, scene.contains(e));
+        Assert.assertEquals(1, stream.count());
+        Assert.assertEquals(1, el.created);
+        Assert.assertEquals(1, pl.attached);
+
+        buffer.removePart(e, pr.typeA);
+        buffer.destroy(e);
+        Assert.assertEquals(1, stream.count());
+
+        buffer.flush();
+        Assert.assertEquals(true, e.isDestroyed());
+        Assert.assertEquals(0, stream.count());
+        Assert.assertEquals(1, el.destroyed);
+        Assert.assertEquals(1, pl.detached);
+    }
+
+    /**
+     * Changes can be recorded from multiple threads at the same time.
+     */
+    @Test
+    public void multiThreaded() throws InterruptedException {
+        final int threadCount = 4;
+        final int entitiesPerThread = 250;
+
+        stream.setIncremental(true);
+        Assert.assertEquals(0, stream.count());
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < entitiesPerThread; n++) {
+                        DeferredEntity e = buffer.createEntity();
+                        e.setPart(pr.typeA, new ModelPart());
+                        e.setPart(pr.typeB, new ModelPart());
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        buffer.flush();
+        Assert.assertEquals(threadCount * entitiesPerThread, scene.getEntitiesCount());
+        Assert.assertEquals(threadCount * entitiesPerThread, stream.count());
+    }
+
+    /**
+     * An invalid change stops the flush, but leaves the remaining changes in the buffer.
+     */
+    @Test
+    public void invalidCommand() {
+        Entity e = scene.createEntity();
+        e.addPart(pr.typeA, new ModelPart());
+
+        buffer.addPart(e, pr.typeA, new ModelPart());
+        buffer.destroy(e);
+        try {
+            buffer.flush();
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+            // Expected, part already exists
+        }
+        Assert.assertEquals(false, buffer.isEmpty());
+
+        buffer.flush();
+        Assert.assertEquals(true, e.isDestroyed());
+        Assert.assertEquals(0, stream.count());
+    }
+
+    /**
+     * Null entities and entities from other scenes are rejected when the change is recorded.
+     */
+    @Test
+    public void invalidEntity() {
+        Entity foreign = world.createScene().createEntity();
+        assertRejected(foreign);
+        assertRejected(null);
+        Assert.assertEquals(true, buffer.isEmpty());
+    }
+
+    private void assertRejected(Entity e) {
+        try {
+            buffer.destroy(e);
+            Assert.fail("destroy should fail");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+        try {
+            buffer.addPart(e, pr.typeA, new ModelPart());
+            Assert.fail("addPart should fail");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+        try {
+            buffer.setPart(e, pr.typeA, new ModelPart());
+            Assert.fail("setPart should fail");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+        try {
+            buffer.removePart(e, pr.typeA);
+            Assert.fail("removePart should fail");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package nl.weeaboo.entity;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -60,6 +63,114 @@ public class TestEntityStream {
         esd.requiredParts.add(pr.typeB);
     }
 
+    /**
+     * Checks that an incremental stream produces the same result as a fully rebuilt one.
+     */
+    @Test
+    public void incrementalStream() {
+        final TestPartRegistry pr = new TestPartRegistry();
+        World world = new World(pr);
+        Scene scene = world.createScene();
+
+        ESD<ModelPart> esd = new ESD<ModelPart>(pr.typeA);
+        esd.requiredParts.add(pr.typeA);
+        EntityStream alpha = scene.joinStream(esd);
+        alpha.setIncremental(true);
+
+        Random random = new Random(1234);
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int n = 0; n < 50; n++) {
+            entities.add(createEntity(pr, scene, random.nextInt(20)));
+        }
+        assertStreamEquals(scene, esd, alpha);
+
+        for (int iteration = 0; iteration < 100; iteration++) {
+            Entity e = entities.get(random.nextInt(entities.size()));
+            switch (random.nextInt(4)) {
+            case 0:
+                e.removePart(pr.typeA);
+                break;
+            case 1:
+                e.setPart(pr.typeA, new ModelPart(random.nextInt(20), 0, 0));
+                break;
+            case 2:
+                e.destroy();
+                entities.remove(e);
+                entities.add(createEntity(pr, scene, random.nextInt(20)));
+                break;
+            default:
+                ModelPart part = e.getPart(pr.typeA);
+                if (part != null) {
+                    part.setX(random.nextInt(20));
+                    alpha.invalidate(e);
+                }
+            }
+
+            if (random.nextInt(5) == 0) {
+                assertStreamEquals(scene, esd, alpha);
+            }
+        }
+        assertStreamEquals(scene, esd, alpha);
+    }
+
+    /**
+     * Streams using a {@link DefaultEntityStreamDef} only visit entities with a matching part signature.
+     */
+    @Test
+    public void defaultStreamDef() {
+        final TestPartRegistry pr = new TestPartRegistry();
+        World world = new World(pr);
+        Scene scene = world.createScene();
+
+        List<Entity> expected = new ArrayList<Entity>();
+        for (int n = 0; n < 20; n++) {
+            Entity e = scene.createEntity();
+            if (n % 2 == 0) {
+                e.addPart(pr.typeA, new ModelPart());
+            }
+            if (n % 3 == 0) {
+                e.addPart(pr.typeB, new ModelPart());
+            }
+            if (n % 2 == 0 && n % 3 == 0) {
+                expected.add(e);
+            }
+        }
+
+        EntityStream stream = scene.joinStream(new DefaultEntityStreamDef(pr.typeA, pr.typeB));
+        assertContents(expected, stream);
+
+        // Adding the missing part moves the entity to a different archetype
+        Entity e = scene.getEntity(expected.get(0).getId() + 1);
+        e.addPart(pr.typeA, new ModelPart());
+        e.addPart(pr.typeB, new ModelPart());
+        expected.add(1, e);
+        assertContents(expected, stream);
+
+        stream.setIncremental(true);
+        expected.get(0).removePart(pr.typeB);
+        expected.remove(0);
+        assertContents(expected, stream);
+    }
+
+    private static void assertContents(List<Entity> expected, EntityStream stream) {
+        List<Entity> actual = new ArrayList<Entity>();
+        for (Entity e : stream) {
+            actual.add(e);
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    private static void assertStreamEquals(Scene scene, EntityStreamDef esd, EntityStream actual) {
+        EntityStream expected = new EntityStream(esd);
+        expected.setSource(scene.getEntities());
+
+        Assert.assertEquals(expected.count(), actual.count());
+        assertOrdered(actual, esd);
+        for (Entity e : expected) {
+            Assert.assertTrue(actual.contains(e));
+        }
+    }
+
     private static <T> void assertOrdered(Iterable<T> iterable, Comparator<T> comparator) {
         T prev = null;
         for (T val : iterable) {
@@ -54,8 +54,16 @@ final class TestUtil {
         return deserialize(file, World.class);
     }
 
+    public static World deserializeWorld(InputStream in) throws IOException, ClassNotFoundException {
+        return deserialize(in, World.class);
+    }
+
     private static <T> T deserialize(File file, Class<T> clazz) throws IOException, ClassNotFoundException {
-        InputStream raw = new BufferedInputStream(new FileInputStream(file));
+        return deserialize(new FileInputStream(file), clazz);
+    }
+
+    private static <T> T deserialize(InputStream rawIn, Class<T> clazz) throws IOException, ClassNotFoundException {
+        InputStream raw = new BufferedInputStream(rawIn);
         int compress = raw.read();
         if (compress == 1) {
             raw = new InflaterInputStream(raw, new Inflater(true));